@@ -0,0 +1,72 @@
+package core.math;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the scalar and the SIMD kernel of
+ * {@link Matrix4f#projectToScreen} (JMH, see the README for how to build and
+ * run it).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class ProjectionBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	private int count;
+
+	private Matrix4f view;
+	private float[] points;
+	private float[] screen;
+	private VectorProjection vector;
+
+	private float scaleX, scaleY;
+
+	@Setup
+	public void setup() {
+		// looking down on a 16 x 12 board like the game's camera
+		view = new Matrix4f().translationRotateScale(new Vector3f(-8f, -6f, -10f),
+				new Quaternion().setAxisAngle(30, Axis.X), new Vector3f(1f, 1f, 1f));
+		Random random = new Random(42);
+		points = new float[3 * count];
+		for (int i = 0; i < count; i++) {
+			points[3 * i] = random.nextFloat() * 16f;
+			points[3 * i + 1] = random.nextFloat();
+			points[3 * i + 2] = random.nextFloat() * 12f;
+		}
+		screen = new float[2 * count];
+		vector = new VectorProjection();
+
+		float tan = (float) Math.tan(Math.toRadians(70) / 2f);
+		scaleX = 1f / (tan * 16f / 9f);
+		scaleY = 1f / tan;
+	}
+
+	@Benchmark
+	public float[] scalar() {
+		view.projectScalar(points, 0, count, scaleX, scaleY, 960f, 540f, screen);
+		return screen;
+	}
+
+	@Benchmark
+	public float[] simd() {
+		vector.project(view, points, count, scaleX, scaleY, 960f, 540f, screen);
+		return screen;
+	}
+}
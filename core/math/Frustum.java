@@ -0,0 +1,130 @@
+package core.math;
+
+/**
+ * The view frustum of a camera, described by its six planes (pointing
+ * inwards). Used to skip models that are not visible.
+ */
+public class Frustum {
+
+    private static final int LEFT = 0, RIGHT = 1, BOTTOM = 2, TOP = 3, NEAR = 4, FAR = 5, CLIP = 6;
+
+    /** the planes (a, b, c, d) with a * x + b * y + c * z + d >= 0 inside */
+    private final float[][] planes;
+    /** how many planes are used (7 with a clip plane) */
+    private int planeCount;
+    /** the rows of the matrix (reused by each {@link #set(Matrix4f)}) */
+    private final Vector4f row0, row1, row2, row3;
+
+    /**
+     * Creates a frustum that contains everything until {@link #set(Matrix4f)}
+     * is called.
+     */
+    public Frustum() {
+        planes = new float[7][4];
+        for (int i = 0; i < 6; i++) {
+            planes[i][3] = Float.MAX_VALUE;
+        }
+        planeCount = 6;
+        row0 = new Vector4f();
+        row1 = new Vector4f();
+        row2 = new Vector4f();
+        row3 = new Vector4f();
+    }
+
+    /**
+     * Extracts the planes from the given matrix (Gribb/Hartmann) and removes
+     * the clip plane.
+     *
+     * @param viewProjection
+     *            projectionMatrix * viewMatrix of the camera
+     * @return this frustum
+     */
+    public Frustum set(Matrix4f viewProjection) {
+        viewProjection.getRow(0, row0);
+        viewProjection.getRow(1, row1);
+        viewProjection.getRow(2, row2);
+        viewProjection.getRow(3, row3);
+
+        setPlane(LEFT, row3.x + row0.x, row3.y + row0.y, row3.z + row0.z, row3.w + row0.w);
+        setPlane(RIGHT, row3.x - row0.x, row3.y - row0.y, row3.z - row0.z, row3.w - row0.w);
+        setPlane(BOTTOM, row3.x + row1.x, row3.y + row1.y, row3.z + row1.z, row3.w + row1.w);
+        setPlane(TOP, row3.x - row1.x, row3.y - row1.y, row3.z - row1.z, row3.w - row1.w);
+        setPlane(NEAR, row3.x + row2.x, row3.y + row2.y, row3.z + row2.z, row3.w + row2.w);
+        setPlane(FAR, row3.x - row2.x, row3.y - row2.y, row3.z - row2.z, row3.w - row2.w);
+        planeCount = 6;
+        return this;
+    }
+
+    /**
+     * Adds a clip plane (until the next {@link #set(Matrix4f)}), e.g. to skip
+     * what is below a mirror.
+     *
+     * @param a
+     * @param b
+     * @param c
+     * @param d
+     *            a * x + b * y + c * z + d >= 0 is inside
+     * @return this frustum
+     */
+    public Frustum clip(float a, float b, float c, float d) {
+        setPlane(CLIP, a, b, c, d);
+        planeCount = 7;
+        return this;
+    }
+
+    /**
+     * Stores the normalized plane.
+     */
+    private void setPlane(int index, float a, float b, float c, float d) {
+        float length = (float) Math.sqrt(a * a + b * b + c * c);
+        if (length > 0) {
+            a /= length;
+            b /= length;
+            c /= length;
+            d /= length;
+        }
+        planes[index][0] = a;
+        planes[index][1] = b;
+        planes[index][2] = c;
+        planes[index][3] = d;
+    }
+
+    /**
+     * @param center
+     *            of the sphere
+     * @param radius
+     *            of the sphere
+     * @return whether the sphere is (at least partly) inside the frustum
+     */
+    public boolean intersectsSphere(Vector3f center, float radius) {
+        for (int i = 0; i < planeCount; i++) {
+            float[] plane = planes[i];
+            if (plane[0] * center.x + plane[1] * center.y + plane[2] * center.z + plane[3] < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param min
+     *            minimum corner of the axis aligned box
+     * @param max
+     *            maximum corner of the axis aligned box
+     * @return whether the box is (at least partly) inside the frustum (may
+     *         return true for boxes close to the frustum's corners)
+     */
+    public boolean intersectsBox(Vector3f min, Vector3f max) {
+        for (int i = 0; i < planeCount; i++) {
+            float[] plane = planes[i];
+            // the corner farthest in the direction of the plane's normal
+            float x = plane[0] >= 0 ? max.x : min.x;
+            float y = plane[1] >= 0 ? max.y : min.y;
+            float z = plane[2] >= 0 ? max.z : min.z;
+            if (plane[0] * x + plane[1] * y + plane[2] * z + plane[3] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
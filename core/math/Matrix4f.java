@@ -39,6 +39,14 @@ import engine.Window;
  */
 public class Matrix4f {
 
+	/**
+	 * the SIMD kernel of {@link #projectToScreen} (null if it is not on the
+	 * classpath or the jdk.incubator.vector module is not available)
+	 */
+	private static final ProjectionKernel VECTOR_PROJECTION = loadVectorProjection();
+	/** below this number of positions the scalar loop is faster */
+	private static final int VECTOR_MIN_COUNT = 64;
+
 	private float m00, m01, m02, m03;
 	private float m10, m11, m12, m13;
 	private float m20, m21, m22, m23;
@@ -279,6 +287,429 @@ public class Matrix4f {
 		return result;
 	}
 
+	/**
+	 * Copies the values of another matrix into this matrix.
+	 *
+	 * @param other
+	 *            The other matrix
+	 *
+	 * @return This matrix
+	 */
+	public Matrix4f set(Matrix4f other) {
+		m00 = other.m00;
+		m10 = other.m10;
+		m20 = other.m20;
+		m30 = other.m30;
+
+		m01 = other.m01;
+		m11 = other.m11;
+		m21 = other.m21;
+		m31 = other.m31;
+
+		m02 = other.m02;
+		m12 = other.m12;
+		m22 = other.m22;
+		m32 = other.m32;
+
+		m03 = other.m03;
+		m13 = other.m13;
+		m23 = other.m23;
+		m33 = other.m33;
+
+		return this;
+	}
+
+	/**
+	 * Sets all values of this matrix (given row by row).
+	 *
+	 * @return This matrix
+	 */
+	public Matrix4f set(float m00, float m01, float m02, float m03, float m10, float m11, float m12, float m13,
+			float m20, float m21, float m22, float m23, float m30, float m31, float m32, float m33) {
+		this.m00 = m00;
+		this.m01 = m01;
+		this.m02 = m02;
+		this.m03 = m03;
+
+		this.m10 = m10;
+		this.m11 = m11;
+		this.m12 = m12;
+		this.m13 = m13;
+
+		this.m20 = m20;
+		this.m21 = m21;
+		this.m22 = m22;
+		this.m23 = m23;
+
+		this.m30 = m30;
+		this.m31 = m31;
+		this.m32 = m32;
+		this.m33 = m33;
+
+		return this;
+	}
+
+	/**
+	 * Multiplies this matrix to another matrix and stores the result in the
+	 * destination (which may be this or the other matrix) without allocating.
+	 *
+	 * @param other
+	 *            The other matrix
+	 * @param dest
+	 *            The matrix to store this * other in
+	 *
+	 * @return The destination
+	 */
+	public Matrix4f mul(Matrix4f other, Matrix4f dest) {
+		float r00 = this.m00 * other.m00 + this.m01 * other.m10 + this.m02 * other.m20 + this.m03 * other.m30;
+		float r10 = this.m10 * other.m00 + this.m11 * other.m10 + this.m12 * other.m20 + this.m13 * other.m30;
+		float r20 = this.m20 * other.m00 + this.m21 * other.m10 + this.m22 * other.m20 + this.m23 * other.m30;
+		float r30 = this.m30 * other.m00 + this.m31 * other.m10 + this.m32 * other.m20 + this.m33 * other.m30;
+
+		float r01 = this.m00 * other.m01 + this.m01 * other.m11 + this.m02 * other.m21 + this.m03 * other.m31;
+		float r11 = this.m10 * other.m01 + this.m11 * other.m11 + this.m12 * other.m21 + this.m13 * other.m31;
+		float r21 = this.m20 * other.m01 + this.m21 * other.m11 + this.m22 * other.m21 + this.m23 * other.m31;
+		float r31 = this.m30 * other.m01 + this.m31 * other.m11 + this.m32 * other.m21 + this.m33 * other.m31;
+
+		float r02 = this.m00 * other.m02 + this.m01 * other.m12 + this.m02 * other.m22 + this.m03 * other.m32;
+		float r12 = this.m10 * other.m02 + this.m11 * other.m12 + this.m12 * other.m22 + this.m13 * other.m32;
+		float r22 = this.m20 * other.m02 + this.m21 * other.m12 + this.m22 * other.m22 + this.m23 * other.m32;
+		float r32 = this.m30 * other.m02 + this.m31 * other.m12 + this.m32 * other.m22 + this.m33 * other.m32;
+
+		float r03 = this.m00 * other.m03 + this.m01 * other.m13 + this.m02 * other.m23 + this.m03 * other.m33;
+		float r13 = this.m10 * other.m03 + this.m11 * other.m13 + this.m12 * other.m23 + this.m13 * other.m33;
+		float r23 = this.m20 * other.m03 + this.m21 * other.m13 + this.m22 * other.m23 + this.m23 * other.m33;
+		float r33 = this.m30 * other.m03 + this.m31 * other.m13 + this.m32 * other.m23 + this.m33 * other.m33;
+
+		return dest.set(r00, r01, r02, r03, r10, r11, r12, r13, r20, r21, r22, r23, r30, r31, r32, r33);
+	}
+
+	/**
+	 * Multiplies this matrix to a position (w = 1) and stores the x, y and z
+	 * of the result in the destination without allocating.
+	 *
+	 * @param x
+	 *            x coordinate of the position
+	 * @param y
+	 *            y coordinate of the position
+	 * @param z
+	 *            z coordinate of the position
+	 * @param dest
+	 *            The vector to store the result in
+	 *
+	 * @return The destination
+	 */
+	public Vector3f transformPosition(float x, float y, float z, Vector3f dest) {
+		dest.x = m00 * x + m01 * y + m02 * z + m03;
+		dest.y = m10 * x + m11 * y + m12 * z + m13;
+		dest.z = m20 * x + m21 * y + m22 * z + m23;
+		return dest;
+	}
+
+	/**
+	 * Multiplies this matrix to a position (w = 1), divides the result by its
+	 * w and stores it in the destination without allocating (e.g. to
+	 * unproject a point with an inverse projection).
+	 *
+	 * @param x
+	 *            x coordinate of the position
+	 * @param y
+	 *            y coordinate of the position
+	 * @param z
+	 *            z coordinate of the position
+	 * @param dest
+	 *            The vector to store the result in
+	 *
+	 * @return The destination
+	 */
+	public Vector3f transformProject(float x, float y, float z, Vector3f dest) {
+		float w = 1f / (m30 * x + m31 * y + m32 * z + m33);
+		return dest.set((m00 * x + m01 * y + m02 * z + m03) * w, (m10 * x + m11 * y + m12 * z + m13) * w,
+				(m20 * x + m21 * y + m22 * z + m23) * w);
+	}
+
+	/**
+	 * Inverts this matrix without allocating. The matrix has to be invertible
+	 * (e.g. a view or projection matrix).
+	 *
+	 * @param dest
+	 *            The matrix to store the inverse in (may be this)
+	 *
+	 * @return The destination
+	 */
+	public Matrix4f invert(Matrix4f dest) {
+		// determinants of the 2x2 sub-matrices of the upper and lower rows
+		float a = m00 * m11 - m01 * m10;
+		float b = m00 * m12 - m02 * m10;
+		float c = m00 * m13 - m03 * m10;
+		float d = m01 * m12 - m02 * m11;
+		float e = m01 * m13 - m03 * m11;
+		float f = m02 * m13 - m03 * m12;
+		float g = m20 * m31 - m21 * m30;
+		float h = m20 * m32 - m22 * m30;
+		float i = m20 * m33 - m23 * m30;
+		float j = m21 * m32 - m22 * m31;
+		float k = m21 * m33 - m23 * m31;
+		float l = m22 * m33 - m23 * m32;
+		float det = 1f / (a * l - b * k + c * j + d * i - e * h + f * g);
+
+		return dest.set((m11 * l - m12 * k + m13 * j) * det, (-m01 * l + m02 * k - m03 * j) * det,
+				(m31 * f - m32 * e + m33 * d) * det, (-m21 * f + m22 * e - m23 * d) * det,
+				(-m10 * l + m12 * i - m13 * h) * det, (m00 * l - m02 * i + m03 * h) * det,
+				(-m30 * f + m32 * c - m33 * b) * det, (m20 * f - m22 * c + m23 * b) * det,
+				(m10 * k - m11 * i + m13 * g) * det, (-m00 * k + m01 * i - m03 * g) * det,
+				(m30 * e - m31 * c + m33 * a) * det, (-m20 * e + m21 * c - m23 * a) * det,
+				(-m10 * j + m11 * h - m12 * g) * det, (m00 * j - m01 * h + m02 * g) * det,
+				(-m30 * d + m31 * b - m32 * a) * det, (m20 * d - m21 * b + m22 * a) * det);
+	}
+
+	/**
+	 * Applies a translation after this transformation (in place). Same as
+	 * <code>translate(x, y, z).multiply(this)</code>.
+	 *
+	 * @param x
+	 *            x coordinate of translation vector
+	 * @param y
+	 *            y coordinate of translation vector
+	 * @param z
+	 *            z coordinate of translation vector
+	 *
+	 * @return This matrix
+	 */
+	public Matrix4f translateLocal(float x, float y, float z) {
+		m00 += x * m30;
+		m01 += x * m31;
+		m02 += x * m32;
+		m03 += x * m33;
+
+		m10 += y * m30;
+		m11 += y * m31;
+		m12 += y * m32;
+		m13 += y * m33;
+
+		m20 += z * m30;
+		m21 += z * m31;
+		m22 += z * m32;
+		m23 += z * m33;
+
+		return this;
+	}
+
+	/**
+	 * Applies a rotation around the x axis before this transformation (in
+	 * place). Same as <code>this.multiply(rotate(angle, 1, 0, 0))</code>.
+	 *
+	 * @param angle
+	 *            Angle of rotation in degrees
+	 *
+	 * @return This matrix
+	 */
+	public Matrix4f rotateX(float angle) {
+		float c = (float) Math.cos(Math.toRadians(angle));
+		float s = (float) Math.sin(Math.toRadians(angle));
+
+		float r01 = m01 * c + m02 * s;
+		float r11 = m11 * c + m12 * s;
+		float r21 = m21 * c + m22 * s;
+		float r31 = m31 * c + m32 * s;
+
+		m02 = m02 * c - m01 * s;
+		m12 = m12 * c - m11 * s;
+		m22 = m22 * c - m21 * s;
+		m32 = m32 * c - m31 * s;
+
+		m01 = r01;
+		m11 = r11;
+		m21 = r21;
+		m31 = r31;
+
+		return this;
+	}
+
+	/**
+	 * Applies a rotation around the y axis before this transformation (in
+	 * place). Same as <code>this.multiply(rotate(angle, 0, 1, 0))</code>.
+	 *
+	 * @param angle
+	 *            Angle of rotation in degrees
+	 *
+	 * @return This matrix
+	 */
+	public Matrix4f rotateY(float angle) {
+		float c = (float) Math.cos(Math.toRadians(angle));
+		float s = (float) Math.sin(Math.toRadians(angle));
+
+		float r00 = m00 * c - m02 * s;
+		float r10 = m10 * c - m12 * s;
+		float r20 = m20 * c - m22 * s;
+		float r30 = m30 * c - m32 * s;
+
+		m02 = m00 * s + m02 * c;
+		m12 = m10 * s + m12 * c;
+		m22 = m20 * s + m22 * c;
+		m32 = m30 * s + m32 * c;
+
+		m00 = r00;
+		m10 = r10;
+		m20 = r20;
+		m30 = r30;
+
+		return this;
+	}
+
+	/**
+	 * Applies a rotation around the z axis before this transformation (in
+	 * place). Same as <code>this.multiply(rotate(angle, 0, 0, 1))</code>.
+	 *
+	 * @param angle
+	 *            Angle of rotation in degrees
+	 *
+	 * @return This matrix
+	 */
+	public Matrix4f rotateZ(float angle) {
+		float c = (float) Math.cos(Math.toRadians(angle));
+		float s = (float) Math.sin(Math.toRadians(angle));
+
+		float r00 = m00 * c + m01 * s;
+		float r10 = m10 * c + m11 * s;
+		float r20 = m20 * c + m21 * s;
+		float r30 = m30 * c + m31 * s;
+
+		m01 = m01 * c - m00 * s;
+		m11 = m11 * c - m10 * s;
+		m21 = m21 * c - m20 * s;
+		m31 = m31 * c - m30 * s;
+
+		m00 = r00;
+		m10 = r10;
+		m20 = r20;
+		m30 = r30;
+
+		return this;
+	}
+
+	/**
+	 * Applies a scaling before this transformation (in place). Same as
+	 * <code>this.multiply(scale(x, y, z))</code>.
+	 *
+	 * @param x
+	 *            Scale factor along the x coordinate
+	 * @param y
+	 *            Scale factor along the y coordinate
+	 * @param z
+	 *            Scale factor along the z coordinate
+	 *
+	 * @return This matrix
+	 */
+	public Matrix4f applyScale(float x, float y, float z) {
+		m00 *= x;
+		m10 *= x;
+		m20 *= x;
+		m30 *= x;
+
+		m01 *= y;
+		m11 *= y;
+		m21 *= y;
+		m31 *= y;
+
+		m02 *= z;
+		m12 *= z;
+		m22 *= z;
+		m32 *= z;
+
+		return this;
+	}
+
+	/**
+	 * Sets this matrix to <code>translate * rotate * scale</code> in one go
+	 * (without the matrix products).
+	 *
+	 * @param position
+	 *            Translation vector
+	 * @param rotation
+	 *            Rotation (unit quaternion)
+	 * @param scale
+	 *            Scale factors along the coordinates
+	 *
+	 * @return This matrix
+	 */
+	public Matrix4f translationRotateScale(Vector3f position, Quaternion rotation, Vector3f scale) {
+		float x = rotation.x, y = rotation.y, z = rotation.z, w = rotation.w;
+		float xx = x * x, yy = y * y, zz = z * z;
+		float xy = x * y, xz = x * z, yz = y * z;
+		float xw = x * w, yw = y * w, zw = z * w;
+
+		m00 = (1f - 2f * (yy + zz)) * scale.x;
+		m10 = 2f * (xy + zw) * scale.x;
+		m20 = 2f * (xz - yw) * scale.x;
+		m30 = 0f;
+
+		m01 = 2f * (xy - zw) * scale.y;
+		m11 = (1f - 2f * (xx + zz)) * scale.y;
+		m21 = 2f * (yz + xw) * scale.y;
+		m31 = 0f;
+
+		m02 = 2f * (xz + yw) * scale.z;
+		m12 = 2f * (yz - xw) * scale.z;
+		m22 = (1f - 2f * (xx + yy)) * scale.z;
+		m32 = 0f;
+
+		m03 = position.x;
+		m13 = position.y;
+		m23 = position.z;
+		m33 = 1f;
+
+		return this;
+	}
+
+	/**
+	 * Returns a row of this matrix.
+	 *
+	 * @param row
+	 *            Index of the row (0 to 3)
+	 *
+	 * @return Vector with the values of the row
+	 */
+	public Vector4f getRow(int row) {
+		switch (row) {
+		case 0:
+			return new Vector4f(m00, m01, m02, m03);
+		case 1:
+			return new Vector4f(m10, m11, m12, m13);
+		case 2:
+			return new Vector4f(m20, m21, m22, m23);
+		case 3:
+			return new Vector4f(m30, m31, m32, m33);
+		default:
+			throw new IndexOutOfBoundsException("Matrix4f has no row " + row);
+		}
+	}
+
+	/**
+	 * Stores a row of this matrix in the destination without allocating.
+	 *
+	 * @param row
+	 *            Index of the row (0 to 3)
+	 * @param dest
+	 *            The vector to store the values of the row in
+	 *
+	 * @return The destination
+	 */
+	public Vector4f getRow(int row, Vector4f dest) {
+		switch (row) {
+		case 0:
+			return dest.set(m00, m01, m02, m03);
+		case 1:
+			return dest.set(m10, m11, m12, m13);
+		case 2:
+			return dest.set(m20, m21, m22, m23);
+		case 3:
+			return dest.set(m30, m31, m32, m33);
+		default:
+			throw new IndexOutOfBoundsException("Matrix4f has no row " + row);
+		}
+	}
+
 	/**
 	 * Returns the Buffer representation of this vector.
 	 *
@@ -294,6 +725,42 @@ public class Matrix4f {
 		return buffer;
 	}
 
+	/**
+	 * Stores this matrix in column-major order at the current position of the
+	 * given buffer (advances the position by 16).
+	 *
+	 * @param buffer
+	 *            The buffer to store the matrix in
+	 *
+	 * @return The given buffer
+	 */
+	public FloatBuffer store(FloatBuffer buffer) {
+		buffer.put(m00).put(m10).put(m20).put(m30);
+		buffer.put(m01).put(m11).put(m21).put(m31);
+		buffer.put(m02).put(m12).put(m22).put(m32);
+		buffer.put(m03).put(m13).put(m23).put(m33);
+		return buffer;
+	}
+
+	/**
+	 * Stores this matrix in column-major order at the given index of the
+	 * buffer (caller-provided memory, the position is not changed).
+	 *
+	 * @param buffer
+	 *            The buffer to store the matrix in
+	 * @param offset
+	 *            Index of the first value
+	 *
+	 * @return The given buffer
+	 */
+	public FloatBuffer get(FloatBuffer buffer, int offset) {
+		buffer.put(offset, m00).put(offset + 1, m10).put(offset + 2, m20).put(offset + 3, m30);
+		buffer.put(offset + 4, m01).put(offset + 5, m11).put(offset + 6, m21).put(offset + 7, m31);
+		buffer.put(offset + 8, m02).put(offset + 9, m12).put(offset + 10, m22).put(offset + 11, m32);
+		buffer.put(offset + 12, m03).put(offset + 13, m13).put(offset + 14, m23).put(offset + 15, m33);
+		return buffer;
+	}
+
 	/**
 	 * Creates a orthographic projection matrix. Similar to
 	 * <code>glOrtho(left, right, bottom, top, near, far)</code>.
@@ -387,18 +854,135 @@ public class Matrix4f {
 	 * @return Perspective matrix
 	 */
 	public static Matrix4f perspective(float fovy, float aspect, float near, float far) {
-		Matrix4f perspective = new Matrix4f();
+		return new Matrix4f().setPerspective(fovy, aspect, near, far);
+	}
 
+	/**
+	 * Sets this matrix to a perspective projection matrix (see
+	 * {@link #perspective(float, float, float, float)}).
+	 *
+	 * @param fovy
+	 *            Field of view angle in degrees
+	 * @param aspect
+	 *            The aspect ratio is the ratio of width to height
+	 * @param near
+	 *            Distance from the viewer to the near clipping plane, must be
+	 *            positive
+	 * @param far
+	 *            Distance from the viewer to the far clipping plane, must be
+	 *            positive
+	 *
+	 * @return This matrix
+	 */
+	public Matrix4f setPerspective(float fovy, float aspect, float near, float far) {
 		float f = (float) (1f / Math.tan(Math.toRadians(fovy) / 2f));
 
-		perspective.m00 = f / aspect;
-		perspective.m11 = f;
-		perspective.m22 = (far + near) / (near - far);
-		perspective.m32 = -1f;
-		perspective.m23 = (2f * far * near) / (near - far);
-		perspective.m33 = 0f;
+		return set(f / aspect, 0f, 0f, 0f, 0f, f, 0f, 0f, 0f, 0f, (far + near) / (near - far),
+				(2f * far * near) / (near - far), 0f, 0f, -1f, 0f);
+	}
+
+	/**
+	 * Projects a batch of positions to screen coordinates: each position is
+	 * transformed by this (view) matrix, divided by its depth and mapped to the
+	 * viewport. Same as
+	 * <code>perspectiveDivision(multiply(position), fovy, aspect)</code> for
+	 * each position, but without allocating and with the tangent computed
+	 * once per batch.</br>
+	 * Large batches run on the SIMD kernel (core.math.VectorProjection in the
+	 * vector source folder) if it is on the classpath and the
+	 * jdk.incubator.vector module is added, otherwise (and for the rest of a
+	 * batch that does not fill a vector) on the scalar loop. Both give the
+	 * same results.
+	 *
+	 * @param points
+	 *            The positions packed as x, y, z (w = 1)
+	 * @param count
+	 *            The number of positions
+	 * @param fovy
+	 *            Field of view angle in degrees
+	 * @param aspect
+	 *            The aspect ratio is the ratio of width to height
+	 * @param width
+	 *            of the viewport
+	 * @param height
+	 *            of the viewport
+	 * @param dest
+	 *            The screen coordinates packed as x, y (NaN for positions
+	 *            behind the camera), at least 2 * count floats
+	 *
+	 * @return The number of positions in front of the camera
+	 */
+	public int projectToScreen(float[] points, int count, float fovy, float aspect, int width, int height,
+			float[] dest) {
+		float tan = (float) Math.tan(Math.toRadians(fovy) / 2f);
+		float scaleX = 1f / (tan * aspect);
+		float scaleY = 1f / tan;
+		float halfWidth = width / 2;
+		float halfHeight = height / 2;
+
+		if (VECTOR_PROJECTION != null && count >= VECTOR_MIN_COUNT) {
+			return VECTOR_PROJECTION.project(this, points, count, scaleX, scaleY, halfWidth, halfHeight, dest);
+		}
+		return projectScalar(points, 0, count, scaleX, scaleY, halfWidth, halfHeight, dest);
+	}
+
+	/**
+	 * The scalar kernel of {@link #projectToScreen}.
+	 *
+	 * @param points
+	 *            The positions packed as x, y, z
+	 * @param from
+	 *            Index of the first position to project
+	 * @param count
+	 *            The number of positions (end of the range)
+	 * @param scaleX
+	 *            1 / (tan(fovy / 2) * aspect)
+	 * @param scaleY
+	 *            1 / tan(fovy / 2)
+	 * @param halfWidth
+	 *            Half of the viewport's width
+	 * @param halfHeight
+	 *            Half of the viewport's height
+	 * @param dest
+	 *            The screen coordinates packed as x, y
+	 *
+	 * @return The number of positions of the range in front of the camera
+	 */
+	int projectScalar(float[] points, int from, int count, float scaleX, float scaleY, float halfWidth,
+			float halfHeight, float[] dest) {
+		int visible = 0;
+		for (int i = from, src = 3 * from, dst = 2 * from; i < count; i++, src += 3, dst += 2) {
+			float x = points[src];
+			float y = points[src + 1];
+			float z = points[src + 2];
+			float viewX = m00 * x + m01 * y + m02 * z + m03;
+			float viewY = m10 * x + m11 * y + m12 * z + m13;
+			float viewZ = m20 * x + m21 * y + m22 * z + m23;
+			if (viewZ >= 0) {
+				dest[dst] = Float.NaN;
+				dest[dst + 1] = Float.NaN;
+				continue;
+			}
+			float depth = -1f / viewZ;
+			dest[dst] = halfWidth * (1 + viewX * scaleX * depth);
+			dest[dst + 1] = halfHeight * (1 - viewY * scaleY * depth);
+			visible++;
+		}
+		return visible;
+	}
 
-		return perspective;
+	/**
+	 * @return the SIMD kernel or null if it was not compiled in or the
+	 *         jdk.incubator.vector module is not available (the class is only
+	 *         linked here, so the rest of the engine does not need the module)
+	 */
+	private static ProjectionKernel loadVectorProjection() {
+		try {
+			return (ProjectionKernel) Class.forName("core.math.VectorProjection").getDeclaredConstructor()
+					.newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
 	}
 
 	public static Vector2f perspectiveDivision(Vector4f position, float fovy, float aspect) {
@@ -453,12 +1037,12 @@ public class Matrix4f {
 
 		float c = (float) Math.cos(Math.toRadians(angle));
 		float s = (float) Math.sin(Math.toRadians(angle));
-		Vector3f vec = new Vector3f(x, y, z);
-		if (vec.length() != 1f) {
-			vec = vec.normalize();
-			x = vec.x;
-			y = vec.y;
-			z = vec.z;
+		float lengthSquared = x * x + y * y + z * z;
+		if (lengthSquared != 1f) {
+			float length = (float) Math.sqrt(lengthSquared);
+			x /= length;
+			y /= length;
+			z /= length;
 		}
 
 		rotation.m00 = x * x * (1f - c) + c;
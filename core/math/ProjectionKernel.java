@@ -0,0 +1,31 @@
+package core.math;
+
+/**
+ * A kernel of {@link Matrix4f#projectToScreen}, projecting packed positions
+ * through a view matrix to packed screen coordinates.
+ */
+interface ProjectionKernel {
+
+	/**
+	 * @param matrix
+	 *            The view matrix
+	 * @param points
+	 *            The positions packed as x, y, z
+	 * @param count
+	 *            The number of positions
+	 * @param scaleX
+	 *            1 / (tan(fovy / 2) * aspect)
+	 * @param scaleY
+	 *            1 / tan(fovy / 2)
+	 * @param halfWidth
+	 *            Half of the viewport's width
+	 * @param halfHeight
+	 *            Half of the viewport's height
+	 * @param dest
+	 *            The screen coordinates packed as x, y (NaN behind the camera)
+	 *
+	 * @return The number of positions in front of the camera
+	 */
+	int project(Matrix4f matrix, float[] points, int count, float scaleX, float scaleY, float halfWidth,
+			float halfHeight, float[] dest);
+}
@@ -0,0 +1,263 @@
+package core.math;
+
+/**
+ * This class represents a rotation as a unit quaternion (x, y, z, w).</br>
+ * </br>
+ * Rotations by multiples of 90 degrees around one of the axes (e.g. the turns
+ * of a robot) use cached sines and cosines instead of calling the trigonometric
+ * functions.
+ */
+public class Quaternion {
+
+	/** cos of the half angle of 0, 90, 180 and 270 degrees */
+	private static final float[] QUARTER_COS = { 1f, (float) Math.sqrt(0.5), 0f, -(float) Math.sqrt(0.5) };
+	/** sin of the half angle of 0, 90, 180 and 270 degrees */
+	private static final float[] QUARTER_SIN = { 0f, (float) Math.sqrt(0.5), 1f, (float) Math.sqrt(0.5) };
+
+	/** below this dot product two rotations are interpolated linearly */
+	private static final float SLERP_THRESHOLD = 0.9995f;
+
+	public float x;
+	public float y;
+	public float z;
+	public float w;
+
+	/**
+	 * Creates the identity rotation.
+	 */
+	public Quaternion() {
+		setIdentity();
+	}
+
+	/**
+	 * Creates a quaternion with the specified values.
+	 *
+	 * @param x
+	 *            x value
+	 * @param y
+	 *            y value
+	 * @param z
+	 *            z value
+	 * @param w
+	 *            w value
+	 */
+	public Quaternion(float x, float y, float z, float w) {
+		set(x, y, z, w);
+	}
+
+	/**
+	 * Sets this quaternion to the identity rotation.
+	 *
+	 * @return This quaternion
+	 */
+	public Quaternion setIdentity() {
+		return set(0f, 0f, 0f, 1f);
+	}
+
+	/**
+	 * Sets the values of this quaternion.
+	 *
+	 * @param x
+	 *            x value
+	 * @param y
+	 *            y value
+	 * @param z
+	 *            z value
+	 * @param w
+	 *            w value
+	 *
+	 * @return This quaternion
+	 */
+	public Quaternion set(float x, float y, float z, float w) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.w = w;
+		return this;
+	}
+
+	/**
+	 * Copies the values of the other quaternion.
+	 *
+	 * @param other
+	 *            The quaternion to copy
+	 *
+	 * @return This quaternion
+	 */
+	public Quaternion set(Quaternion other) {
+		return set(other.x, other.y, other.z, other.w);
+	}
+
+	/**
+	 * Sets this quaternion to a rotation around one of the axes.
+	 *
+	 * @param angle
+	 *            Angle of rotation in degrees
+	 * @param axis
+	 *            Axis of rotation
+	 *
+	 * @return This quaternion
+	 */
+	public Quaternion setAxisAngle(float angle, Axis axis) {
+		float c, s;
+		int quarter = getQuarter(angle);
+		if (quarter >= 0) {
+			c = QUARTER_COS[quarter];
+			s = QUARTER_SIN[quarter];
+		} else {
+			double half = Math.toRadians(angle) * 0.5;
+			c = (float) Math.cos(half);
+			s = (float) Math.sin(half);
+		}
+		switch (axis) {
+		case X:
+			return set(s, 0f, 0f, c);
+		case Y:
+			return set(0f, s, 0f, c);
+		default:
+			return set(0f, 0f, s, c);
+		}
+	}
+
+	/**
+	 * Sets this quaternion to the euler rotation (the same rotation as
+	 * <code>rotateX(x).rotateY(y).rotateZ(z)</code> of a {@link Matrix4f}).
+	 *
+	 * @param x
+	 *            Angle around the x axis in degrees
+	 * @param y
+	 *            Angle around the y axis in degrees
+	 * @param z
+	 *            Angle around the z axis in degrees
+	 *
+	 * @return This quaternion
+	 */
+	public Quaternion setEuler(float x, float y, float z) {
+		setAxisAngle(x, Axis.X);
+		rotateLocal(y, Axis.Y);
+		return rotateLocal(z, Axis.Z);
+	}
+
+	/**
+	 * Applies a rotation around one of the world axes after this rotation (in
+	 * place, <code>rotation * this</code>).
+	 *
+	 * @param angle
+	 *            Angle of rotation in degrees
+	 * @param axis
+	 *            Axis of rotation
+	 *
+	 * @return This quaternion
+	 */
+	public Quaternion rotate(float angle, Axis axis) {
+		float ox = x, oy = y, oz = z, ow = w;
+		setAxisAngle(angle, axis);
+		return mul(this.x, this.y, this.z, this.w, ox, oy, oz, ow);
+	}
+
+	/**
+	 * Applies a rotation around one of the local axes before this rotation (in
+	 * place, <code>this * rotation</code>).
+	 *
+	 * @param angle
+	 *            Angle of rotation in degrees
+	 * @param axis
+	 *            Axis of rotation
+	 *
+	 * @return This quaternion
+	 */
+	public Quaternion rotateLocal(float angle, Axis axis) {
+		float ox = x, oy = y, oz = z, ow = w;
+		setAxisAngle(angle, axis);
+		return mul(ox, oy, oz, ow, this.x, this.y, this.z, this.w);
+	}
+
+	/**
+	 * Multiplies this quaternion with the other one (this rotation is applied
+	 * after the other one).
+	 *
+	 * @param other
+	 *            The other quaternion
+	 * @param dest
+	 *            The quaternion to store the product in (may be this or other)
+	 *
+	 * @return The destination
+	 */
+	public Quaternion mul(Quaternion other, Quaternion dest) {
+		return dest.mul(x, y, z, w, other.x, other.y, other.z, other.w);
+	}
+
+	/**
+	 * Stores the product a * b in this quaternion.
+	 */
+	private Quaternion mul(float ax, float ay, float az, float aw, float bx, float by, float bz, float bw) {
+		return set(aw * bx + ax * bw + ay * bz - az * by, aw * by - ax * bz + ay * bw + az * bx,
+				aw * bz + ax * by - ay * bx + az * bw, aw * bw - ax * bx - ay * by - az * bz);
+	}
+
+	/**
+	 * Normalizes this quaternion (against the drift of many multiplications).
+	 *
+	 * @return This quaternion
+	 */
+	public Quaternion normalize() {
+		float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+		if (length == 0f) {
+			return setIdentity();
+		}
+		return set(x / length, y / length, z / length, w / length);
+	}
+
+	/**
+	 * Interpolates spherically between this rotation and the target (along the
+	 * shorter way, with constant angular speed).
+	 *
+	 * @param target
+	 *            The rotation at t = 1
+	 * @param t
+	 *            The interpolation parameter [0, 1]
+	 * @param dest
+	 *            The quaternion to store the result in (may be this or target)
+	 *
+	 * @return The destination
+	 */
+	public Quaternion slerp(Quaternion target, float t, Quaternion dest) {
+		float tx = target.x, ty = target.y, tz = target.z, tw = target.w;
+		float dot = x * tx + y * ty + z * tz + w * tw;
+		if (dot < 0f) {
+			tx = -tx;
+			ty = -ty;
+			tz = -tz;
+			tw = -tw;
+			dot = -dot;
+		}
+		float a, b;
+		if (dot > SLERP_THRESHOLD) {
+			// the rotations are almost the same, sin(theta) is too small
+			a = 1f - t;
+			b = t;
+		} else {
+			double theta = Math.acos(dot);
+			double sinTheta = Math.sin(theta);
+			a = (float) (Math.sin((1 - t) * theta) / sinTheta);
+			b = (float) (Math.sin(t * theta) / sinTheta);
+		}
+		dest.set(a * x + b * tx, a * y + b * ty, a * z + b * tz, a * w + b * tw);
+		return dot > SLERP_THRESHOLD ? dest.normalize() : dest;
+	}
+
+	/**
+	 * @param angle
+	 *            in degrees
+	 * @return the index of the angle in the quarter turn tables or -1 if it is
+	 *         no multiple of 90 degrees
+	 */
+	private static int getQuarter(float angle) {
+		float quarters = angle / 90f;
+		int quarter = Math.round(quarters);
+		if (quarter != quarters) {
+			return -1;
+		}
+		return quarter & 3;
+	}
+}
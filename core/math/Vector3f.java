@@ -61,6 +61,33 @@ public class Vector3f {
         this.z = z;
     }
 
+    /**
+     * Sets the values of this vector.
+     *
+     * @param x x value
+     * @param y y value
+     * @param z z value
+     *
+     * @return This vector
+     */
+    public Vector3f set(float x, float y, float z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    /**
+     * Copies the values of another vector into this vector.
+     *
+     * @param other The other vector
+     *
+     * @return This vector
+     */
+    public Vector3f set(Vector3f other) {
+        return set(other.x, other.y, other.z);
+    }
+
     /**
      * Calculates the squared length of the vector.
      *
@@ -89,6 +116,17 @@ public class Vector3f {
         return divide(length);
     }
 
+    /**
+     * Normalizes the vector without allocating.
+     *
+     * @param dest The vector to store the result in (may be this)
+     *
+     * @return The destination
+     */
+    public Vector3f normalize(Vector3f dest) {
+        return scale(1f / length(), dest);
+    }
+
     /**
      * Adds this vector to another vector.
      *
@@ -103,6 +141,18 @@ public class Vector3f {
         return new Vector3f(x, y, z);
     }
 
+    /**
+     * Adds this vector to another vector without allocating.
+     *
+     * @param other The other vector
+     * @param dest The vector to store this + other in (may be this or other)
+     *
+     * @return The destination
+     */
+    public Vector3f add(Vector3f other, Vector3f dest) {
+        return dest.set(this.x + other.x, this.y + other.y, this.z + other.z);
+    }
+
     /**
      * Negates this vector.
      *
@@ -112,6 +162,17 @@ public class Vector3f {
         return scale(-1f);
     }
 
+    /**
+     * Negates this vector without allocating.
+     *
+     * @param dest The vector to store the result in (may be this)
+     *
+     * @return The destination
+     */
+    public Vector3f negate(Vector3f dest) {
+        return dest.set(-x, -y, -z);
+    }
+
     /**
      * Subtracts this vector from another vector.
      *
@@ -123,6 +184,18 @@ public class Vector3f {
         return this.add(other.negate());
     }
 
+    /**
+     * Subtracts another vector from this vector without allocating.
+     *
+     * @param other The other vector
+     * @param dest The vector to store this - other in (may be this or other)
+     *
+     * @return The destination
+     */
+    public Vector3f subtract(Vector3f other, Vector3f dest) {
+        return dest.set(this.x - other.x, this.y - other.y, this.z - other.z);
+    }
+
     /**
      * Multiplies a vector by a scalar.
      *
@@ -137,6 +210,18 @@ public class Vector3f {
         return new Vector3f(x, y, z);
     }
 
+    /**
+     * Multiplies a vector by a scalar without allocating.
+     *
+     * @param scalar Scalar to multiply
+     * @param dest The vector to store this * scalar in (may be this)
+     *
+     * @return The destination
+     */
+    public Vector3f scale(float scalar, Vector3f dest) {
+        return dest.set(x * scalar, y * scalar, z * scalar);
+    }
+
     /**
      * Divides a vector by a scalar.
      *
@@ -173,6 +258,20 @@ public class Vector3f {
         return new Vector3f(x, y, z);
     }
 
+    /**
+     * Calculates the cross product of this vector with another vector without
+     * allocating.
+     *
+     * @param other The other vector
+     * @param dest The vector to store this x other in (may be this or other)
+     *
+     * @return The destination
+     */
+    public Vector3f cross(Vector3f other, Vector3f dest) {
+        return dest.set(this.y * other.z - this.z * other.y, this.z * other.x - this.x * other.z,
+                this.x * other.y - this.y * other.x);
+    }
+
     /**
      * Calculates a linear interpolation between this vector with another
      * vector.
@@ -1,15 +1,18 @@
 package core.model;
 
+import java.nio.FloatBuffer;
 import java.util.function.Consumer;
 
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL30;
 
 import core.math.Axis;
+import core.math.Frustum;
 import core.math.Matrix4f;
+import core.math.Quaternion;
 import core.math.Vector3f;
 import core.model.Model;
+import core.renderer.FrameInvalidator;
+import core.renderer.GLStateCache;
 import core.shader.ShaderProgram;
 import core.texture.Texture;
 
@@ -24,6 +27,13 @@ public class Model {
 
     /** how many textures the model can hold */
     protected final int MAX_TEXTURE_COUNT = 4;
+    /**
+     * how many floats the per-instance data of a model takes (modelMatrix +
+     * one vec4 of additional data)
+     */
+    public static final int INSTANCE_DATA_SIZE = 20;
+    /** steps of a turn closer than this to a quarter turn complete it (degrees) */
+    private static final float TURN_EPSILON = 0.001f;
 
     protected int vao;
     protected int vertexCount; // technically speaking its the indicesCount
@@ -32,18 +42,53 @@ public class Model {
      * if the modelMatrix was changed since the last updateModelMatrix() call
      */
     protected boolean modelMatrixChanged;
+    /** how many modelMatrices of all models were regenerated (detects motion) */
+    private static int matrixUpdates = 0;
     /** the model matrix (=transformation matrix) of the model */
     protected Matrix4f modelMatrix;
     /** the position of the model's origin point in world space */
     protected Vector3f position;
-    /** the euler rotation of the model around its origin in world space */
-    protected Vector3f rotation;
+    /** the rotation of the model around its origin in world space */
+    protected Quaternion orientation;
     /** the scale of the model */
     protected Vector3f scale;
 
+    /** the orientation at the start of the current quarter of a turn */
+    private Quaternion turnStart;
+    /** the orientation at the end of the current quarter of a turn */
+    private Quaternion turnEnd;
+    /** how far the model has turned into the current quarter (degrees) */
+    private float turnAngle;
+    /** the axis of the current turn */
+    private Axis turnAxis;
+
+    /** minimum corner of the bounding box in model space (null = unknown) */
+    protected Vector3f boundsMin;
+    /** maximum corner of the bounding box in model space (null = unknown) */
+    protected Vector3f boundsMax;
+    /** radius of the bounding sphere (around the box's center) in model space */
+    protected float boundsRadius;
+    /** enlarges the bounds (for models animated in the vertex shader) */
+    protected float boundsScale;
+    /** minimum corner of the bounding box in world space */
+    private Vector3f worldBoundsMin;
+    /** maximum corner of the bounding box in world space */
+    private Vector3f worldBoundsMax;
+    /** center of the bounding sphere in world space */
+    private Vector3f worldBoundsCenter;
+    /** radius of the bounding sphere in world space */
+    private float worldBoundsRadius;
+
     /** the textures the model holds */
     private Texture[] textures;
 
+    /** if the model is blended (rendered after all opaque models) */
+    protected boolean transparent;
+    /** if the model is rendered in the reflection */
+    protected boolean reflected;
+    /** if the model never moves (cached in the renderer's static layer) */
+    protected boolean staticModel;
+
     /**
      * Constructor, do not use it to create a Model. Use the ModelLoader to
      * create a Model.
@@ -51,9 +96,11 @@ public class Model {
     public Model() {
         this.modelMatrix = new Matrix4f();
         this.position = new Vector3f(0, 0, 0);
-        this.rotation = new Vector3f(0, 0, 0);
+        this.orientation = new Quaternion();
         this.scale = new Vector3f(1, 1, 1);
         this.modelMatrixChanged = true;
+        this.boundsScale = 1;
+        this.reflected = true;
         this.textures = new Texture[MAX_TEXTURE_COUNT];
         Texture placeHolderTex = new Texture(0);
         for (int i = 0; i < MAX_TEXTURE_COUNT; i++) {
@@ -76,7 +123,7 @@ public class Model {
      * @return Consumer, that is executed directly before the rendering.
      */
     public Consumer<ShaderProgram> prepare() {
-        GL30.glBindVertexArray(vao);
+        GLStateCache.getInstance().bindVertexArray(vao);
         bindTextures();
         Consumer<ShaderProgram> additionalUniforms = (shader) -> {
         };
@@ -88,7 +135,7 @@ public class Model {
      * modified.
      */
     public void cleanUp() {
-        GL30.glBindVertexArray(0);
+        GLStateCache.getInstance().bindVertexArray(0);
     }
 
     /**
@@ -101,6 +148,31 @@ public class Model {
         return modelMatrix;
     }
 
+    /**
+     * Stores the per-instance data of the model (modelMatrix followed by the
+     * {@link #storeAdditionalData(FloatBuffer) additional data}) at the current
+     * position of the buffer.
+     * 
+     * @param buffer
+     *            to store the {@link #INSTANCE_DATA_SIZE} floats in
+     */
+    public void storeInstanceData(FloatBuffer buffer) {
+        getModelMatrix().store(buffer);
+        storeAdditionalData(buffer);
+    }
+
+    /**
+     * Stores the additional per-instance data (one vec4, <i>instanceData</i>
+     * in the shader) of the model. Override it to pass model specific values
+     * to the shader.
+     * 
+     * @param buffer
+     *            to store the 4 floats in
+     */
+    protected void storeAdditionalData(FloatBuffer buffer) {
+        buffer.put(0).put(0).put(0).put(0);
+    }
+
     /**
      * Translates the model's position by the translation vector.
      * 
@@ -108,8 +180,20 @@ public class Model {
      *            translation vector
      */
     public void translate(Vector3f vector) {
-        this.position = this.position.add(vector);
-        modelMatrixChanged = true;
+        translate(vector.x, vector.y, vector.z);
+    }
+
+    /**
+     * Translates the model's position by the translation vector (without
+     * allocating one, e.g. in animations).
+     * 
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void translate(float x, float y, float z) {
+        this.position.set(position.x + x, position.y + y, position.z + z);
+        transformed();
     }
 
     /**
@@ -122,11 +206,11 @@ public class Model {
         this.position.x = vector.x;
         this.position.y = vector.y;
         this.position.z = vector.z;
-        modelMatrixChanged = true;
+        transformed();
     }
 
     /**
-     * Rotates the model by the given angle around the given axis.
+     * Rotates the model by the given angle around the given (world) axis.
      * 
      * @param angle
      *            how much the model is rotated
@@ -134,33 +218,62 @@ public class Model {
      *            of the rotation
      */
     public void rotate(float angle, Axis axis) {
-        switch (axis) {
-        case X:
-            rotation.x += angle;
-            rotation.x %= 360;
-            break;
-        case Y:
-            rotation.y += angle;
-            rotation.y %= 360;
-            break;
-        case Z:
-            rotation.z += angle;
-            rotation.z %= 360;
-            break;
+        orientation.rotate(angle, axis).normalize();
+        turnAngle = 0;
+        transformed();
+    }
+
+    /**
+     * Turns the model by a step of an animation around the given (world) axis.
+     * The steps of an animation (e.g. of the Interpolator) add up to quarter
+     * turns: the model is interpolated spherically from the start to the end
+     * orientation of each quarter, which are exact.
+     * 
+     * @param angle
+     *            the step in degrees
+     * @param axis
+     *            of the turn
+     */
+    public void turn(float angle, Axis axis) {
+        if (turnStart == null) {
+            turnStart = new Quaternion();
+            turnEnd = new Quaternion();
         }
-        modelMatrixChanged = true;
+        if (turnAngle == 0 || turnAxis != axis) {
+            turnStart.set(orientation);
+            turnAngle = 0;
+            turnAxis = axis;
+        }
+        turnAngle += angle;
+        // completed quarters
+        while (turnAngle >= 90 - TURN_EPSILON) {
+            turnStart.rotate(90, axis).normalize();
+            turnAngle -= 90;
+        }
+        while (turnAngle <= -90 + TURN_EPSILON) {
+            turnStart.rotate(-90, axis).normalize();
+            turnAngle += 90;
+        }
+        if (Math.abs(turnAngle) < TURN_EPSILON) {
+            turnAngle = 0;
+            orientation.set(turnStart);
+        } else {
+            turnEnd.set(turnStart).rotate(turnAngle > 0 ? 90 : -90, axis);
+            turnStart.slerp(turnEnd, Math.abs(turnAngle) / 90, orientation);
+        }
+        transformed();
     }
 
     /**
-     * Sets the model's rotation to the new rotation.
+     * Sets the model's rotation to the new euler rotation.
      * 
      * @param rotation
-     *            new rotation
+     *            new rotation (degrees around x, y and z)
      */
     public void setRotation(Vector3f rotation) {
-        this.rotation.x = rotation.x;
-        this.rotation.y = rotation.y;
-        this.rotation.z = rotation.z;
+        this.orientation.setEuler(rotation.x, rotation.y, rotation.z);
+        turnAngle = 0;
+        transformed();
     }
 
     /**
@@ -170,8 +283,8 @@ public class Model {
      *            factor to scale by.
      */
     public void scale(float scale) {
-        this.scale = this.scale.scale(scale);
-        modelMatrixChanged = true;
+        this.scale.scale(scale, this.scale);
+        transformed();
     }
 
     /**
@@ -181,11 +294,11 @@ public class Model {
      *            value to change the scale with.
      */
     public void scaleAbs(float scale) {
-        this.scale = this.scale.add(new Vector3f(scale, scale, scale));
+        this.scale.set(this.scale.x + scale, this.scale.y + scale, this.scale.z + scale);
         if (this.scale.x < 0) {
-            this.scale = new Vector3f(0, 0, 0);
+            this.scale.set(0, 0, 0);
         }
-        modelMatrixChanged = true;
+        transformed();
     }
 
     /**
@@ -198,6 +311,7 @@ public class Model {
         this.scale.x = scale;
         this.scale.y = scale;
         this.scale.z = scale;
+        transformed();
     }
 
     /**
@@ -210,20 +324,108 @@ public class Model {
         this.scale.x = scale.x;
         this.scale.y = scale.y;
         this.scale.z = scale.z;
+        transformed();
     }
 
     /**
-     * Generates a new updated modelMatrix.
+     * Marks the modelMatrix as changed and invalidates the frame (models are
+     * also moved from other threads, e.g. by network events, while the main
+     * loop waits for input).
+     */
+    protected void transformed() {
+        modelMatrixChanged = true;
+        FrameInvalidator.getInstance().invalidate();
+    }
+
+    /**
+     * Updates the modelMatrix in place (translation * rotation * scale).
      */
     private void updateModelMatrix() {
-        Matrix4f modelMatrix = new Matrix4f();
-        modelMatrix = modelMatrix.multiply(Matrix4f.translate(position.x, position.y, position.z));
-        modelMatrix = modelMatrix.multiply(Matrix4f.rotate(rotation.x, 1, 0, 0));
-        modelMatrix = modelMatrix.multiply(Matrix4f.rotate(rotation.y, 0, 1, 0));
-        modelMatrix = modelMatrix.multiply(Matrix4f.rotate(rotation.z, 0, 0, 1));
-        modelMatrix = modelMatrix.multiply(Matrix4f.scale(scale.x, scale.y, scale.z));
-        this.modelMatrix = modelMatrix;
+        modelMatrix.translationRotateScale(position, orientation, scale);
+        updateWorldBounds();
         modelMatrixChanged = false;
+        matrixUpdates++;
+    }
+
+    /**
+     * Transforms the bounds into world space (with the new modelMatrix).
+     */
+    private void updateWorldBounds() {
+        if (boundsMin == null) {
+            return;
+        }
+        if (worldBoundsMin == null) {
+            // updated in place from now on
+            worldBoundsMin = new Vector3f();
+            worldBoundsMax = new Vector3f();
+            worldBoundsCenter = new Vector3f();
+        }
+        float centerX = (boundsMin.x + boundsMax.x) * 0.5f;
+        float centerY = (boundsMin.y + boundsMax.y) * 0.5f;
+        float centerZ = (boundsMin.z + boundsMax.z) * 0.5f;
+        float halfX = (boundsMax.x - boundsMin.x) * 0.5f * boundsScale;
+        float halfY = (boundsMax.y - boundsMin.y) * 0.5f * boundsScale;
+        float halfZ = (boundsMax.z - boundsMin.z) * 0.5f * boundsScale;
+        Vector3f min = worldBoundsMin.set(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+        Vector3f max = worldBoundsMax.set(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+        // transform all 8 corners of the box (the center is the scratch vector)
+        Vector3f corner = worldBoundsCenter;
+        for (int i = 0; i < 8; i++) {
+            modelMatrix.transformPosition(centerX + ((i & 1) == 0 ? -halfX : halfX),
+                    centerY + ((i & 2) == 0 ? -halfY : halfY), centerZ + ((i & 4) == 0 ? -halfZ : halfZ), corner);
+            min.x = Math.min(min.x, corner.x);
+            min.y = Math.min(min.y, corner.y);
+            min.z = Math.min(min.z, corner.z);
+            max.x = Math.max(max.x, corner.x);
+            max.y = Math.max(max.y, corner.y);
+            max.z = Math.max(max.z, corner.z);
+        }
+        modelMatrix.transformPosition(centerX, centerY, centerZ, worldBoundsCenter);
+        float maxScale = Math.max(Math.abs(scale.x), Math.max(Math.abs(scale.y), Math.abs(scale.z)));
+        worldBoundsRadius = boundsRadius * boundsScale * maxScale;
+    }
+
+    /**
+     * Tests whether the model is (at least partly) inside the frustum. Models
+     * without bounds are always visible.
+     * 
+     * @param frustum
+     * @return whether the model has to be rendered
+     */
+    public boolean isVisible(Frustum frustum) {
+        if (boundsMin == null) {
+            return true;
+        }
+        if (modelMatrixChanged) {
+            updateModelMatrix();
+        }
+        return frustum.intersectsSphere(worldBoundsCenter, worldBoundsRadius)
+                && frustum.intersectsBox(worldBoundsMin, worldBoundsMax);
+    }
+
+    /**
+     * Takes over the bounds of the given model (which shares the same mesh).
+     * 
+     * @param model
+     */
+    protected void copyBounds(Model model) {
+        this.boundsMin = model.boundsMin;
+        this.boundsMax = model.boundsMax;
+        this.boundsRadius = model.boundsRadius;
+        this.boundsScale = model.boundsScale;
+        transformed();
+    }
+
+    /**
+     * Enlarges the bounds of models that are moved or scaled in the vertex
+     * shader, so they are not culled too early.
+     * 
+     * @param boundsScale
+     *            factor the bounds are scaled with (1 = mesh bounds)
+     */
+    public void setBoundsScale(float boundsScale) {
+        this.boundsScale = boundsScale;
+        transformed();
     }
 
     /**
@@ -236,6 +438,7 @@ public class Model {
         Model copy = new Model();
         copy.vao = this.vao;
         copy.vertexCount = this.vertexCount;
+        copy.copyBounds(this);
         return copy;
     }
 
@@ -293,11 +496,7 @@ public class Model {
 
         for (int i : args) {
             if (i >= 0 && i < MAX_TEXTURE_COUNT) {
-                GL13.glActiveTexture(GL13.GL_TEXTURE0 + i);
-
-                Texture tex = textures[i];
-
-                GL11.glBindTexture(GL11.GL_TEXTURE_2D, tex.getTextureID());
+                GLStateCache.getInstance().bindTexture(i, textures[i].getTextureID());
             }
         }
     }
@@ -314,6 +513,76 @@ public class Model {
         return textures;
     }
 
+    /**
+     * @param point
+     * @return the distance between the model's origin and the point
+     */
+    public float getDistance(Vector3f point) {
+        float dx = position.x - point.x;
+        float dy = position.y - point.y;
+        float dz = position.z - point.z;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * Specifies, whether the model is blended. Transparent models are rendered
+     * after all opaque models, sorted back to front.
+     * 
+     * @param transparent
+     */
+    public void setTransparent(boolean transparent) {
+        this.transparent = transparent;
+    }
+
+    public boolean isTransparent() {
+        return transparent;
+    }
+
+    /**
+     * Specifies, whether the model is rendered in the reflection (models at or
+     * below the mirror plane add nothing to it).
+     * 
+     * @param reflected
+     */
+    public void setReflected(boolean reflected) {
+        this.reflected = reflected;
+    }
+
+    public boolean isReflected() {
+        return reflected;
+    }
+
+    /**
+     * Specifies, whether the model is static: it does not move and its shader
+     * is not animated, so the renderer can cache it (moving it anyway makes
+     * the renderer render the cache again).
+     * 
+     * @param staticModel
+     */
+    public void setStatic(boolean staticModel) {
+        this.staticModel = staticModel;
+    }
+
+    public boolean isStatic() {
+        return staticModel;
+    }
+
+    /**
+     * @return whether the model was transformed since its modelMatrix was
+     *         generated
+     */
+    public boolean isModelMatrixChanged() {
+        return modelMatrixChanged;
+    }
+
+    /**
+     * @return how many modelMatrices of all models were regenerated so far (a
+     *         different value means that a model has moved)
+     */
+    public static int getMatrixUpdates() {
+        return matrixUpdates;
+    }
+
     public Vector3f getPosition() {
         return new Vector3f(position.x, position.y, position.z);
     }
@@ -15,7 +15,9 @@ import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
 import org.lwjgl.system.MemoryUtil;
 
+import core.math.Vector3f;
 import core.model.Model;
+import core.renderer.GLStateCache;
 
 /**
  * Assimp ModelLoader
@@ -69,7 +71,7 @@ public class ModelLoader {
 
         // generate and bind the vao
         vao = GL30.glGenVertexArrays();
-        GL30.glBindVertexArray(vao);
+        GLStateCache.getInstance().bindVertexArray(vao);
         model.vao = vao;
 
         // load indices
@@ -96,6 +98,7 @@ public class ModelLoader {
             System.err.println(path + " contains no position data");
             System.exit(-1);
         }
+        calculateBounds(model, positionsBuffer);
 
         if (normalsBuffer == null) {
             System.out.println(path + " contains no normal data");
@@ -146,7 +149,7 @@ public class ModelLoader {
         GL20.glEnableVertexAttribArray(3);
 
         // unbind the vao
-        GL30.glBindVertexArray(0);
+        GLStateCache.getInstance().bindVertexArray(0);
         // unbind the vbo
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
         // unbind the ebo
@@ -158,6 +161,43 @@ public class ModelLoader {
         return model;
     }
 
+    /**
+     * Calculates the model's bounding box and bounding sphere (around the
+     * box's center) in model space.
+     * 
+     * @param model
+     *            to store the bounds in
+     * @param positions
+     *            the mesh vertex positions
+     */
+    private static void calculateBounds(Model model, FloatBuffer positions) {
+        Vector3f min = new Vector3f(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+        Vector3f max = new Vector3f(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+        for (int i = 0; i < positions.limit(); i += 3) {
+            min.x = Math.min(min.x, positions.get(i));
+            min.y = Math.min(min.y, positions.get(i + 1));
+            min.z = Math.min(min.z, positions.get(i + 2));
+            max.x = Math.max(max.x, positions.get(i));
+            max.y = Math.max(max.y, positions.get(i + 1));
+            max.z = Math.max(max.z, positions.get(i + 2));
+        }
+        if (positions.limit() == 0) {
+            min = new Vector3f(0, 0, 0);
+            max = new Vector3f(0, 0, 0);
+        }
+        Vector3f center = min.add(max).scale(0.5f);
+        float radiusSquared = 0;
+        for (int i = 0; i < positions.limit(); i += 3) {
+            float dx = positions.get(i) - center.x;
+            float dy = positions.get(i + 1) - center.y;
+            float dz = positions.get(i + 2) - center.z;
+            radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+        }
+        model.boundsMin = min;
+        model.boundsMax = max;
+        model.boundsRadius = (float) Math.sqrt(radiusSquared);
+    }
+
     /**
      * Loads the indices data into the element array buffer
      * 
@@ -9,7 +9,6 @@ import org.lwjgl.system.MemoryUtil;
 
 import core.math.Matrix4f;
 import core.math.Vector3f;
-import core.math.Vector4f;
 import core.shader.ShaderProgram;
 import core.window.Window;
 
@@ -46,6 +45,19 @@ public abstract class Camera {
 	/** uniform buffer holding the dimensions of the window */
 	protected int dimensionsUniformBuffer;
 
+	/**
+	 * the matrices, regenerated in place by the getters (a returned matrix is
+	 * only valid until the next call)
+	 */
+	protected final Matrix4f viewMatrix, projectionMatrix, viewProjectionMatrix;
+	/** the camera's coordinate system (set by genCoordSystem()) */
+	protected final Vector3f forward, right, up;
+	/**
+	 * scratch buffer for the uniform buffer uploads (OpenGL is only used by
+	 * one thread)
+	 */
+	private static FloatBuffer uploadBuffer;
+
 	/**
 	 * Initializes and allocates the matrices buffer. </br>
 	 * Shall not be called without OpenGLContext ready.
@@ -66,6 +78,12 @@ public abstract class Camera {
 		this.rotation = 0;
 		this.pitch = 20;
 		this.position = new Vector3f(0f, 0f, 0f);
+		this.viewMatrix = new Matrix4f();
+		this.projectionMatrix = new Matrix4f();
+		this.viewProjectionMatrix = new Matrix4f();
+		this.forward = new Vector3f();
+		this.right = new Vector3f();
+		this.up = new Vector3f();
 
 		// generate a buffer
 		matricesUniformBuffer = GL15.glGenBuffers();
@@ -76,13 +94,9 @@ public abstract class Camera {
 		// bind the buffer object to binding the binding point
 		GL30.glBindBufferBase(GL31.GL_UNIFORM_BUFFER, ShaderProgram.MATRICES_BUFFER_BINDING, matricesUniformBuffer);
 
-		// create a buffer for the projection matrix
-		FloatBuffer projectionMatrix = genProjectionMatrix().getBuffer();
-		// write the buffer to the openGL buffer (offset 64 =
+		// write the projection matrix to the openGL buffer (offset 64 =
 		// #floats(mat4)*#bytes(float))
-		GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, 64, projectionMatrix);
-
-		MemoryUtil.memFree(projectionMatrix);
+		GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, 64, genProjectionMatrix().get(getUploadBuffer(16), 0));
 
 		// generate a buffer
 		dimensionsUniformBuffer = GL15.glGenBuffers();
@@ -108,97 +122,109 @@ public abstract class Camera {
 	 */
 	public void updateUniformBlock() {
 		if (changed) {
-			// create a buffer for the view matrix
-			FloatBuffer viewMatrix = genViewMatrix().getBuffer();
-			FloatBuffer projectionMatrix = genProjectionMatrix().getBuffer();
+			// view and projection matrix next to each other
+			FloatBuffer matrices = getUploadBuffer(32);
+			genViewMatrix().get(matrices, 0);
+			genProjectionMatrix().get(matrices, 16);
 
 			// bind the uniform buffer
 			GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, matricesUniformBuffer);
-			// override the viewMatrix data in the buffer
-			GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, 0, viewMatrix);
-			// override the projectionMatrix data in the buffer
-			GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, 64, projectionMatrix);
+			// override the matrices in the buffer
+			GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, 0, matrices);
 			// unbind the buffer
 			GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
-
-			MemoryUtil.memFree(viewMatrix);
-			MemoryUtil.memFree(projectionMatrix);
 		}
 		changed = false;
 	}
 
 	/**
-	 * Calculates the camera's view matrix.
+	 * Updates the dimensions in the uniform buffer (after the resolution has
+	 * changed).
+	 * 
+	 * @param width
+	 *            in pixels
+	 * @param height
+	 *            in pixels
+	 */
+	public void setDimensions(int width, int height) {
+		FloatBuffer dimensions = getUploadBuffer(2);
+		dimensions.put(0, width).put(1, height);
+		GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, dimensionsUniformBuffer);
+		GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, 0, dimensions);
+		GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+	}
+
+	/**
+	 * Returns the scratch buffer for an upload (allocated once).
+	 * 
+	 * @param size
+	 *            number of floats to upload (at most 32)
+	 * @return the buffer with position 0 and the size as limit
+	 */
+	private static FloatBuffer getUploadBuffer(int size) {
+		if (uploadBuffer == null) {
+			uploadBuffer = MemoryUtil.memAllocFloat(32);
+		}
+		uploadBuffer.clear();
+		uploadBuffer.limit(size);
+		return uploadBuffer;
+	}
+
+	/**
+	 * Calculates the camera's view matrix (in place).
 	 * 
 	 * @return view matrix
 	 */
 	protected Matrix4f genViewMatrix() {
 
 		// calculate the camera's coordinate system
-		Vector3f[] coordSys = genCoordSystem(position);
-		Vector3f right, up, forward;
-		forward = coordSys[0];
-		right = coordSys[1];
-		up = coordSys[2];
-
-		// we move the world, not the camera
-		Vector3f position = this.position.negate();
+		genCoordSystem(position);
 
-		return genViewMatrix(forward, right, up, position);
+		return genViewMatrix(position);
 	}
 
 	/**
-	 * Generates the a view Matrix from the given parameters.
+	 * Generates the view matrix from the {@link #genCoordSystem(Vector3f)
+	 * coordinate system} and the given position (in place).
 	 * 
-	 * @param forward
-	 * @param right
-	 * @param up
 	 * @param position
+	 *            of the camera
 	 * @return view matrix
 	 */
-	protected Matrix4f genViewMatrix(Vector3f forward, Vector3f right, Vector3f up, Vector3f position) {
+	protected Matrix4f genViewMatrix(Vector3f position) {
 
-		if (reflected)
-			position = new Vector3f(position.x, -position.y, position.z);
-		// combining into the view matrix
-		Vector4f c1, c2, c3, c4;
-		c1 = new Vector4f(right.x, up.x, forward.x, 0f);
-		c2 = new Vector4f(right.y, up.y, forward.y, 0f);
-		c3 = new Vector4f(right.z, up.z, forward.z, 0f);
-		c4 = new Vector4f();
-		c4.x = position.x * right.x + position.y * right.y + position.z * right.z;
-		c4.y = position.x * up.x + position.y * up.y + position.z * up.z;
-		c4.z = position.x * forward.x + position.y * forward.y + position.z * forward.z;
-		c4.w = 1f;
+		// we move the world, not the camera
+		float x = -position.x;
+		float y = reflected ? position.y : -position.y;
+		float z = -position.z;
 
-		return new Matrix4f(c1, c2, c3, c4);
+		// combining into the view matrix
+		return viewMatrix.set(right.x, right.y, right.z, x * right.x + y * right.y + z * right.z,
+				up.x, up.y, up.z, x * up.x + y * up.y + z * up.z,
+				forward.x, forward.y, forward.z, x * forward.x + y * forward.y + z * forward.z,
+				0f, 0f, 0f, 1f);
 	}
 
 	/**
-	 * Calculates the coordinate system for the camera (forward, right and up
-	 * vector).
+	 * Calculates the coordinate system for the camera (sets the
+	 * {@link #forward}, {@link #right} and {@link #up} vector).
 	 * 
-	 * @param forward
+	 * @param direction
 	 *            backwards Vector from the view of the camera
-	 * @return Vector3f[] { forward, right, up}
 	 */
-	protected Vector3f[] genCoordSystem(Vector3f forward) {
-		if (reflected)
-			forward = new Vector3f(forward.x, -forward.y, forward.z);
-		Vector3f right, up;
-		forward = forward.normalize();
-		right = (new Vector3f(0f, reflected ? -1f : 1f, 0f)).cross(forward).normalize();
-		up = forward.cross(right);
-		return new Vector3f[] { forward, right, up };
+	protected void genCoordSystem(Vector3f direction) {
+		forward.set(direction.x, reflected ? -direction.y : direction.y, direction.z).normalize(forward);
+		right.set(0f, reflected ? -1f : 1f, 0f).cross(forward, right).normalize(right);
+		forward.cross(right, up);
 	}
 
 	/**
-	 * Calculates the camera's projection matrix.
+	 * Calculates the camera's projection matrix (in place).
 	 * 
 	 * @return projection matrix
 	 */
 	private Matrix4f genProjectionMatrix() {
-		return Matrix4f.perspective(fov, aspectRatio, nearClipping, farClipping);
+		return projectionMatrix.setPerspective(fov, aspectRatio, nearClipping, farClipping);
 	}
 
 	public Vector3f getPosition() {
@@ -230,7 +256,7 @@ public abstract class Camera {
 	}
 
 	public Matrix4f getViewProjectionMatrix() {
-		return getProjectionMatrix().multiply(getViewMatrix());// getViewMatrix().multiply(getProjectionMatrix());
+		return genProjectionMatrix().mul(genViewMatrix(), viewProjectionMatrix);
 	}
 
 	public boolean isChanged() {
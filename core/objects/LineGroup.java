@@ -5,10 +5,10 @@ import java.nio.FloatBuffer;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
-import org.lwjgl.opengl.GL30;
 import org.lwjgl.system.MemoryUtil;
 
 import core.math.Vector2f;
+import core.renderer.GLStateCache;
 
 /**
  * 
@@ -34,7 +34,7 @@ public class LineGroup {
         positions = new Vector2f[lineCount * 2];
 
         vao = GL30.glGenVertexArrays();
-        GL30.glBindVertexArray(vao);
+        GLStateCache.getInstance().bindVertexArray(vao);
 
         vbo = GL15.glGenBuffers();
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
@@ -49,7 +49,7 @@ public class LineGroup {
         GL20.glEnableVertexAttribArray(0);
 
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
-        GL30.glBindVertexArray(0);
+        GLStateCache.getInstance().bindVertexArray(0);
     }
 
     public void render() {
@@ -61,11 +61,11 @@ public class LineGroup {
     }
 
     public void prepare() {
-        GL30.glBindVertexArray(vao);
+        GLStateCache.getInstance().bindVertexArray(vao);
     }
 
     public void cleanUp() {
-        GL30.glBindVertexArray(0);
+        GLStateCache.getInstance().bindVertexArray(0);
     }
 
     /**
@@ -75,14 +75,13 @@ public class LineGroup {
     protected void updatePositionsBuffer() {
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
 
-        FloatBuffer data = MemoryUtil.memAllocFloat(positions.length * 2);
+        FloatBuffer data = FrameArena.getInstance().allocFloat(positions.length * 2);
         for (int i = 0; i < positions.length; i++) {
             data.put(positions[i].x);
             data.put(positions[i].y);
         }
         data.flip();
         GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STATIC_DRAW);
-        MemoryUtil.memFree(data);
 
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
     }
@@ -0,0 +1,90 @@
+package core.renderer;
+
+import core.shader.ScreenShaderProgram;
+
+/**
+ * Bloom as a dual filter (Kawase) blur over a pyramid of half sized
+ * textures: the glowing parts of the image are downsampled level by level and
+ * upsampled back, each step with a few bilinear taps. All steps but the last
+ * one run in a reduced size, the last one upsamples to the full size and adds
+ * the bloom to the image in the same pass.</br>
+ * The levels are transient textures of the {@link PostProcessGraph}, so the
+ * pool keeps targets in each level's size.
+ */
+public class Bloom {
+
+    /** how many times the image is halved */
+    private static final int LEVELS = 4;
+
+    /** the first downsampling step, selecting the glowing parts */
+    private final ScreenShaderProgram prefilterShader;
+    private final ScreenShaderProgram downsampleShader;
+    private final ScreenShaderProgram upsampleShader;
+    /** the last upsampling step, adding the bloom to the image */
+    private final ScreenShaderProgram compositeShader;
+
+    /** how much of the bloom is added */
+    private float strength;
+
+    public Bloom() {
+        prefilterShader = new ScreenShaderProgram("screenShader.vert", "bloomDownsample.frag",
+                new String[] { "PREFILTER" });
+        prefilterShader.use();
+        prefilterShader.getUniform("image").set(0);
+        prefilterShader.getUniform("glow").set(1);
+
+        downsampleShader = new ScreenShaderProgram("screenShader.vert", "bloomDownsample.frag");
+        downsampleShader.use();
+        downsampleShader.getUniform("image").set(0);
+
+        upsampleShader = new ScreenShaderProgram("screenShader.vert", "bloomUpsample.frag");
+        upsampleShader.use();
+        upsampleShader.getUniform("image").set(0);
+
+        compositeShader = new ScreenShaderProgram("screenShader.vert", "postProcessBloom.frag");
+        compositeShader.use();
+        compositeShader.getUniform("image").set(0);
+        compositeShader.getUniform("bloom").set(1);
+
+        strength = 0.6f;
+    }
+
+    /**
+     * Adds the passes of the bloom (with the "glow" input of the
+     * {@link SortedRenderer#getPostProcessGraph() renderer's graph}).
+     *
+     * @param graph
+     * @param input
+     *            name of the image in the graph (full size)
+     * @param output
+     *            name of the image with bloom (or {@link PostProcessGraph#SCREEN})
+     */
+    public void addPasses(PostProcessGraph graph, String input, String output) {
+        // down: 1/2, 1/4, ... of the size
+        graph.addDownsampledPass(prefilterShader, null, "bloomDown1", 2, input, "glow");
+        for (int level = 2; level <= LEVELS; level++) {
+            graph.addDownsampledPass(downsampleShader, null, "bloomDown" + level, 1 << level,
+                    "bloomDown" + (level - 1));
+        }
+        // up: back to 1/2 of the size
+        String previous = "bloomDown" + LEVELS;
+        for (int level = LEVELS - 1; level >= 1; level--) {
+            graph.addDownsampledPass(upsampleShader, null, "bloomUp" + level, 1 << level, previous);
+            previous = "bloomUp" + level;
+        }
+        graph.addPass(compositeShader, shader -> shader.getUniform("strength").set(strength), output, input,
+                previous);
+    }
+
+    /**
+     * @param strength
+     *            how much of the bloom is added to the image (0 = none)
+     */
+    public void setStrength(float strength) {
+        this.strength = strength;
+    }
+
+    public float getStrength() {
+        return strength;
+    }
+}
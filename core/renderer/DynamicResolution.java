@@ -0,0 +1,123 @@
+package core.renderer;
+
+/**
+ * Chooses the {@link SortedRenderer#setRenderScale(float) render scale} of
+ * the 3D passes from the measured frame times, so that a frame stays within
+ * the time budget: the scale drops when the frames take too long and recovers
+ * when there is time left.</br>
+ * The rendered pixels grow with the square of the scale, so the scale is
+ * changed by the square root of the time ratio. The average over the last
+ * frames, a small headroom, a limited step and a cooldown after each change
+ * keep the scale from oscillating.
+ */
+public class DynamicResolution {
+
+    /** how many frame times are averaged */
+    private static final int HISTORY = 30;
+    /** the targeted part of the budget (headroom against oscillation) */
+    private static final float HEADROOM = 0.9f;
+    /** the largest change of the scale per adjustment */
+    private static final float MAX_STEP = 0.1f;
+    /** changes smaller than this are ignored */
+    private static final float MIN_STEP = 0.02f;
+
+    /** the frame time budget in seconds */
+    private float budget;
+    private float minScale, maxScale;
+
+    /** the last frame times (ring) */
+    private final float[] times;
+    private int timeCount, timeIndex;
+    /** frames to wait before the next adjustment */
+    private int cooldown;
+
+    private float scale;
+
+    /**
+     * @param budget
+     *            frame time in seconds (e.g. 1 / 60f)
+     * @param minScale
+     *            the lowest scale
+     * @param maxScale
+     *            the highest scale (usually 1)
+     */
+    public DynamicResolution(float budget, float minScale, float maxScale) {
+        if (minScale <= 0 || minScale > maxScale) {
+            throw new IllegalArgumentException("Invalid render scale range " + minScale + " to " + maxScale + ".");
+        }
+        this.times = new float[HISTORY];
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.scale = maxScale;
+        setBudget(budget);
+    }
+
+    /**
+     * Adds the time of the last frame and adjusts the scale if the history is
+     * full and the cooldown has passed.
+     *
+     * @param frameTime
+     *            in seconds (e.g. {@link GpuTimer#getTime()}, 0 is ignored)
+     * @return the new scale
+     */
+    public float update(float frameTime) {
+        if (frameTime <= 0) {
+            return scale;
+        }
+        times[timeIndex] = frameTime;
+        timeIndex = (timeIndex + 1) % HISTORY;
+        timeCount = Math.min(timeCount + 1, HISTORY);
+        if (cooldown > 0) {
+            cooldown--;
+            return scale;
+        }
+        if (timeCount < HISTORY) {
+            return scale;
+        }
+
+        float average = 0;
+        for (float time : times) {
+            average += time;
+        }
+        average /= HISTORY;
+
+        float target = scale * (float) Math.sqrt(budget * HEADROOM / average);
+        target = Math.min(Math.max(target, scale - MAX_STEP), scale + MAX_STEP);
+        target = Math.min(Math.max(target, minScale), maxScale);
+        if (Math.abs(target - scale) >= MIN_STEP || (target != scale && (target == minScale || target == maxScale))) {
+            scale = target;
+            // the times measured with the old scale are not used again
+            timeCount = 0;
+            cooldown = HISTORY / 2;
+        }
+        return scale;
+    }
+
+    /**
+     * @param budget
+     *            frame time in seconds
+     */
+    public void setBudget(float budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("The frame time budget has to be positive.");
+        }
+        this.budget = budget;
+    }
+
+    public float getBudget() {
+        return budget;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * Goes back to the highest scale and forgets the measured times.
+     */
+    public void reset() {
+        scale = maxScale;
+        timeCount = 0;
+        cooldown = 0;
+    }
+}
@@ -0,0 +1,111 @@
+package core.renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * A scratch allocator for native memory that is only needed within one frame
+ * (e.g. the vertices of a quad before they are uploaded).</br>
+ * </br>
+ * All allocations come from one block allocated at the start: an allocation
+ * only moves an offset, nothing is freed individually. The whole block is
+ * released at once when {@link core.window.Timer#startFrame()} calls
+ * {@link #reset()}, so a buffer must not be kept beyond the frame it was
+ * allocated in. If the block is full, the allocation falls back to a
+ * separate buffer that is freed on the next reset (the overflow shows in
+ * the {@link #getHighWaterMark() high-water mark}). Only used by the thread
+ * with the OpenGL context.
+ */
+public class FrameArena {
+
+    /** size of the block in bytes */
+    private static final int SIZE = 256 * 1024;
+    /** every allocation starts at a multiple of this (in bytes) */
+    private static final int ALIGNMENT = 16;
+
+    private static final FrameArena instance = new FrameArena();
+
+    /** the block all allocations come from */
+    private final ByteBuffer block;
+    /** bytes allocated in the current frame */
+    private int offset;
+    /** the most bytes allocated in one frame so far */
+    private int highWaterMark;
+    /** the buffers allocated outside of the block in the current frame */
+    private final List<FloatBuffer> overflow;
+    /** bytes allocated outside of the block in the current frame */
+    private int overflowSize;
+
+    private FrameArena() {
+        block = MemoryUtil.memAlloc(SIZE);
+        offset = 0;
+        highWaterMark = 0;
+        overflow = new ArrayList<FloatBuffer>();
+    }
+
+    public static FrameArena getInstance() {
+        return instance;
+    }
+
+    /**
+     * Allocates memory for the current frame.
+     *
+     * @param floats
+     *            size in floats
+     * @return the memory (position 0, limit floats), valid until the next
+     *         {@link #reset()}
+     */
+    public FloatBuffer allocFloat(int floats) {
+        int size = floats * Float.BYTES;
+        if (offset + size > SIZE) {
+            FloatBuffer buffer = MemoryUtil.memAllocFloat(floats);
+            overflow.add(buffer);
+            overflowSize += size;
+            highWaterMark = Math.max(highWaterMark, offset + overflowSize);
+            return buffer;
+        }
+        FloatBuffer buffer = MemoryUtil.memFloatBuffer(MemoryUtil.memAddress(block, offset), floats);
+        offset += (size + ALIGNMENT - 1) & -ALIGNMENT;
+        highWaterMark = Math.max(highWaterMark, offset + overflowSize);
+        return buffer;
+    }
+
+    /**
+     * Releases all allocations of the frame. Shall be called once at the start
+     * of each frame.
+     */
+    public void reset() {
+        offset = 0;
+        for (FloatBuffer buffer : overflow) {
+            MemoryUtil.memFree(buffer);
+        }
+        overflow.clear();
+        overflowSize = 0;
+    }
+
+    /**
+     * @return bytes allocated in the current frame (including the overflow)
+     */
+    public int getUsed() {
+        return offset + overflowSize;
+    }
+
+    /**
+     * @return the most bytes allocated in one frame so far (to check that the
+     *         block is large enough, may exceed the capacity)
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return size of the block in bytes
+     */
+    public int getCapacity() {
+        return SIZE;
+    }
+}
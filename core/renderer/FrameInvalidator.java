@@ -0,0 +1,110 @@
+package core.renderer;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.lwjgl.glfw.GLFW;
+
+import core.objects.Camera;
+import core.window.Interpolator;
+
+/**
+ * Decides whether a new frame has to be rendered or the last one can stay on
+ * screen (on-demand rendering).</br>
+ * A frame is needed if it was {@link #invalidate() invalidated} (models added,
+ * removed or moved, input, resize, menu and network updates, ...), if the
+ * camera moved, if an {@link Interpolator} action is running or while a source
+ * {@link #setAnimating(Object, boolean) animates} (shaders animated by the
+ * time, e.g. lasers and portals). Otherwise the main loop waits for input
+ * instead of rendering, an invalidation from another thread wakes it up (or
+ * keeps it from waiting if it comes before the loop started to wait).
+ */
+public class FrameInvalidator {
+
+    private static final FrameInvalidator instance = new FrameInvalidator();
+
+    /** whether something changed since the last rendered frame */
+    private volatile boolean dirty;
+    /** whether the main loop is waiting for events */
+    private volatile boolean waiting;
+    /** the sources that change the picture every frame */
+    private final Set<Object> animating;
+
+    private FrameInvalidator() {
+        animating = new HashSet<Object>();
+        dirty = true;
+    }
+
+    public static FrameInvalidator getInstance() {
+        return instance;
+    }
+
+    /**
+     * Marks the frame as changed, wakes the main loop if it is waiting. May be
+     * called from any thread.
+     */
+    public void invalidate() {
+        dirty = true;
+        if (waiting) {
+            GLFW.glfwPostEmptyEvent();
+        }
+    }
+
+    /**
+     * Registers or removes a source that changes the picture in every frame
+     * while it is active.
+     *
+     * @param source
+     *            e.g. the animated shader
+     * @param active
+     */
+    public void setAnimating(Object source, boolean active) {
+        synchronized (animating) {
+            if (active ? animating.add(source) : animating.remove(source)) {
+                invalidate();
+            }
+        }
+    }
+
+    /**
+     * @param camera
+     *            the scene's camera (may be null)
+     * @return whether the next frame has to be rendered
+     */
+    public boolean needsRedraw(Camera camera) {
+        if (dirty || Interpolator.getInstance().isActive()) {
+            return true;
+        }
+        if (camera != null && camera.isChanged()) {
+            return true;
+        }
+        synchronized (animating) {
+            return !animating.isEmpty();
+        }
+    }
+
+    /**
+     * Shall be called before a frame is rendered. Changes from now on need
+     * another frame, even if this frame still picks some of them up.
+     */
+    public void frameStarted() {
+        dirty = false;
+    }
+
+    /**
+     * Sets whether the main loop is waiting for events (an invalidation posts
+     * an empty event to wake it up).
+     *
+     * @param waiting
+     */
+    public void setWaiting(boolean waiting) {
+        this.waiting = waiting;
+    }
+
+    /**
+     * @return whether something changed since the last rendered frame
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+}
@@ -0,0 +1,169 @@
+package core.renderer;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.system.MemoryUtil;
+
+import core.shader.ShaderProgram;
+import core.window.Timer;
+import core.window.Window;
+import utilities.SettingsManager;
+
+/**
+ * Holds the uniform buffer of the "Frame" uniform block (see frame.glsl),
+ * which contains the values that are the same for all draws of a frame or a
+ * pass. It is filled once per frame with {@link #beginFrame()} and once per
+ * pass with {@link #setReflection(boolean)}.</br>
+ * </br>
+ * std140 layout:
+ *
+ * <pre>
+ * offset  0: float time
+ * offset  4: bool  isReflection
+ * offset  8: bool  fxaa
+ * offset 12: bool  reflect
+ * offset 16: vec2  inverseTextureSize
+ * offset 24: float reflectiveness
+ * offset 28: float renderScale
+ * offset 32: vec4  clipPlane
+ * </pre>
+ */
+public class FrameUniforms {
+
+    private static FrameUniforms instance;
+
+    /** size of the block in bytes (rounded up to a multiple of 16) */
+    private static final int SIZE = 48;
+
+    private static final int TIME_OFFSET = 0;
+    private static final int IS_REFLECTION_OFFSET = 4;
+    private static final int FXAA_OFFSET = 8;
+    private static final int REFLECT_OFFSET = 12;
+    private static final int INVERSE_TEXTURE_SIZE_OFFSET = 16;
+    private static final int REFLECTIVENESS_OFFSET = 24;
+    private static final int RENDER_SCALE_OFFSET = 28;
+    private static final int CLIP_PLANE_OFFSET = 32;
+
+    /** the uniform buffer */
+    private int uniformBuffer;
+    /** client side copy of the block */
+    private ByteBuffer data;
+    /** whether the client side copy differs from the uniform buffer */
+    private boolean changed;
+
+    /**
+     * Creates the uniform buffer and binds it to
+     * {@link ShaderProgram#FRAME_BUFFER_BINDING}.
+     */
+    private FrameUniforms() {
+        data = MemoryUtil.memCalloc(SIZE);
+        data.putFloat(RENDER_SCALE_OFFSET, 1f);
+        uniformBuffer = GL15.glGenBuffers();
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, uniformBuffer);
+        GL15.glBufferData(GL31.GL_UNIFORM_BUFFER, data, GL15.GL_DYNAMIC_DRAW);
+        GL30.glBindBufferBase(GL31.GL_UNIFORM_BUFFER, ShaderProgram.FRAME_BUFFER_BINDING, uniformBuffer);
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+        changed = false;
+    }
+
+    /**
+     * Shall not be called without OpenGLContext ready.
+     *
+     * @return the instance
+     */
+    public static FrameUniforms getInstance() {
+        if (instance == null) {
+            instance = new FrameUniforms();
+        }
+        return instance;
+    }
+
+    /**
+     * Fills the block with the values of the new frame (time of the frame
+     * start, window size and settings as allowed by the
+     * {@link QualityGovernor}) and uploads it. Shall be called once
+     * per frame after {@link Timer#startFrame()}.
+     */
+    public void beginFrame() {
+        putFloat(TIME_OFFSET, (float) Timer.getInstance().getFrameStart());
+        putInt(IS_REFLECTION_OFFSET, 0);
+        QualityGovernor quality = QualityGovernor.getInstance();
+        putInt(FXAA_OFFSET, quality.useFxaa() ? 1 : 0);
+        putInt(REFLECT_OFFSET, quality.useReflection() ? 1 : 0);
+        putFloat(INVERSE_TEXTURE_SIZE_OFFSET, 1f / (float) Window.width);
+        putFloat(INVERSE_TEXTURE_SIZE_OFFSET + 4, 1f / (float) Window.height);
+        putFloat(REFLECTIVENESS_OFFSET, SettingsManager.reflectiveness);
+        update();
+    }
+
+    /**
+     * Sets whether the following draws render the reflection and uploads the
+     * block.
+     *
+     * @param reflection
+     */
+    public void setReflection(boolean reflection) {
+        putInt(IS_REFLECTION_OFFSET, reflection ? 1 : 0);
+        update();
+    }
+
+    /**
+     * Sets the plane (a * x + b * y + c * z + d >= 0 is kept) the vertex
+     * shaders compute gl_ClipDistance[0] with and uploads the block. Clipping
+     * only happens while GL_CLIP_DISTANCE0 is enabled.
+     *
+     * @param a
+     * @param b
+     * @param c
+     * @param d
+     */
+    public void setClipPlane(float a, float b, float c, float d) {
+        putFloat(CLIP_PLANE_OFFSET, a);
+        putFloat(CLIP_PLANE_OFFSET + 4, b);
+        putFloat(CLIP_PLANE_OFFSET + 8, c);
+        putFloat(CLIP_PLANE_OFFSET + 12, d);
+        update();
+    }
+
+    /**
+     * Sets the part of the scene framebuffers the 3D passes render to (see
+     * {@link SortedRenderer#setRenderScale(float)}) and uploads the block.
+     *
+     * @param scale
+     *            1 = full resolution
+     */
+    public void setRenderScale(float scale) {
+        putFloat(RENDER_SCALE_OFFSET, scale);
+        update();
+    }
+
+    /**
+     * Uploads the block if it has changed.
+     */
+    private void update() {
+        if (!changed) {
+            return;
+        }
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, uniformBuffer);
+        GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, 0, data);
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+        changed = false;
+    }
+
+    private void putFloat(int offset, float value) {
+        if (data.getFloat(offset) != value) {
+            data.putFloat(offset, value);
+            changed = true;
+        }
+    }
+
+    private void putInt(int offset, int value) {
+        if (data.getInt(offset) != value) {
+            data.putInt(offset, value);
+            changed = true;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package core.renderer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import core.shader.ScreenShaderProgram;
+import utilities.SettingsManager;
+
+/**
+ * The single-pass alternative to the post-processing chain: one uber shader
+ * (postProcessFused.frag) combines the scene, its reflection and the effects,
+ * applies FXAA and sharpens in one full-screen draw straight to the
+ * screen (or to the {@link Bloom}).</br>
+ * A variant of the shader is compiled for each combination of the enabled
+ * settings (when it is first needed), so the disabled parts cost nothing.
+ */
+public class FusedPostProcess {
+
+    private static final int FXAA = 1;
+    private static final int SHARPEN = 2;
+
+    /** the compiled variants (index: FXAA and SHARPEN flags) */
+    private final ScreenShaderProgram[] variants;
+
+    public FusedPostProcess() {
+        variants = new ScreenShaderProgram[4];
+    }
+
+    /**
+     * Returns the variant of the uber shader, compiles it on the first call.
+     *
+     * @param fxaa
+     *            whether the scene and the reflection are anti-aliased
+     * @param sharpen
+     *            whether the result is sharpened
+     * @return the shader (samplers "scene", "reflection", "effect", "glow" on
+     *         the units 0 to 3)
+     */
+    public ScreenShaderProgram getShader(boolean fxaa, boolean sharpen) {
+        int index = (fxaa ? FXAA : 0) | (sharpen ? SHARPEN : 0);
+        if (variants[index] == null) {
+            List<String> defines = new ArrayList<String>();
+            if (fxaa) {
+                defines.add("USE_FXAA");
+            }
+            if (sharpen) {
+                defines.add("USE_SHARPEN");
+            }
+            ScreenShaderProgram shader = new ScreenShaderProgram("screenShader.vert", "postProcessFused.frag",
+                    defines.toArray(new String[defines.size()]));
+            shader.use();
+            shader.getUniform("scene").set(0);
+            shader.getUniform("reflection").set(1);
+            shader.getUniform("effect").set(2);
+            shader.getUniform("glow").set(3);
+            variants[index] = shader;
+        }
+        return variants[index];
+    }
+
+    /**
+     * Adds the single pass (with the inputs of the
+     * {@link SortedRenderer#getPostProcessGraph() renderer's graph}) writing to
+     * {@link PostProcessGraph#SCREEN}.
+     *
+     * @param graph
+     * @param reflection
+     *            name of the reflection texture in the graph (e.g. "mirror")
+     * @param fxaa
+     *            whether the scene and the reflection are anti-aliased
+     * @param sharpen
+     *            whether the result is sharpened (by
+     *            {@link SettingsManager#sharpen})
+     */
+    public void addPass(PostProcessGraph graph, String reflection, boolean fxaa, boolean sharpen) {
+        addPass(graph, reflection, fxaa, sharpen, PostProcessGraph.SCREEN);
+    }
+
+    /**
+     * Adds the single pass (with the inputs of the
+     * {@link SortedRenderer#getPostProcessGraph() renderer's graph}), e.g.
+     * followed by the {@link Bloom}.
+     *
+     * @param graph
+     * @param reflection
+     *            name of the reflection texture in the graph (e.g. "mirror")
+     * @param fxaa
+     *            whether the scene and the reflection are anti-aliased
+     * @param sharpen
+     *            whether the result is sharpened
+     * @param output
+     *            name of the written texture (or {@link PostProcessGraph#SCREEN})
+     */
+    public void addPass(PostProcessGraph graph, String reflection, boolean fxaa, boolean sharpen, String output) {
+        graph.addPass(getShader(fxaa, sharpen), shader -> shader.getUniform("strength").set(SettingsManager.sharpen),
+                output, "scene", reflection, "effect", "glow");
+    }
+}
@@ -0,0 +1,385 @@
+package core.renderer;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Keeps track of the OpenGL state (program, VAO, framebuffer and texture
+ * bindings, viewport, capabilities, depth mask and blending) and skips calls
+ * that would not change anything.</br>
+ * All rendering code shall change this state through the cache, otherwise it
+ * gets out of sync. Code that changes the state behind the cache's back (e.g.
+ * NanoVG) has to call {@link #invalidate()} afterwards.
+ */
+public class GLStateCache {
+
+    private static GLStateCache instance;
+
+    /** value for a state that is not known to the cache */
+    private static final int UNKNOWN = -1;
+    /** how many texture units are tracked */
+    private static final int TEXTURE_UNITS = 16;
+    /** the capabilities tracked by {@link #enable(int)}/{@link #disable(int)} */
+    private static final int[] CAPABILITIES = new int[] { GL11.GL_BLEND, GL11.GL_DEPTH_TEST, GL11.GL_CULL_FACE,
+            GL11.GL_STENCIL_TEST, GL11.GL_SCISSOR_TEST, GL30.GL_CLIP_DISTANCE0, GL13.GL_MULTISAMPLE };
+
+    private int program;
+    private int vertexArray;
+    private int framebuffer;
+    private int viewportWidth, viewportHeight;
+    private int activeTexture;
+    private final int[] textures;
+    /** 1 = enabled, 0 = disabled, {@link #UNKNOWN} */
+    private final int[] capabilities;
+    private int depthMask;
+    private int blendSource, blendDestination;
+    private int blendEquationRGB, blendEquationAlpha;
+
+    /** calls passed on to OpenGL in the current frame */
+    private int issuedCalls;
+    /** calls skipped in the current frame */
+    private int skippedCalls;
+    /** calls passed on to OpenGL in the last frame */
+    private int lastIssuedCalls;
+    /** calls skipped in the last frame */
+    private int lastSkippedCalls;
+
+    private GLStateCache() {
+        textures = new int[TEXTURE_UNITS];
+        capabilities = new int[CAPABILITIES.length];
+        invalidate();
+    }
+
+    public static GLStateCache getInstance() {
+        if (instance == null) {
+            instance = new GLStateCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Forgets the whole state, so that the next calls are passed on to OpenGL
+     * in any case. Has to be called after the state was changed without the
+     * cache (and for a new context).
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        vertexArray = UNKNOWN;
+        framebuffer = UNKNOWN;
+        viewportWidth = UNKNOWN;
+        viewportHeight = UNKNOWN;
+        activeTexture = UNKNOWN;
+        for (int i = 0; i < TEXTURE_UNITS; i++) {
+            textures[i] = UNKNOWN;
+        }
+        for (int i = 0; i < capabilities.length; i++) {
+            capabilities[i] = UNKNOWN;
+        }
+        depthMask = UNKNOWN;
+        blendSource = UNKNOWN;
+        blendDestination = UNKNOWN;
+        blendEquationRGB = UNKNOWN;
+        blendEquationAlpha = UNKNOWN;
+    }
+
+    // ===========================================================================
+    // Bindings
+    // ===========================================================================
+
+    /**
+     * @param program
+     *            programID to use
+     */
+    public void useProgram(int program) {
+        if (this.program == program) {
+            skippedCalls++;
+            return;
+        }
+        GL20.glUseProgram(program);
+        this.program = program;
+        issuedCalls++;
+    }
+
+    /**
+     * @param vertexArray
+     *            vao to bind
+     */
+    public void bindVertexArray(int vertexArray) {
+        if (this.vertexArray == vertexArray) {
+            skippedCalls++;
+            return;
+        }
+        GL30.glBindVertexArray(vertexArray);
+        this.vertexArray = vertexArray;
+        issuedCalls++;
+    }
+
+    /**
+     * @param framebuffer
+     *            framebuffer to bind (for drawing and reading, 0 = default
+     *            framebuffer)
+     */
+    public void bindFramebuffer(int framebuffer) {
+        if (this.framebuffer == framebuffer) {
+            skippedCalls++;
+            return;
+        }
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebuffer);
+        this.framebuffer = framebuffer;
+        issuedCalls++;
+    }
+
+    /**
+     * Returns the bound framebuffer without querying OpenGL (unless the state
+     * was invalidated).
+     * 
+     * @return the bound framebuffer
+     */
+    public int getFramebuffer() {
+        if (framebuffer == UNKNOWN) {
+            framebuffer = GL11.glGetInteger(GL30.GL_FRAMEBUFFER_BINDING);
+        }
+        return framebuffer;
+    }
+
+    /**
+     * Has to be called when a framebuffer is deleted (OpenGL binds the default
+     * framebuffer if it was bound).
+     * 
+     * @param framebuffer
+     *            the deleted framebuffer
+     */
+    public void framebufferDeleted(int framebuffer) {
+        if (this.framebuffer == framebuffer) {
+            this.framebuffer = 0;
+        }
+    }
+
+    /**
+     * Sets the viewport (always starting at the lower left corner).
+     * 
+     * @param width
+     * @param height
+     */
+    public void viewport(int width, int height) {
+        if (viewportWidth == width && viewportHeight == height) {
+            skippedCalls++;
+            return;
+        }
+        GL11.glViewport(0, 0, width, height);
+        viewportWidth = width;
+        viewportHeight = height;
+        issuedCalls++;
+    }
+
+    /**
+     * @param unit
+     *            index of the texture unit to activate (0 = GL_TEXTURE0)
+     */
+    public void activeTexture(int unit) {
+        if (activeTexture == unit) {
+            skippedCalls++;
+            return;
+        }
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+        activeTexture = unit;
+        issuedCalls++;
+    }
+
+    /**
+     * Binds the 2D texture to the given texture unit.
+     *
+     * @param unit
+     *            index of the texture unit (0 = GL_TEXTURE0)
+     * @param texture
+     *            textureID
+     */
+    public void bindTexture(int unit, int texture) {
+        if (unit < TEXTURE_UNITS && textures[unit] == texture) {
+            skippedCalls++;
+            return;
+        }
+        activeTexture(unit);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+        if (unit < TEXTURE_UNITS) {
+            textures[unit] = texture;
+        }
+        issuedCalls++;
+    }
+
+    /**
+     * Binds the 2D texture to the active texture unit.
+     *
+     * @param texture
+     *            textureID
+     */
+    public void bindTexture(int texture) {
+        if (activeTexture == UNKNOWN) {
+            activeTexture(0);
+        }
+        bindTexture(activeTexture, texture);
+    }
+
+    /**
+     * Has to be called when a texture is deleted (OpenGL unbinds it from all
+     * units).
+     *
+     * @param texture
+     *            textureID of the deleted texture
+     */
+    public void textureDeleted(int texture) {
+        for (int i = 0; i < TEXTURE_UNITS; i++) {
+            if (textures[i] == texture) {
+                textures[i] = 0;
+            }
+        }
+    }
+
+    // ===========================================================================
+    // Capabilities
+    // ===========================================================================
+
+    /**
+     * @param capability
+     *            to enable (e.g. GL11.GL_DEPTH_TEST)
+     */
+    public void enable(int capability) {
+        setEnabled(capability, true);
+    }
+
+    /**
+     * @param capability
+     *            to disable (e.g. GL11.GL_DEPTH_TEST)
+     */
+    public void disable(int capability) {
+        setEnabled(capability, false);
+    }
+
+    /**
+     * Enables or disables the capability.
+     *
+     * @param capability
+     *            (e.g. GL11.GL_DEPTH_TEST)
+     * @param enabled
+     */
+    public void setEnabled(int capability, boolean enabled) {
+        int index = indexOf(capability);
+        int state = enabled ? 1 : 0;
+        if (index >= 0 && capabilities[index] == state) {
+            skippedCalls++;
+            return;
+        }
+        if (enabled) {
+            GL11.glEnable(capability);
+        } else {
+            GL11.glDisable(capability);
+        }
+        if (index >= 0) {
+            capabilities[index] = state;
+        }
+        issuedCalls++;
+    }
+
+    /**
+     * @param mask
+     *            whether writing to the depth buffer is enabled
+     */
+    public void depthMask(boolean mask) {
+        int state = mask ? 1 : 0;
+        if (depthMask == state) {
+            skippedCalls++;
+            return;
+        }
+        GL11.glDepthMask(mask);
+        depthMask = state;
+        issuedCalls++;
+    }
+
+    /**
+     * @param source
+     *            source factor
+     * @param destination
+     *            destination factor
+     */
+    public void blendFunc(int source, int destination) {
+        if (blendSource == source && blendDestination == destination) {
+            skippedCalls++;
+            return;
+        }
+        GL11.glBlendFunc(source, destination);
+        blendSource = source;
+        blendDestination = destination;
+        issuedCalls++;
+    }
+
+    /**
+     * @param equation
+     *            blend equation for color and alpha
+     */
+    public void blendEquation(int equation) {
+        blendEquationSeparate(equation, equation);
+    }
+
+    /**
+     * @param equationRGB
+     *            blend equation for the color
+     * @param equationAlpha
+     *            blend equation for the alpha
+     */
+    public void blendEquationSeparate(int equationRGB, int equationAlpha) {
+        if (blendEquationRGB == equationRGB && blendEquationAlpha == equationAlpha) {
+            skippedCalls++;
+            return;
+        }
+        if (equationRGB == equationAlpha) {
+            GL14.glBlendEquation(equationRGB);
+        } else {
+            GL20.glBlendEquationSeparate(equationRGB, equationAlpha);
+        }
+        blendEquationRGB = equationRGB;
+        blendEquationAlpha = equationAlpha;
+        issuedCalls++;
+    }
+
+    private int indexOf(int capability) {
+        for (int i = 0; i < CAPABILITIES.length; i++) {
+            if (CAPABILITIES[i] == capability) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ===========================================================================
+    // Statistics
+    // ===========================================================================
+
+    /**
+     * Stores the counters of the finished frame and resets them. Shall be
+     * called once per frame.
+     */
+    public void nextFrame() {
+        lastIssuedCalls = issuedCalls;
+        lastSkippedCalls = skippedCalls;
+        issuedCalls = 0;
+        skippedCalls = 0;
+    }
+
+    /**
+     * @return how many state changes were passed on to OpenGL in the last
+     *         frame
+     */
+    public int getIssuedCalls() {
+        return lastIssuedCalls;
+    }
+
+    /**
+     * @return how many redundant state changes were skipped in the last frame
+     */
+    public int getSkippedCalls() {
+        return lastSkippedCalls;
+    }
+}
@@ -0,0 +1,106 @@
+package core.renderer;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL33;
+
+/**
+ * Measures how long the GPU takes for the commands between {@link #begin()}
+ * and {@link #end()} (GL_TIME_ELAPSED queries, which can't be nested: only
+ * one timer may run at a time).</br>
+ * The results arrive some frames later, so the queries of the last frames are
+ * kept in a ring and only read when they are available: reading never stalls
+ * the pipeline and the measured time lags a few frames behind.
+ */
+public class GpuTimer {
+
+    /** how many frames a query may take until its result is read */
+    private static final int QUERY_COUNT = 4;
+
+    /** the ring of queries */
+    private final int[] queries;
+    /** whether the query was started and its result is not read yet */
+    private final boolean[] pending;
+    /** the query of the current frame */
+    private int current;
+    /** whether a query is running */
+    private boolean running;
+
+    /** the last measured time in seconds (0 until the first result) */
+    private float time;
+
+    public GpuTimer() {
+        queries = new int[QUERY_COUNT];
+        pending = new boolean[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            queries[i] = GL15.glGenQueries();
+        }
+        current = 0;
+        running = false;
+        time = 0;
+    }
+
+    /**
+     * Starts measuring (once per frame). Skipped if the query of the slot is
+     * still not available after {@value #QUERY_COUNT} frames or if the timer
+     * is already running.
+     */
+    public void begin() {
+        if (running) {
+            return;
+        }
+        readResults();
+        if (pending[current]) {
+            return;
+        }
+        GL15.glBeginQuery(GL33.GL_TIME_ELAPSED, queries[current]);
+        running = true;
+    }
+
+    /**
+     * Stops measuring the commands of this frame.
+     */
+    public void end() {
+        if (!running) {
+            return;
+        }
+        GL15.glEndQuery(GL33.GL_TIME_ELAPSED);
+        running = false;
+        pending[current] = true;
+        current = (current + 1) % QUERY_COUNT;
+    }
+
+    /**
+     * Reads the results of all available queries (the newest one wins).
+     */
+    private void readResults() {
+        // oldest first, starting after the current slot
+        for (int i = 1; i <= QUERY_COUNT; i++) {
+            int index = (current + i) % QUERY_COUNT;
+            if (!pending[index]) {
+                continue;
+            }
+            if (GL15.glGetQueryObjecti(queries[index], GL15.GL_QUERY_RESULT_AVAILABLE) == GL15.GL_FALSE) {
+                // later queries can't be available either
+                break;
+            }
+            time = GL33.glGetQueryObjectui64(queries[index], GL15.GL_QUERY_RESULT) / 1e9f;
+            pending[index] = false;
+        }
+    }
+
+    /**
+     * @return the GPU time of the last measured frame in seconds
+     */
+    public float getTime() {
+        return time;
+    }
+
+    /**
+     * Deletes the queries.
+     */
+    public void delete() {
+        for (int query : queries) {
+            GL15.glDeleteQueries(query);
+        }
+    }
+}
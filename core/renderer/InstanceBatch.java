@@ -0,0 +1,287 @@
+package core.renderer;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.system.MemoryUtil;
+
+import core.math.Frustum;
+import core.math.Vector3f;
+import core.model.Model;
+import core.shader.ShaderProgram;
+import core.texture.Texture;
+
+/**
+ * Holds all models that share the same VAO and the same textures, so that
+ * they can be rendered with one single instanced draw call.</br>
+ * The per-instance data ({@link Model#storeInstanceData(FloatBuffer)
+ * modelMatrix and additional data}) is written to a region of a shared
+ * {@link StreamBuffer}, which is bound to the attribute locations
+ * {@link #MODEL_MATRIX_LOCATION} (mat4) and {@link #INSTANCE_DATA_LOCATION}
+ * (vec4) of the VAO at the region's offset.
+ */
+public class InstanceBatch {
+
+    /** attribute location of the per-instance modelMatrix (uses 4 locations) */
+    public static final int MODEL_MATRIX_LOCATION = 4;
+    /** attribute location of the per-instance additional data */
+    public static final int INSTANCE_DATA_LOCATION = 8;
+
+    /** size of one instance in bytes */
+    public static final int STRIDE = Model.INSTANCE_DATA_SIZE * Float.BYTES;
+
+    /** client side data of one instance (for rendering without instancing) */
+    private static FloatBuffer separateData;
+
+    /** the shader the batch is rendered with */
+    private final ShaderProgram shader;
+    /** the models of the batch, the first one is used to prepare rendering */
+    private final List<Model> models;
+    /** the models that passed the frustum test of the last upload */
+    private final List<Model> visibleModels;
+    /** id of the batch's set of textures (used for sorting) */
+    private int textureSet;
+    /** the buffer holding the instance data of the current frame */
+    private StreamBuffer stream;
+    /** byte offset of the instance data within the stream buffer */
+    private int offset;
+
+    /**
+     * Creates a new batch with the given model as its first instance.
+     *
+     * @param shader
+     *            the batch is rendered with
+     * @param model
+     */
+    public InstanceBatch(ShaderProgram shader, Model model) {
+        this.shader = shader;
+        this.models = new ArrayList<Model>();
+        this.models.add(model);
+        this.visibleModels = new ArrayList<Model>();
+    }
+
+    /**
+     * @param model
+     * @return whether the model can be rendered within this batch (same VAO,
+     *         same textures, both reflected or not and both static or not,
+     *         transparent models always get their own batch to be sorted by
+     *         depth)
+     */
+    public boolean accepts(Model model) {
+        Model first = models.get(0);
+        if (first.isTransparent() || model.isTransparent()) {
+            return false;
+        }
+        if (first.isReflected() != model.isReflected() || first.isStatic() != model.isStatic()) {
+            return false;
+        }
+        if (first.getVao() != model.getVao() || first.getVertexCount() != model.getVertexCount()) {
+            return false;
+        }
+        Texture[] textures = first.getTextures();
+        Texture[] otherTextures = model.getTextures();
+        for (int i = 0; i < textures.length; i++) {
+            if (textures[i].getTextureID() != otherTextures[i].getTextureID()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the model to the batch (without checking
+     * {@link #accepts(Model)}).
+     *
+     * @param model
+     */
+    public void add(Model model) {
+        models.add(model);
+    }
+
+    /**
+     * Collects the per-instance data of all visible models and writes it to
+     * the stream buffer. Has to be called once per pass before rendering.
+     *
+     * @param stream
+     *            the pass's data is written to (within
+     *            {@link StreamBuffer#beginFrame(int)} and
+     *            {@link StreamBuffer#flush()})
+     * @param frustum
+     *            of the pass's camera, models outside are skipped
+     * @return how many models were culled
+     */
+    public int upload(StreamBuffer stream, Frustum frustum) {
+        visibleModels.clear();
+        for (Model model : models) {
+            if (model.isVisible(frustum)) {
+                visibleModels.add(model);
+            }
+        }
+        this.stream = stream;
+        FloatBuffer instanceData = stream.reserve(visibleModels.size() * Model.INSTANCE_DATA_SIZE);
+        for (Model model : visibleModels) {
+            model.storeInstanceData(instanceData);
+        }
+        offset = stream.getOffset();
+        return models.size() - visibleModels.size();
+    }
+
+    /**
+     * Skips all models of the batch in the current pass (instead of
+     * {@link #upload(StreamBuffer, Frustum)}).
+     *
+     * @return how many models were skipped
+     */
+    public int skip() {
+        visibleModels.clear();
+        return models.size();
+    }
+
+    /**
+     * Renders all models of the batch with one instanced draw call. The shader
+     * has to be in use already.
+     *
+     * @param shader
+     *            ShaderProgram the models are rendered with
+     */
+    public void render(ShaderProgram shader) {
+        if (visibleModels.isEmpty()) {
+            return;
+        }
+        Model first = models.get(0);
+        first.prepare().accept(shader);
+
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, stream.getBufferID());
+        for (int i = 0; i < 4; i++) {
+            GL20.glVertexAttribPointer(MODEL_MATRIX_LOCATION + i, 4, GL11.GL_FLOAT, false, STRIDE,
+                    offset + i * 4 * Float.BYTES);
+            GL33.glVertexAttribDivisor(MODEL_MATRIX_LOCATION + i, 1);
+            GL20.glEnableVertexAttribArray(MODEL_MATRIX_LOCATION + i);
+        }
+        GL20.glVertexAttribPointer(INSTANCE_DATA_LOCATION, 4, GL11.GL_FLOAT, false, STRIDE,
+                offset + 16 * Float.BYTES);
+        GL33.glVertexAttribDivisor(INSTANCE_DATA_LOCATION, 1);
+        GL20.glEnableVertexAttribArray(INSTANCE_DATA_LOCATION);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+
+        GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, first.getVertexCount(), GL11.GL_UNSIGNED_INT, 0,
+                visibleModels.size());
+    }
+
+    /**
+     * Renders the models of the batch one by one (without instancing), passing
+     * the per-instance data as constant vertex attributes. The shader has to
+     * be in use already.
+     *
+     * @param shader
+     *            ShaderProgram the models are rendered with
+     */
+    public void renderSeparately(ShaderProgram shader) {
+        if (visibleModels.isEmpty()) {
+            return;
+        }
+        Model first = models.get(0);
+        first.prepare().accept(shader);
+
+        for (int i = MODEL_MATRIX_LOCATION; i <= INSTANCE_DATA_LOCATION; i++) {
+            GL20.glDisableVertexAttribArray(i);
+        }
+
+        if (separateData == null) {
+            separateData = MemoryUtil.memAllocFloat(Model.INSTANCE_DATA_SIZE);
+        }
+        // (the mapped stream buffer is not read back, it may be slow to read)
+        for (Model model : visibleModels) {
+            separateData.clear();
+            model.storeInstanceData(separateData);
+            int index = 0;
+            for (int location = MODEL_MATRIX_LOCATION; location <= INSTANCE_DATA_LOCATION; location++) {
+                GL20.glVertexAttrib4f(location, separateData.get(index), separateData.get(index + 1),
+                        separateData.get(index + 2), separateData.get(index + 3));
+                index += 4;
+            }
+            model.render();
+        }
+    }
+
+    /**
+     * Calculates the distance from the given point to the nearest visible
+     * model of the batch.
+     *
+     * @param point
+     * @return distance
+     */
+    public float getNearestDistance(Vector3f point) {
+        float nearest = Float.MAX_VALUE;
+        for (Model model : visibleModels) {
+            nearest = Math.min(nearest, model.getDistance(point));
+        }
+        return nearest;
+    }
+
+    /**
+     * @return whether the batch is rendered in the blended pass
+     */
+    public boolean isTransparent() {
+        return models.get(0).isTransparent();
+    }
+
+    /**
+     * @return whether the batch is rendered in the reflection
+     */
+    public boolean isReflected() {
+        return models.get(0).isReflected();
+    }
+
+    /**
+     * @return whether the batch can be cached in the static layer (static and
+     *         opaque, transparent models have to be blended over the moving
+     *         ones)
+     */
+    public boolean isStatic() {
+        Model first = models.get(0);
+        return first.isStatic() && !first.isTransparent();
+    }
+
+    /**
+     * @return whether a model of the batch was transformed since it was last
+     *         uploaded
+     */
+    public boolean isChanged() {
+        for (Model model : models) {
+            if (model.isModelMatrixChanged()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public ShaderProgram getShader() {
+        return shader;
+    }
+
+    public int getVao() {
+        return models.get(0).getVao();
+    }
+
+    public int getTextureSet() {
+        return textureSet;
+    }
+
+    public void setTextureSet(int textureSet) {
+        this.textureSet = textureSet;
+    }
+
+    /**
+     * @return the models of the batch
+     */
+    public List<Model> getModels() {
+        return models;
+    }
+}
@@ -0,0 +1,394 @@
+package core.renderer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL14;
+
+import core.shader.ScreenShaderProgram;
+import core.window.Window;
+
+/**
+ * A small render graph for the full-screen post-processing passes.</br>
+ * </br>
+ * Each pass declares the textures it reads (by name, bound to the texture
+ * units 0, 1, 2, ... in the given order) and the name of the texture it
+ * writes. Names are either inputs registered with
+ * {@link #addInput(String, int)} (e.g. the scene), transient textures written
+ * by an earlier pass or {@link #SCREEN} (the default framebuffer).</br>
+ * The transient textures get their render target from a pool when the graph
+ * is compiled: a target is reused as soon as the last pass reading its
+ * previous texture has run, so a chain of passes ping-pongs between two
+ * targets and never copies.</br>
+ * Passes added with {@link #addScaledPass} only render to the lower left part
+ * of their target given by the {@link #setRenderScale(float) render scale},
+ * like the 3D passes with dynamic resolution. Passes added with
+ * {@link #addDownsampledPass} write a texture in a fraction of the size (e.g.
+ * the levels of a blur pyramid), the pool keeps targets of each size.</br>
+ * The pool's textures are filtered linearly.
+ */
+public class PostProcessGraph {
+
+    /** name of the default framebuffer as output of a pass */
+    public static final String SCREEN = "screen";
+
+    /** the registered inputs (name, textureID) */
+    private final Map<String, Integer> inputs;
+    /** the passes in execution order */
+    private final List<Pass> passes;
+
+    /** all render targets of the pool */
+    private final List<RenderTarget> pool;
+    /** the size divisor of each render target of the pool */
+    private final Map<RenderTarget, Integer> divisors;
+    /** the render target of each transient texture (valid if compiled) */
+    private final Map<String, RenderTarget> targets;
+    /** whether the passes changed since the last compilation */
+    private boolean changed;
+
+    private int width, height;
+    /** the size of the scaled passes relative to the targets */
+    private float renderScale;
+
+    /**
+     * Creates an empty graph.
+     *
+     * @param width
+     *            of the transient textures
+     * @param height
+     *            of the transient textures
+     */
+    public PostProcessGraph(int width, int height) {
+        this.inputs = new HashMap<String, Integer>();
+        this.passes = new ArrayList<Pass>();
+        this.pool = new ArrayList<RenderTarget>();
+        this.divisors = new HashMap<RenderTarget, Integer>();
+        this.targets = new HashMap<String, RenderTarget>();
+        this.changed = false;
+        this.width = width;
+        this.height = height;
+        this.renderScale = 1;
+    }
+
+    // ===========================================================================
+    // Description
+    // ===========================================================================
+
+    /**
+     * Registers a texture that is rendered outside of the graph.
+     *
+     * @param name
+     *            used by the passes to read it
+     * @param textureID
+     * @return this graph
+     */
+    public PostProcessGraph addInput(String name, int textureID) {
+        inputs.put(name, textureID);
+        return this;
+    }
+
+    /**
+     * Appends a pass.
+     *
+     * @param shader
+     *            the post-process shader (its samplers have to be set to the
+     *            units 0, 1, ... in the order of the inputs)
+     * @param setup
+     *            sets the other uniforms of the shader while it is in use (may
+     *            be null)
+     * @param output
+     *            name of the written texture (or {@link #SCREEN})
+     * @param inputs
+     *            names of the read textures
+     * @return this graph
+     */
+    public PostProcessGraph addPass(ScreenShaderProgram shader, Consumer<ScreenShaderProgram> setup, String output,
+            String... inputs) {
+        passes.add(new Pass(shader, setup, output, inputs, false, 1));
+        changed = true;
+        return this;
+    }
+
+    /**
+     * Appends a pass that only renders to the lower left part of its target
+     * given by the {@link #setRenderScale(float) render scale} (e.g. a pass
+     * working on the scene in its reduced resolution).
+     *
+     * @param shader
+     * @param setup
+     *            (may be null)
+     * @param output
+     *            name of the written texture (not {@link #SCREEN})
+     * @param inputs
+     *            names of the read textures
+     * @return this graph
+     * @see #addPass(ScreenShaderProgram, Consumer, String, String...)
+     */
+    public PostProcessGraph addScaledPass(ScreenShaderProgram shader, Consumer<ScreenShaderProgram> setup,
+            String output, String... inputs) {
+        if (SCREEN.equals(output)) {
+            throw new IllegalArgumentException("A scaled pass can not write to the screen.");
+        }
+        passes.add(new Pass(shader, setup, output, inputs, true, 1));
+        changed = true;
+        return this;
+    }
+
+    /**
+     * Appends a pass writing a texture in a fraction of the graph's size.
+     *
+     * @param shader
+     * @param setup
+     *            (may be null)
+     * @param output
+     *            name of the written texture (not {@link #SCREEN})
+     * @param divisor
+     *            the texture has 1 / divisor of the width and height
+     * @param inputs
+     *            names of the read textures
+     * @return this graph
+     * @see #addPass(ScreenShaderProgram, Consumer, String, String...)
+     */
+    public PostProcessGraph addDownsampledPass(ScreenShaderProgram shader, Consumer<ScreenShaderProgram> setup,
+            String output, int divisor, String... inputs) {
+        if (SCREEN.equals(output)) {
+            throw new IllegalArgumentException("A downsampled pass can not write to the screen.");
+        }
+        if (divisor < 1) {
+            throw new IllegalArgumentException("The size divisor has to be at least 1.");
+        }
+        passes.add(new Pass(shader, setup, output, inputs, false, divisor));
+        changed = true;
+        return this;
+    }
+
+    /**
+     * Removes all passes (the registered inputs and the pool are kept).
+     */
+    public void clearPasses() {
+        passes.clear();
+        changed = true;
+    }
+
+    /**
+     * @return whether the graph has no passes
+     */
+    public boolean isEmpty() {
+        return passes.isEmpty();
+    }
+
+    // ===========================================================================
+    // Compilation
+    // ===========================================================================
+
+    /**
+     * Assigns a render target of the pool to each transient texture. The
+     * target of a texture is released after the last pass that reads it, the
+     * pool only grows if no released target of the size is left.
+     * 
+     * @throws IllegalArgumentException
+     *             if the passes read a texture before it is written or write
+     *             a texture twice
+     */
+    private void compile() {
+        targets.clear();
+
+        // the index of the last pass reading each transient texture
+        Map<String, Integer> lastRead = new HashMap<String, Integer>();
+        for (int i = 0; i < passes.size(); i++) {
+            for (String input : passes.get(i).inputs) {
+                if (!inputs.containsKey(input)) {
+                    lastRead.put(input, i);
+                }
+            }
+        }
+
+        List<RenderTarget> free = new ArrayList<RenderTarget>(pool);
+        for (int i = 0; i < passes.size(); i++) {
+            Pass pass = passes.get(i);
+            for (String input : pass.inputs) {
+                if (!inputs.containsKey(input) && !targets.containsKey(input)) {
+                    throw new IllegalArgumentException(
+                            "Post-process texture '" + input + "' is read before it is written.");
+                }
+            }
+
+            if (!SCREEN.equals(pass.output)) {
+                if (inputs.containsKey(pass.output) || targets.containsKey(pass.output)) {
+                    throw new IllegalArgumentException("Post-process texture '" + pass.output + "' is written twice.");
+                }
+                if (!lastRead.containsKey(pass.output)) {
+                    System.err.println("Post-process texture '" + pass.output + "' is never read.");
+                }
+                // the output is assigned before the inputs are released, so
+                // a pass never reads the target it writes to
+                RenderTarget target = null;
+                for (int j = free.size() - 1; j >= 0; j--) {
+                    if (divisors.get(free.get(j)) == pass.divisor) {
+                        target = free.remove(j);
+                        break;
+                    }
+                }
+                if (target == null) {
+                    target = createTarget(pass.divisor);
+                }
+                targets.put(pass.output, target);
+            }
+
+            // release the textures this pass reads last
+            for (String input : pass.inputs) {
+                Integer last = lastRead.get(input);
+                if (last != null && last == i) {
+                    free.add(targets.get(input));
+                    lastRead.remove(input);
+                }
+            }
+        }
+        changed = false;
+    }
+
+    /**
+     * Adds a new render target to the pool.
+     *
+     * @param divisor
+     *            of the graph's size
+     * @return the render target
+     */
+    private RenderTarget createTarget(int divisor) {
+        RenderTarget target = new RenderTarget("post-process " + pool.size()).withColor(GL11.GL_RGBA, GL11.GL_RGBA,
+                GL14.GL_MIRRORED_REPEAT, GL11.GL_LINEAR);
+        target.allocate(Math.max(width / divisor, 1), Math.max(height / divisor, 1));
+        pool.add(target);
+        divisors.put(target, divisor);
+        return target;
+    }
+
+    // ===========================================================================
+    // Execution
+    // ===========================================================================
+
+    /**
+     * Runs all passes (one full-screen draw each) and compiles the graph
+     * before, if the passes changed.
+     */
+    public void execute() {
+        if (changed) {
+            compile();
+        }
+        GLStateCache state = GLStateCache.getInstance();
+        state.enable(GL11.GL_BLEND);
+        state.disable(GL11.GL_DEPTH_TEST);
+
+        for (Pass pass : passes) {
+            if (SCREEN.equals(pass.output)) {
+                state.bindFramebuffer(0);
+                state.viewport(Window.width, Window.height);
+            } else {
+                RenderTarget target = targets.get(pass.output);
+                target.bind();
+                if (pass.scaled) {
+                    state.viewport(Math.max(Math.round(width * renderScale), 1),
+                            Math.max(Math.round(height * renderScale), 1));
+                }
+            }
+            pass.shader.use();
+            for (int unit = 0; unit < pass.inputs.length; unit++) {
+                state.bindTexture(unit, getTexture(pass.inputs[unit]));
+            }
+            if (pass.setup != null) {
+                pass.setup.accept(pass.shader);
+            }
+            pass.shader.render();
+        }
+    }
+
+    /**
+     * @param name
+     *            of a registered input or a transient texture
+     * @return textureID (0 if unknown or the graph is not compiled yet)
+     */
+    public int getTexture(String name) {
+        Integer input = inputs.get(name);
+        if (input != null) {
+            return input;
+        }
+        RenderTarget target = targets.get(name);
+        return target == null ? 0 : target.getColor(0);
+    }
+
+    /**
+     * Sets the size of the {@link #addScaledPass scaled passes} relative to
+     * the targets.
+     *
+     * @param scale
+     *            (0, 1]
+     */
+    public void setRenderScale(float scale) {
+        renderScale = scale;
+    }
+
+    /**
+     * @return how many render targets the transient textures share
+     */
+    public int getPoolSize() {
+        return pool.size();
+    }
+
+    // ===========================================================================
+    // Context Management
+    // ===========================================================================
+
+    /**
+     * Reallocates the render targets of the pool in the given size.
+     *
+     * @param width
+     * @param height
+     */
+    public void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        for (RenderTarget target : pool) {
+            int divisor = divisors.get(target);
+            target.allocate(Math.max(width / divisor, 1), Math.max(height / divisor, 1));
+        }
+    }
+
+    /**
+     * Deletes the render targets of the pool.
+     */
+    public void delete() {
+        for (RenderTarget target : pool) {
+            target.delete();
+        }
+        pool.clear();
+        divisors.clear();
+        targets.clear();
+        changed = true;
+    }
+
+    /**
+     * A full-screen pass: shader, read textures and written texture.
+     */
+    private static class Pass {
+        final ScreenShaderProgram shader;
+        final Consumer<ScreenShaderProgram> setup;
+        final String output;
+        final String[] inputs;
+        final boolean scaled;
+        final int divisor;
+
+        Pass(ScreenShaderProgram shader, Consumer<ScreenShaderProgram> setup, String output, String[] inputs,
+                boolean scaled, int divisor) {
+            this.shader = shader;
+            this.setup = setup;
+            this.output = output;
+            this.inputs = inputs;
+            this.scaled = scaled;
+            this.divisor = divisor;
+        }
+    }
+}
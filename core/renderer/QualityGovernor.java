@@ -0,0 +1,181 @@
+package core.renderer;
+
+import java.util.Arrays;
+
+import core.window.Window;
+
+/**
+ * Steps a ladder of quality {@link Tier tiers} down when the frames take too
+ * long and up again when there is time left.</br>
+ * The user's settings ({@link Window#reflect}, {@link Window#fxaa}, ...) are
+ * not changed: a feature is used if it is enabled and the current tier allows
+ * it. The governor decides on a high percentile of the last frame times (a
+ * few slow frames count, a single one does not) and waits after each step,
+ * stepping up needs a lower frame time than stepping down (hysteresis), so the
+ * tiers don't flicker.
+ */
+public class QualityGovernor {
+
+    private static final QualityGovernor instance = new QualityGovernor();
+
+    /** how many frame times are kept */
+    private static final int HISTORY = 120;
+    /** the percentile of the frame times that is compared to the budget */
+    private static final float PERCENTILE = 0.95f;
+    /** frames between two decisions */
+    private static final int INTERVAL = 30;
+    /** frames to wait after a step (the new tier is measured first) */
+    private static final int COOLDOWN = HISTORY;
+    /** step down above this part of the budget */
+    private static final float DOWN_THRESHOLD = 1.1f;
+    /** step up below this part of the budget */
+    private static final float UP_THRESHOLD = 0.7f;
+
+    /** the frame time budget in seconds */
+    private float budget;
+    private Tier tier;
+
+    /** the last frame times (ring) and a copy for sorting */
+    private final float[] times, sorted;
+    private int timeCount, timeIndex;
+    /** frames until the next decision */
+    private int wait;
+
+    private QualityGovernor() {
+        times = new float[HISTORY];
+        sorted = new float[HISTORY];
+        budget = 1 / 60f;
+        tier = Tier.HIGH;
+    }
+
+    public static QualityGovernor getInstance() {
+        return instance;
+    }
+
+    /**
+     * Adds the time of the last frame and steps the tier if necessary.
+     *
+     * @param frameTime
+     *            in seconds (the work of the frame, without waiting for the
+     *            swap interval)
+     * @param allowDown
+     *            whether the tier may step down (e.g. false while a lower
+     *            render scale can still absorb the load)
+     * @param allowUp
+     *            whether the tier may step up (e.g. false while the render
+     *            scale is still reduced)
+     */
+    public void update(float frameTime, boolean allowDown, boolean allowUp) {
+        if (frameTime <= 0) {
+            return;
+        }
+        times[timeIndex] = frameTime;
+        timeIndex = (timeIndex + 1) % HISTORY;
+        timeCount = Math.min(timeCount + 1, HISTORY);
+        if (--wait > 0 || timeCount < INTERVAL) {
+            return;
+        }
+        wait = INTERVAL;
+
+        float percentile = getPercentile();
+        if (allowDown && percentile > budget * DOWN_THRESHOLD && tier.ordinal() < Tier.values().length - 1) {
+            setTier(Tier.values()[tier.ordinal() + 1]);
+        } else if (allowUp && percentile < budget * UP_THRESHOLD && tier.ordinal() > 0) {
+            setTier(Tier.values()[tier.ordinal() - 1]);
+        }
+    }
+
+    /**
+     * @return the {@link #PERCENTILE} of the kept frame times
+     */
+    private float getPercentile() {
+        System.arraycopy(times, 0, sorted, 0, timeCount);
+        Arrays.sort(sorted, 0, timeCount);
+        return sorted[Math.min((int) (timeCount * PERCENTILE), timeCount - 1)];
+    }
+
+    /**
+     * Sets the tier and forgets the frame times measured in the old one.
+     *
+     * @param tier
+     */
+    public void setTier(Tier tier) {
+        this.tier = tier;
+        timeCount = 0;
+        wait = COOLDOWN;
+    }
+
+    public Tier getTier() {
+        return tier;
+    }
+
+    /**
+     * @param budget
+     *            frame time in seconds (e.g. 1 / 60f)
+     */
+    public void setBudget(float budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("The frame time budget has to be positive.");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * @return whether the reflection is rendered (enabled and allowed)
+     */
+    public boolean useReflection() {
+        return Window.reflect && tier.reflection;
+    }
+
+    /**
+     * @return whether FXAA is applied (enabled and allowed)
+     */
+    public boolean useFxaa() {
+        return Window.fxaa && tier.fxaa;
+    }
+
+    /**
+     * @param strength
+     *            the sharpen setting (0 = off)
+     * @return whether the result is sharpened (enabled and allowed)
+     */
+    public boolean useSharpen(float strength) {
+        return strength > 0 && tier.sharpen;
+    }
+
+    /**
+     * @param enabled
+     *            whether bloom is enabled
+     * @return whether bloom is applied (enabled and allowed)
+     */
+    public boolean useBloom(boolean enabled) {
+        return enabled && tier.bloom;
+    }
+
+    /**
+     * The quality ladder from the highest tier down, each step switches off
+     * one more feature (the expensive ones with the least visible loss
+     * first).
+     */
+    public enum Tier {
+        /** everything the user enabled */
+        HIGH(true, true, true, true),
+        /** without bloom */
+        NO_BLOOM(true, true, true, false),
+        /** without bloom and sharpening */
+        NO_SHARPEN(true, true, false, false),
+        /** without bloom, sharpening and FXAA */
+        NO_FXAA(true, false, false, false),
+        /** without any of them (the reflection doubles the geometry) */
+        LOW(false, false, false, false);
+
+        final boolean reflection, fxaa, sharpen, bloom;
+
+        private Tier(boolean reflection, boolean fxaa, boolean sharpen, boolean bloom) {
+            this.reflection = reflection;
+            this.fxaa = fxaa;
+            this.sharpen = sharpen;
+            this.bloom = bloom;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package core.renderer;
+
+/**
+ * A flat queue of draws ({@link InstanceBatch InstanceBatches}), each with a
+ * packed 64-bit sort key. The keys are sorted with a radix sort, so that the
+ * draws are executed in the order of the least state changes.</br>
+ * </br>
+ * Key layout (most significant bits first):
+ *
+ * <pre>
+ * opaque:  | pass (2) | program (12) | texture set (16) | vao (16) | depth (16)          |
+ * blended: | pass (2) | inverted depth (16) | program (12) | texture set (16) | vao (16) |
+ * </pre>
+ *
+ * Opaque draws are grouped by state and rendered front to back within a group,
+ * blended draws are rendered back to front.
+ */
+public class RenderQueue {
+
+    /** pass of opaque draws (rendered first) */
+    public static final int PASS_OPAQUE = 0;
+    /** pass of blended draws (rendered after all opaque draws) */
+    public static final int PASS_BLENDED = 1;
+    /** the maximum depth bucket */
+    public static final int MAX_DEPTH = 0xFFFF;
+
+    /** the radix sort uses 8-bit digits */
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    /** the draws in the order they were added */
+    private InstanceBatch[] items;
+    /** the keys of the draws in the order they were added */
+    private long[] keys;
+    /** indices of the draws in sorted order */
+    private int[] order;
+
+    private long[] sortKeys;
+    private long[] sortKeysBuffer;
+    private int[] orderBuffer;
+    private final int[] counts;
+
+    private int size;
+
+    /**
+     * Creates an empty queue.
+     */
+    public RenderQueue() {
+        this.items = new InstanceBatch[64];
+        this.keys = new long[64];
+        this.order = new int[64];
+        this.sortKeys = new long[64];
+        this.sortKeysBuffer = new long[64];
+        this.orderBuffer = new int[64];
+        this.counts = new int[RADIX];
+        this.size = 0;
+    }
+
+    /**
+     * Removes all draws from the queue.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            items[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Adds a draw to the queue (with the key 0).
+     *
+     * @param item
+     *            the batch to draw
+     */
+    public void add(InstanceBatch item) {
+        if (size == items.length) {
+            int capacity = size * 2;
+            InstanceBatch[] newItems = new InstanceBatch[capacity];
+            System.arraycopy(items, 0, newItems, 0, size);
+            items = newItems;
+            long[] newKeys = new long[capacity];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            keys = newKeys;
+            int[] newOrder = new int[capacity];
+            System.arraycopy(order, 0, newOrder, 0, size);
+            order = newOrder;
+            sortKeys = new long[capacity];
+            sortKeysBuffer = new long[capacity];
+            orderBuffer = new int[capacity];
+        }
+        items[size] = item;
+        keys[size] = 0;
+        order[size] = size;
+        size++;
+    }
+
+    /**
+     * Sets the key of the draw at the given index (in the order the draws were
+     * added).
+     *
+     * @param index
+     * @param key
+     *            built with {@link #opaqueKey(int, int, int, int)} or
+     *            {@link #blendedKey(int, int, int, int)}
+     */
+    public void setKey(int index, long key) {
+        keys[index] = key;
+    }
+
+    /**
+     * Sorts the draws by their keys (stable LSD radix sort, digits which are
+     * the same in all keys are skipped).
+     */
+    public void sort() {
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            sortKeys[i] = keys[i];
+        }
+
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            for (int i = 0; i < RADIX; i++) {
+                counts[i] = 0;
+            }
+            for (int i = 0; i < size; i++) {
+                counts[(int) (sortKeys[i] >>> shift) & (RADIX - 1)]++;
+            }
+            // all keys share this digit
+            if (size == 0 || counts[(int) (sortKeys[0] >>> shift) & (RADIX - 1)] == size) {
+                continue;
+            }
+            int sum = 0;
+            for (int i = 0; i < RADIX; i++) {
+                int count = counts[i];
+                counts[i] = sum;
+                sum += count;
+            }
+            for (int i = 0; i < size; i++) {
+                int digit = (int) (sortKeys[i] >>> shift) & (RADIX - 1);
+                int target = counts[digit]++;
+                sortKeysBuffer[target] = sortKeys[i];
+                orderBuffer[target] = order[i];
+            }
+            long[] swapKeys = sortKeys;
+            sortKeys = sortKeysBuffer;
+            sortKeysBuffer = swapKeys;
+            int[] swapOrder = order;
+            order = orderBuffer;
+            orderBuffer = swapOrder;
+        }
+    }
+
+    /**
+     * @return how many draws the queue holds
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index
+     * @return the draw at the given index in sorted order (valid after
+     *         {@link #sort()})
+     */
+    public InstanceBatch get(int index) {
+        return items[order[index]];
+    }
+
+    /**
+     * @param index
+     * @return the key of the draw at the given index in sorted order (valid
+     *         after {@link #sort()})
+     */
+    public long getKey(int index) {
+        return keys[order[index]];
+    }
+
+    /**
+     * @param index
+     * @return the draw at the given index in the order they were added
+     */
+    public InstanceBatch getItem(int index) {
+        return items[index];
+    }
+
+    /**
+     * @param key
+     * @return the pass encoded in the key
+     */
+    public static int getPass(long key) {
+        return (int) (key >>> 62);
+    }
+
+    /**
+     * Builds the key of an opaque draw.
+     *
+     * @param program
+     *            programID of the shader
+     * @param textureSet
+     *            id of the set of textures
+     * @param vao
+     * @param depth
+     *            depth bucket (0 = nearest, {@link #MAX_DEPTH} = farthest)
+     * @return key
+     */
+    public static long opaqueKey(int program, int textureSet, int vao, int depth) {
+        return ((long) PASS_OPAQUE << 62) | ((long) (program & 0xFFF) << 48) | ((long) (textureSet & 0xFFFF) << 32)
+                | ((long) (vao & 0xFFFF) << 16) | (depth & MAX_DEPTH);
+    }
+
+    /**
+     * Builds the key of a blended draw (farther draws come first).
+     *
+     * @param program
+     *            programID of the shader
+     * @param textureSet
+     *            id of the set of textures
+     * @param vao
+     * @param depth
+     *            depth bucket (0 = nearest, {@link #MAX_DEPTH} = farthest)
+     * @return key
+     */
+    public static long blendedKey(int program, int textureSet, int vao, int depth) {
+        return ((long) PASS_BLENDED << 62) | ((long) (MAX_DEPTH - (depth & MAX_DEPTH)) << 44)
+                | ((long) (program & 0xFFF) << 32) | ((long) (textureSet & 0xFFFF) << 16) | (vao & 0xFFFF);
+    }
+}
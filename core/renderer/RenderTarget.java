@@ -0,0 +1,467 @@
+package core.renderer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * A framebuffer with its attachments. The attachments are described once
+ * ({@link #withColor(int, int)}, {@link #withDepthStencil()}, ...) and
+ * (re)allocated with {@link #allocate(int, int)}, so that a resolution change
+ * only reallocates the storage of the attachments.</br>
+ * The IDs of the framebuffer and of its textures stay the same when
+ * reallocating. A smaller part of the target can be rendered to with
+ * {@link #setViewport(int, int)} without reallocating.</br>
+ * A multisampled target ({@link #withSamples(int)}) has renderbuffers instead
+ * of textures and is {@link #resolve(RenderTarget, boolean) resolved} into a
+ * target with textures before sampling.
+ */
+public class RenderTarget {
+
+    /** name used in error messages */
+    private final String name;
+    /** the framebuffer (0 until the first allocation) */
+    private int framebuffer;
+
+    /** the color attachments (textures) in attachment order */
+    private final List<ColorAttachment> colors;
+    /** the draw buffers of all color attachments (built on creation) */
+    private int[] drawBuffers;
+    /** whether the target has its own depth and stencil buffer */
+    private boolean depthStencil;
+    /** whether the own depth and stencil buffer is a texture (sampleable) */
+    private boolean depthStencilTexture;
+    /** the target whose depth and stencil buffer is shared */
+    private RenderTarget depthStencilSource;
+    /** the depth and stencil renderbuffer or texture (own or shared) */
+    private int depthAndStencil;
+    /** samples per pixel (0 = not multisampled) */
+    private int samples;
+
+    private int width, height;
+    /** the part of the target (lower left corner) that is rendered to */
+    private int viewportWidth, viewportHeight;
+
+    /**
+     * Describes a new render target without attachments (nothing is allocated
+     * until {@link #allocate(int, int)}).
+     *
+     * @param name
+     *            used in error messages
+     */
+    public RenderTarget(String name) {
+        this.name = name;
+        this.colors = new ArrayList<ColorAttachment>();
+        this.framebuffer = 0;
+        this.width = 0;
+        this.height = 0;
+    }
+
+    // ===========================================================================
+    // Description
+    // ===========================================================================
+
+    /**
+     * Adds a color texture (nearest filtering, repeated) as the next color
+     * attachment.
+     *
+     * @param internalFormat
+     *            e.g. GL11.GL_RGBA
+     * @param format
+     *            e.g. GL11.GL_RGBA
+     * @return this render target
+     */
+    public RenderTarget withColor(int internalFormat, int format) {
+        return withColor(internalFormat, format, GL11.GL_REPEAT);
+    }
+
+    /**
+     * Adds a color texture (nearest filtering) as the next color attachment.
+     *
+     * @param internalFormat
+     *            e.g. GL11.GL_RGBA
+     * @param format
+     *            e.g. GL11.GL_RGBA
+     * @param wrap
+     *            texture wrap mode (e.g. GL14.GL_MIRRORED_REPEAT)
+     * @return this render target
+     */
+    public RenderTarget withColor(int internalFormat, int format, int wrap) {
+        return withColor(internalFormat, format, wrap, GL11.GL_NEAREST);
+    }
+
+    /**
+     * Adds a color texture as the next color attachment.
+     *
+     * @param internalFormat
+     *            e.g. GL11.GL_RGBA
+     * @param format
+     *            e.g. GL11.GL_RGBA
+     * @param wrap
+     *            texture wrap mode (e.g. GL14.GL_MIRRORED_REPEAT)
+     * @param filter
+     *            minification and magnification filter (e.g. GL11.GL_LINEAR
+     *            for a target sampled in a different size)
+     * @return this render target
+     */
+    public RenderTarget withColor(int internalFormat, int format, int wrap, int filter) {
+        colors.add(new ColorAttachment(internalFormat, format, wrap, filter));
+        return this;
+    }
+
+    /**
+     * Adds an own depth and stencil renderbuffer.
+     *
+     * @return this render target
+     */
+    public RenderTarget withDepthStencil() {
+        this.depthStencil = true;
+        this.depthStencilTexture = false;
+        this.depthStencilSource = null;
+        return this;
+    }
+
+    /**
+     * Adds an own depth and stencil texture, which can be sampled (depth) after
+     * rendering (see {@link #getDepthStencil()}).
+     *
+     * @return this render target
+     */
+    public RenderTarget withDepthStencilTexture() {
+        withDepthStencil();
+        this.depthStencilTexture = true;
+        return this;
+    }
+
+    /**
+     * Makes all attachments multisampled renderbuffers (also an own depth and
+     * stencil "texture").
+     *
+     * @param samples
+     *            per pixel (0 or 1 = not multisampled)
+     * @return this render target
+     */
+    public RenderTarget withSamples(int samples) {
+        this.samples = samples > 1 ? samples : 0;
+        return this;
+    }
+
+    /**
+     * Shares the depth and stencil buffer of the given target (which has to
+     * be allocated before this one).
+     *
+     * @param source
+     * @return this render target
+     */
+    public RenderTarget withDepthStencilOf(RenderTarget source) {
+        this.depthStencil = false;
+        this.depthStencilSource = source;
+        return this;
+    }
+
+    // ===========================================================================
+    // Allocation
+    // ===========================================================================
+
+    /**
+     * Allocates the storage of all attachments in the given size. Creates the
+     * OpenGL objects on the first call and keeps them on the following calls.
+     * Does nothing if the size did not change.
+     *
+     * @param width
+     * @param height
+     */
+    public void allocate(int width, int height) {
+        if (framebuffer != 0 && this.width == width && this.height == height) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        this.viewportWidth = width;
+        this.viewportHeight = height;
+        GLStateCache state = GLStateCache.getInstance();
+        boolean create = framebuffer == 0;
+        if (create) {
+            framebuffer = GL30.glGenFramebuffers();
+        }
+
+        // (re)allocate the color textures (or multisampled renderbuffers)
+        for (ColorAttachment color : colors) {
+            if (samples > 0) {
+                if (create) {
+                    color.texture = GL30.glGenRenderbuffers();
+                }
+                GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, color.texture);
+                GL30.glRenderbufferStorageMultisample(GL30.GL_RENDERBUFFER, samples, color.internalFormat, width,
+                        height);
+                GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, 0);
+                continue;
+            }
+            if (create) {
+                color.texture = GL11.glGenTextures();
+            }
+            state.bindTexture(color.texture);
+            GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, color.internalFormat, width, height, 0, color.format,
+                    GL11.GL_UNSIGNED_BYTE, 0);
+            if (create) {
+                GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, color.filter);
+                GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, color.filter);
+                GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, color.wrap);
+                GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, color.wrap);
+            }
+        }
+        state.bindTexture(0);
+
+        // (re)allocate the own depth and stencil buffer
+        if (depthStencil && samples > 0) {
+            if (create) {
+                depthAndStencil = GL30.glGenRenderbuffers();
+            }
+            GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, depthAndStencil);
+            GL30.glRenderbufferStorageMultisample(GL30.GL_RENDERBUFFER, samples, GL30.GL_DEPTH24_STENCIL8, width,
+                    height);
+            GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, 0);
+        } else if (depthStencil && depthStencilTexture) {
+            if (create) {
+                depthAndStencil = GL11.glGenTextures();
+            }
+            state.bindTexture(depthAndStencil);
+            GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL30.GL_DEPTH24_STENCIL8, width, height, 0,
+                    GL30.GL_DEPTH_STENCIL, GL30.GL_UNSIGNED_INT_24_8, 0);
+            if (create) {
+                GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+                GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+                GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+                GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+            }
+            state.bindTexture(0);
+        } else if (depthStencil) {
+            if (create) {
+                depthAndStencil = GL30.glGenRenderbuffers();
+            }
+            GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, depthAndStencil);
+            GL30.glRenderbufferStorage(GL30.GL_RENDERBUFFER, GL30.GL_DEPTH24_STENCIL8, width, height);
+            GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, 0);
+        } else if (depthStencilSource != null) {
+            depthAndStencil = depthStencilSource.depthAndStencil;
+        }
+
+        // the attachments keep their IDs, so they only have to be attached once
+        if (create) {
+            int previous = state.getFramebuffer();
+            state.bindFramebuffer(framebuffer);
+            drawBuffers = new int[colors.size()];
+            for (int i = 0; i < colors.size(); i++) {
+                if (samples > 0) {
+                    GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0 + i,
+                            GL30.GL_RENDERBUFFER, colors.get(i).texture);
+                } else {
+                    GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0 + i,
+                            GL11.GL_TEXTURE_2D, colors.get(i).texture, 0);
+                }
+                drawBuffers[i] = GL30.GL_COLOR_ATTACHMENT0 + i;
+            }
+            if (depthAndStencil != 0 && isDepthStencilTexture()) {
+                GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_STENCIL_ATTACHMENT,
+                        GL11.GL_TEXTURE_2D, depthAndStencil, 0);
+            } else if (depthAndStencil != 0) {
+                GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_STENCIL_ATTACHMENT,
+                        GL30.GL_RENDERBUFFER, depthAndStencil);
+            }
+            GL20.glDrawBuffers(drawBuffers);
+            // check the buffer for completeness
+            if (GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER) != GL30.GL_FRAMEBUFFER_COMPLETE) {
+                System.err.println(name + " framebuffer incomplete!");
+            }
+            state.bindFramebuffer(previous);
+        }
+    }
+
+    /**
+     * @return whether the (own or shared) depth and stencil buffer is a
+     *         texture
+     */
+    private boolean isDepthStencilTexture() {
+        if (depthStencilSource != null) {
+            return depthStencilSource.isDepthStencilTexture();
+        }
+        return depthStencilTexture && samples == 0;
+    }
+
+    /**
+     * Deletes the framebuffer, its textures and its own depth and stencil
+     * buffer.
+     */
+    public void delete() {
+        if (framebuffer == 0) {
+            return;
+        }
+        GLStateCache state = GLStateCache.getInstance();
+        for (ColorAttachment color : colors) {
+            if (samples > 0) {
+                GL30.glDeleteRenderbuffers(color.texture);
+            } else {
+                GL11.glDeleteTextures(color.texture);
+                state.textureDeleted(color.texture);
+            }
+            color.texture = 0;
+        }
+        if (depthStencil && isDepthStencilTexture()) {
+            GL11.glDeleteTextures(depthAndStencil);
+            state.textureDeleted(depthAndStencil);
+        } else if (depthStencil) {
+            GL30.glDeleteRenderbuffers(depthAndStencil);
+        }
+        depthAndStencil = 0;
+        GL30.glDeleteFramebuffers(framebuffer);
+        state.framebufferDeleted(framebuffer);
+        framebuffer = 0;
+    }
+
+    // ===========================================================================
+    // Usage
+    // ===========================================================================
+
+    /**
+     * Binds the framebuffer and sets the viewport (through the
+     * {@link GLStateCache}).
+     */
+    public void bind() {
+        GLStateCache state = GLStateCache.getInstance();
+        state.bindFramebuffer(framebuffer);
+        state.viewport(viewportWidth, viewportHeight);
+    }
+
+    /**
+     * Sets the part of the target (from the lower left corner) that is
+     * rendered to after {@link #bind()}, e.g. to render in a lower resolution
+     * without reallocating. Reset to the full size by
+     * {@link #allocate(int, int)}.
+     *
+     * @param width
+     *            (clamped to the allocated width)
+     * @param height
+     *            (clamped to the allocated height)
+     */
+    public void setViewport(int width, int height) {
+        viewportWidth = Math.max(Math.min(width, this.width), 1);
+        viewportHeight = Math.max(Math.min(height, this.height), 1);
+    }
+
+    /**
+     * Copies (and averages the samples of) the viewport's part of the color
+     * attachments into the same part of the destination's attachments with
+     * the same index, and the depth and stencil buffer if wanted. Keeps the
+     * framebuffer binding of the {@link GLStateCache}.
+     *
+     * @param destination
+     *            a target of the same size
+     * @param depth
+     *            whether the depth and stencil buffer is copied
+     */
+    public void resolve(RenderTarget destination, boolean depth) {
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, framebuffer);
+        GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, destination.framebuffer);
+        int count = Math.min(colors.size(), destination.colors.size());
+        for (int i = 0; i < count; i++) {
+            GL11.glReadBuffer(GL30.GL_COLOR_ATTACHMENT0 + i);
+            GL11.glDrawBuffer(GL30.GL_COLOR_ATTACHMENT0 + i);
+            int mask = GL11.GL_COLOR_BUFFER_BIT;
+            if (depth && i == 0) {
+                mask |= GL11.GL_DEPTH_BUFFER_BIT | GL11.GL_STENCIL_BUFFER_BIT;
+            }
+            GL30.glBlitFramebuffer(0, 0, viewportWidth, viewportHeight, 0, 0, viewportWidth, viewportHeight, mask,
+                    GL11.GL_NEAREST);
+        }
+        // restore the draw buffers of the destination and the cached binding
+        GL20.glDrawBuffers(destination.drawBuffers);
+        GL11.glReadBuffer(GL30.GL_COLOR_ATTACHMENT0);
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, GLStateCache.getInstance().getFramebuffer());
+    }
+
+    /**
+     * Copies the viewport's part of the first color attachment to the default
+     * framebuffer, scaled (linearly filtered) to the given size. Keeps the
+     * framebuffer binding of the {@link GLStateCache}.
+     *
+     * @param width
+     *            of the default framebuffer
+     * @param height
+     *            of the default framebuffer
+     */
+    public void blitToScreen(int width, int height) {
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, framebuffer);
+        GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, 0);
+        GL11.glReadBuffer(GL30.GL_COLOR_ATTACHMENT0);
+        GL30.glBlitFramebuffer(0, 0, viewportWidth, viewportHeight, 0, 0, width, height, GL11.GL_COLOR_BUFFER_BIT,
+                GL11.GL_LINEAR);
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, GLStateCache.getInstance().getFramebuffer());
+    }
+
+    /**
+     * @param index
+     *            of the color attachment
+     * @return textureID of the color attachment (renderbuffer if
+     *         multisampled)
+     */
+    public int getColor(int index) {
+        return colors.get(index).texture;
+    }
+
+    /**
+     * @return textureID of the depth and stencil texture (if created with
+     *         {@link #withDepthStencilTexture()}, or shared from such a target)
+     */
+    public int getDepthStencil() {
+        return depthAndStencil;
+    }
+
+    public int getFramebuffer() {
+        return framebuffer;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return samples per pixel (0 = not multisampled)
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    public int getViewportWidth() {
+        return viewportWidth;
+    }
+
+    public int getViewportHeight() {
+        return viewportHeight;
+    }
+
+    /**
+     * Description and texture of a color attachment.
+     */
+    private static class ColorAttachment {
+        final int internalFormat;
+        final int format;
+        final int wrap;
+        final int filter;
+        int texture;
+
+        ColorAttachment(int internalFormat, int format, int wrap, int filter) {
+            this.internalFormat = internalFormat;
+            this.format = format;
+            this.wrap = wrap;
+            this.filter = filter;
+        }
+    }
+}
@@ -1,28 +1,25 @@
 package core.renderer;
 
-import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL14;
-import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
-import org.lwjgl.system.MemoryUtil;
 
+import core.math.Frustum;
 import core.math.Vector2f;
 import core.math.Vector3f;
 import core.model.Model;
+import core.objects.Camera;
 import core.shader.ScreenShaderProgram;
 import core.shader.ShaderProgram;
 import core.texture.Texture;
-import core.window.Timer;
 import core.window.Window;
-import utilities.SettingsManager;
+import utilities.Console;
 
 /**
  * @author Adrian Schuhmaier
@@ -31,181 +28,202 @@ public class SortedRenderer {
 
     public final Vector3f backColor = new Vector3f(1, 1, 0);
 
+    /** distance mapped to the farthest depth bucket when sorting */
+    private static final float MAX_SORT_DISTANCE = 128f;
+    /** the lowest resolution of the 3D passes (relative to the window) */
+    public static final float MIN_RENDER_SCALE = 0.25f;
+    /** the batches rendered by {@link #renderQueue(int)} */
+    private static final int STATIC_LAYER = 1, DYNAMIC_LAYER = 2, ALL_LAYERS = 3;
+
+    /** The registered models with the shader they are rendered with */
+    protected Map<ShaderProgram, List<Model>> renderModels;
     /**
      * Data structure for faster rendering:</br>
-     * Switching ShaderPrograms takes the longest.</br>
-     * Switching Textures is still slow.</br>
-     * Switching models (setting uniforms) is fast.
+     * The models of {@link #renderModels} grouped into
+     * {@link InstanceBatch InstanceBatches}, each with a sort key, so that
+     * switching ShaderPrograms (slowest), textures and VAOs happens as rarely as
+     * possible. Rebuilt before rendering, if {@link #renderQueueChanged}.
      */
-    protected Map<ShaderProgram, Map<Texture, List<Model>>> renderModels;
+    protected RenderQueue renderQueue;
+    /** if the models were changed since the last queue update */
+    protected boolean renderQueueChanged;
+    /** if models are rendered instanced */
+    protected boolean instancing;
+    /** holds the per-instance data of all batches (written once per frame) */
+    protected StreamBuffer instanceStream;
+    /** The camera used to cull the models and to sort them by depth */
+    protected Camera camera;
+    /** The frustum of the camera in the current pass */
+    protected Frustum frustum;
+    /** how many models were culled in the last frame (all passes) */
+    protected int culledCount;
     protected ScreenShaderProgram screenShader;
 
     /* ===== Framebuffers ===== */
     /** The scene framebuffer */
-    protected int sceneFramebuffer;
-    /** The effects framebuffer */
-    protected int effectFramebuffer;
+    protected RenderTarget sceneTarget;
     /**
-     * The result framebuffer (used by {@link #renderResultToScreen()})
+     * The static layer: the background and the static models, copied into
+     * the scene each frame (null until first used)
      */
-    protected int resultFramebuffer;
+    protected RenderTarget staticTarget;
+    /** The effects framebuffer */
+    protected RenderTarget effectTarget;
+    /** The mirrored framebuffer */
+    protected RenderTarget mirrorTarget;
     /**
-     * An extra framebuffer to copy to (eg. when needing several post-process
-     * stages)
+     * The post-processing passes (with the inputs "scene", "mirror", "effect",
+     * "glow" and "depth")
      */
-    protected int spareFramebuffer;
-    /** The mirrored framebuffer */
-    protected int mirrorFramebuffer;
+    protected PostProcessGraph postProcessGraph;
 
-    /* ===== Textures & Renderbuffers ===== */
+    /* ===== Textures ===== */
+    // the textureIDs stay the same when the render targets are resized
     /**
-     * Color Texture of {@link #sceneFramebuffer}
+     * Color Texture of {@link #sceneTarget}
      */
     public int sceneColor;
-    /** Color Texture of {@link #effectFramebuffer} */
+    /** Color Texture of {@link #effectTarget} */
     protected int effectColor;
     /**
-     * Color Texture of {@link #resultFramebuffer}
-     */
-    protected int resultColor;
-    /**
-     * Color Texture of {@link #spareFramebuffer}
-     */
-    protected int spareColor;
-    /**
-     * Color Texture of {@link #mirrorFramebuffer}
+     * Color Texture of {@link #mirrorTarget}
      */
     protected int mirrorColor;
     /** Extra Texture containing R:fresnel, G:effectfilter, B:mirrormask */
     protected int specularAndGlow;
+    /** Depth (and stencil) Texture of {@link #sceneTarget} */
+    protected int sceneDepth;
+
+    /* ===== Dynamic Resolution ===== */
+    /** the 3D passes render to renderScale * size of their framebuffers */
+    protected float renderScale;
+    /** the size last written to the camera's "Dimensions" block */
+    private int dimensionsWidth, dimensionsHeight;
+
+    /* ===== Anti-Aliasing ===== */
+    /** the selected anti-aliasing technique */
+    protected AntiAliasing antiAliasing;
     /**
-     * Depth and Stencil Texture of {@link #sceneFramebuffer},
-     * {@link #effectFramebuffer} and {@link #resultFramebuffer}
+     * The multisampled scene and effects framebuffers (null without MSAA),
+     * they replace {@link #sceneTarget} and {@link #effectTarget} when
+     * rendering and are resolved into them before the post-processing
      */
-    protected int depthAndStencil;
+    protected RenderTarget multisampleSceneTarget, multisampleEffectTarget;
+
+    /* ===== Static Layer ===== */
+    /** whether static models are cached in the {@link #staticTarget} */
+    protected boolean staticLayer;
+    /** whether the {@link #staticTarget} holds the current static models */
+    private boolean staticLayerValid;
+    /** camera state when the static layer was rendered */
+    private CameraState staticLayerCamera;
 
     /**
-     * Depth and Stencil Texture of {@link #mirrorFramebuffer}
+     * whether frames are rendered without the mirror and the post-processing
+     * (e.g. while the window is in the background)
      */
-    protected int depthAndStencilReflection;
+    protected boolean lowPower;
+
+    /* ===== GPU Timing ===== */
+    /** measures the 3D passes (from clearing to the post-processing) */
+    private GpuTimer sceneTimer;
+    /** measures the resolve and the post-processing */
+    private GpuTimer postProcessTimer;
 
     /* ===== Mirroring ===== */
     /** Consumer to control the camera to be reflected */
     protected Consumer<Boolean> mirrorFunction;
+    /** how the reflection is rendered */
+    protected ReflectionTechnique reflectionTechnique;
+    /** height of the mirror plane (the reflection is clipped below it) */
+    protected float reflectionPlaneHeight;
+    /** the mirror is rendered in 1 / reflectionDivisor of the resolution */
+    protected int reflectionDivisor;
+    /**
+     * the mirror is rendered every reflectionInterval frames (0 = only if the
+     * camera or a model moved)
+     */
+    protected int reflectionInterval;
+    /** whether the mirror is rendered in the current frame */
+    protected boolean reflectionRefreshed;
+    /** frames since the mirror was rendered */
+    private int reflectionAge;
+    /** camera state and model matrix updates when the mirror was rendered */
+    private CameraState reflectionCamera;
+    private int reflectionMatrixUpdates;
 
     /**
      * 
      */
     public SortedRenderer() {
-        renderModels = new HashMap<ShaderProgram, Map<Texture, List<Model>>>();
+        renderModels = new LinkedHashMap<ShaderProgram, List<Model>>();
+        renderQueue = new RenderQueue();
+        renderQueueChanged = false;
+        instancing = true;
+        instanceStream = new StreamBuffer(256 * InstanceBatch.STRIDE);
+        frustum = new Frustum();
         Window.reflect = false;
+        reflectionTechnique = ReflectionTechnique.MIRROR;
+        reflectionPlaneHeight = 0;
+        reflectionDivisor = 1;
+        reflectionInterval = 1;
+        reflectionRefreshed = true;
+        reflectionCamera = new CameraState();
+        staticLayer = true;
+        staticLayerCamera = new CameraState();
+        renderScale = 1;
+        antiAliasing = Window.fxaa ? AntiAliasing.FXAA : AntiAliasing.OFF;
+        sceneTimer = new GpuTimer();
+        postProcessTimer = new GpuTimer();
         screenShader = new ScreenShaderProgram("screenShader.vert", "screenShader.frag");
-        int windowWidth = Window.width;
-        int windowHeight = Window.height;
-        int[] drawBuffers = new int[] { GL30.GL_COLOR_ATTACHMENT0, GL30.GL_COLOR_ATTACHMENT1 };
-
-        // gen framebuffers
-        sceneFramebuffer = GL30.glGenFramebuffers();
-        effectFramebuffer = GL30.glGenFramebuffers();
-        resultFramebuffer = GL30.glGenFramebuffers();
-        spareFramebuffer = GL30.glGenFramebuffers();
-        mirrorFramebuffer = GL30.glGenFramebuffers();
-        // gen textures & renderbuffers
-        sceneColor = GL11.glGenTextures();
-        effectColor = GL11.glGenTextures();
-        resultColor = GL11.glGenTextures();
-        spareColor = GL11.glGenTextures();
-        mirrorColor = GL11.glGenTextures();
-        specularAndGlow = GL11.glGenTextures();
-        depthAndStencil = GL30.glGenRenderbuffers();
-        depthAndStencilReflection = GL30.glGenRenderbuffers();
-
-        // configure textures
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, sceneColor);
-        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, windowWidth, windowHeight, 0, GL11.GL_RGBA,
-                GL11.GL_UNSIGNED_BYTE, 0);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
-
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, effectColor);
-        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, windowWidth, windowHeight, 0, GL11.GL_RGBA,
-                GL11.GL_UNSIGNED_BYTE, 0);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
-
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, resultColor);
-        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGB, windowWidth, windowHeight, 0, GL11.GL_RGB,
-                GL11.GL_UNSIGNED_BYTE, 0);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL14.GL_MIRRORED_REPEAT);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL14.GL_MIRRORED_REPEAT);
-
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, spareColor);
-        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, windowWidth, windowHeight, 0, GL11.GL_RGBA,
-                GL11.GL_UNSIGNED_BYTE, 0);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL14.GL_MIRRORED_REPEAT);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL14.GL_MIRRORED_REPEAT);
-
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, specularAndGlow);
-        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, windowWidth, windowHeight, 0, GL11.GL_RGBA,
-                GL11.GL_UNSIGNED_BYTE, 0);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
-
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-
-        // configure renderbuffer
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
-        GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, 0);
-
-        // configure framebuffers
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, sceneFramebuffer);
-        GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, sceneColor, 0);
-        GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT1, GL11.GL_TEXTURE_2D, specularAndGlow,
-                0);
-        GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, depthAndStencil);
-        GL30.glRenderbufferStorage(GL30.GL_RENDERBUFFER, GL30.GL_DEPTH24_STENCIL8, windowWidth, windowHeight);
-        GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_STENCIL_ATTACHMENT, GL30.GL_RENDERBUFFER,
-                depthAndStencil);
-        GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_STENCIL_ATTACHMENT, GL30.GL_RENDERBUFFER,
-                depthAndStencil);
-        GL20.glDrawBuffers(drawBuffers);
-        // check the buffer for completeness
-        if (!(GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER) == GL30.GL_FRAMEBUFFER_COMPLETE)) {
-            System.err.println("sceneFramebuffer incomplete!");
-        }
-
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, effectFramebuffer);
-        GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, effectColor, 0);
-        GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_STENCIL_ATTACHMENT, GL30.GL_RENDERBUFFER,
-                depthAndStencil);
-        GL20.glDrawBuffers(GL30.GL_COLOR_ATTACHMENT0);
-        // check the buffer for completeness
-        if (!(GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER) == GL30.GL_FRAMEBUFFER_COMPLETE)) {
-            System.err.println("effectFramebuffer incomplete!");
-        }
-
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, resultFramebuffer);
-        GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, resultColor, 0);
-        GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_STENCIL_ATTACHMENT, GL30.GL_RENDERBUFFER,
-                depthAndStencil);
-        // check the buffer for completeness
-        if (!(GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER) == GL30.GL_FRAMEBUFFER_COMPLETE)) {
-            System.err.println("resultFramebuffer incomplete!");
-        }
-
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, spareFramebuffer);
-        GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, spareColor, 0);
-        // check the buffer for completeness
-        if (!(GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER) == GL30.GL_FRAMEBUFFER_COMPLETE)) {
-            System.err.println("spareFramebuffer incomplete!");
-        }
-
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
-        GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, 0);
+
+        // describe the framebuffers (scene and effects share the depth and
+        // stencil buffer, which is a texture for screen-space reflections),
+        // the colors are filtered linearly to upscale a reduced render scale
+        sceneTarget = new RenderTarget("scene").withColor(GL11.GL_RGBA, GL11.GL_RGBA, GL11.GL_REPEAT, GL11.GL_LINEAR)
+                .withColor(GL11.GL_RGBA, GL11.GL_RGBA).withDepthStencilTexture();
+        effectTarget = new RenderTarget("effect").withColor(GL11.GL_RGBA, GL11.GL_RGBA, GL11.GL_REPEAT, GL11.GL_LINEAR)
+                .withDepthStencilOf(sceneTarget);
+        // filtered linearly, so a smaller mirror is upsampled bilinearly
+        mirrorTarget = new RenderTarget("mirror").withColor(GL11.GL_RGBA, GL11.GL_RGBA, GL11.GL_REPEAT, GL11.GL_LINEAR)
+                .withDepthStencil();
+        postProcessGraph = new PostProcessGraph(Window.width, Window.height);
+        resize(Window.width, Window.height);
+
+        sceneColor = sceneTarget.getColor(0);
+        specularAndGlow = sceneTarget.getColor(1);
+        sceneDepth = sceneTarget.getDepthStencil();
+        effectColor = effectTarget.getColor(0);
+        mirrorColor = mirrorTarget.getColor(0);
+        postProcessGraph.addInput("scene", sceneColor).addInput("mirror", mirrorColor)
+                .addInput("effect", effectColor).addInput("glow", specularAndGlow).addInput("depth", sceneDepth);
+    }
+
+    /**
+     * Reallocates all framebuffers in the given size (the OpenGL context,
+     * shaders and loaded models are kept).
+     * 
+     * @param width
+     * @param height
+     */
+    public void resize(int width, int height) {
+        // the owner of the shared depth buffer comes first
+        sceneTarget.allocate(width, height);
+        effectTarget.allocate(width, height);
+        mirrorTarget.allocate(Math.max(width / reflectionDivisor, 1), Math.max(height / reflectionDivisor, 1));
+        if (multisampleSceneTarget != null) {
+            multisampleSceneTarget.allocate(width, height);
+            multisampleEffectTarget.allocate(width, height);
+        }
+        if (staticTarget != null) {
+            staticTarget.allocate(width, height);
+        }
+        postProcessGraph.resize(width, height);
+        applyRenderScale();
+        // the camera's dimensions are set to the new size by the next bind
+        dimensionsWidth = 0;
+        // the old mirror content has the wrong size
+        reflectionAge = Integer.MAX_VALUE;
     }
 
     /**
@@ -214,10 +232,10 @@ public class SortedRenderer {
     public void prepare() {
         GL11.glClearColor(backColor.x, backColor.y, backColor.z, 0.0f);
         // clear color, depth and stencil buffer
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+        GLStateCache.getInstance().bindFramebuffer(0);
         GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT | GL11.GL_STENCIL_BUFFER_BIT);
         GL11.glStencilOp(GL11.GL_KEEP, GL11.GL_KEEP, GL11.GL_REPLACE);
-        GL11.glEnable(GL11.GL_STENCIL_TEST);
+        GLStateCache.getInstance().enable(GL11.GL_STENCIL_TEST);
     }
 
     // ===========================================================================
@@ -225,69 +243,307 @@ public class SortedRenderer {
     // ===========================================================================
 
     /**
-     * Renders all Models from the {@link #renderModels internal model
-     * data-structure} with {@link #renderModels(ShaderProgram, Map)
-     * renderModels(ShaderProgram, Map)}. </br>
+     * Renders all Models from the {@link #renderQueue render queue} with
+     * {@link #renderQueue(int)}. </br>
      * If reflection is enabled, it renders to both the
      * {@link.Framebuffer#SCENE scene framebuffer} and the
      * {@link.Framebuffer#MIRROR mirror framebuffer}, using the
-     * {@link #mirrorFunction mirrorFunction} to coordinate the views
+     * {@link #mirrorFunction mirrorFunction} to coordinate the views.</br>
+     * In the scene framebuffer the {@link Model#setStatic(boolean) static}
+     * models come from the {@link #useStaticLayer(boolean) static layer}, it
+     * is only rendered again if the camera, the queue or a static model
+     * changed. Whatever is in the scene before this call (e.g. the background)
+     * is cached with it.
      */
     public void renderModels() {
         synchronized (this) {
-            for (ShaderProgram shader : renderModels.keySet()) {
-                int fbo = GL11.glGetInteger(GL30.GL_FRAMEBUFFER_BINDING);
-                renderModels(shader, renderModels.get(shader));
-                if (Window.reflect) {
-                    bindFramebuffer(Framebuffer.MIRROR);
-                    mirrorFunction.accept(true);
-                    renderModels(shader, renderModels.get(shader));
-                    mirrorFunction.accept(false);
+            if (renderQueueChanged) {
+                updateRenderQueue();
+            }
+            int instances = 0;
+            for (int i = 0; i < renderQueue.size(); i++) {
+                instances += renderQueue.getItem(i).getModels().size();
+            }
+            // each pass writes the instance data of its visible models
+            instanceStream.beginFrame(instances * InstanceBatch.STRIDE * (isReflecting() ? 2 : 1));
+            culledCount = 0;
+
+            int fbo = GLStateCache.getInstance().getFramebuffer();
+            RenderTarget scene = multisampleSceneTarget != null ? multisampleSceneTarget : sceneTarget;
+            boolean layered = staticLayer && camera != null && fbo == scene.getFramebuffer() && hasStaticBatches();
+            boolean refresh = layered && !isStaticLayerValid(scene);
+            prepareQueue(false, layered && !refresh);
+            if (layered) {
+                if (refresh) {
+                    // the layer starts with the background of the scene
+                    scene.resolve(staticTarget, true);
+                    bindTarget(staticTarget);
+                    renderQueue(STATIC_LAYER);
+                    rebind(fbo);
+                    staticLayerCamera.set(camera);
+                    staticLayerValid = true;
                 }
-                GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, fbo);
+                staticTarget.resolve(scene, true);
+                renderQueue(DYNAMIC_LAYER);
+            } else {
+                renderQueue(ALL_LAYERS);
             }
+            if (isReflecting() && reflectionRefreshed) {
+                bindFramebuffer(Framebuffer.MIRROR);
+                setReflectionPass(true);
+                // only the reflected models above the mirror plane are
+                // rendered (the reflected camera sees other models)
+                FrameUniforms.getInstance().setClipPlane(0, 1, 0, -reflectionPlaneHeight);
+                GLStateCache.getInstance().enable(GL30.GL_CLIP_DISTANCE0);
+                prepareQueue(true, false);
+                renderQueue(ALL_LAYERS);
+                GLStateCache.getInstance().disable(GL30.GL_CLIP_DISTANCE0);
+                setReflectionPass(false);
+            }
+            instanceStream.endFrame();
+            rebind(fbo);
         }
     }
 
     /**
-     * Renders the Models from the textureModelMap with the given shader.
+     * Culls the models of all batches against the current camera's frustum,
+     * writes the instance data of the visible ones and sorts the
+     * {@link #renderQueue} for the current pass.
      * 
-     * @param shader
-     *            ShaderProgram to render the models with
-     * @param textureModelMap
+     * @param reflection
+     *            whether the pass renders the reflection (only reflected
+     *            models above the mirror plane are rendered)
+     * @param cached
+     *            whether the static batches come from the static layer (they
+     *            are not uploaded)
      */
-    public void renderModels(ShaderProgram shader, Map<Texture, List<Model>> textureModelMap) {
-        synchronized (textureModelMap) {
-            shader.use();
-
-            for (Texture texture : textureModelMap.keySet()) {
+    private void prepareQueue(boolean reflection, boolean cached) {
+        Vector3f cameraPosition = null;
+        if (camera != null) {
+            cameraPosition = camera.getPosition();
+            frustum.set(camera.getViewProjectionMatrix());
+        }
+        if (reflection) {
+            frustum.clip(0, 1, 0, -reflectionPlaneHeight);
+        }
+        for (int i = 0; i < renderQueue.size(); i++) {
+            InstanceBatch batch = renderQueue.getItem(i);
+            if (reflection && !batch.isReflected()) {
+                culledCount += batch.skip();
+            } else if (cached && batch.isStatic()) {
+                batch.skip();
+            } else {
+                culledCount += batch.upload(instanceStream, frustum);
+            }
+            renderQueue.setKey(i, getSortKey(batch, cameraPosition));
+        }
+        instanceStream.flush();
+        renderQueue.sort();
+    }
 
-                List<Model> modelList = textureModelMap.get(texture);
+    /**
+     * Renders the sorted {@link #renderQueue}, each batch with one instanced
+     * draw call (or model by model, if {@link #useInstancing(boolean)
+     * instancing} is disabled).
+     * 
+     * @param layers
+     *            which batches are rendered ({@link #STATIC_LAYER},
+     *            {@link #DYNAMIC_LAYER} or {@link #ALL_LAYERS})
+     */
+    private void renderQueue(int layers) {
+        GLStateCache state = GLStateCache.getInstance();
+        state.enable(GL11.GL_DEPTH_TEST);
+        state.enable(GL11.GL_CULL_FACE);
+        state.enable(GL11.GL_BLEND);
+        state.blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+
+        ShaderProgram shader = null;
+        for (int i = 0; i < renderQueue.size(); i++) {
+            InstanceBatch batch = renderQueue.get(i);
+            if ((layers & (batch.isStatic() ? STATIC_LAYER : DYNAMIC_LAYER)) == 0) {
+                continue;
+            }
+            if (batch.getShader() != shader) {
+                shader = batch.getShader();
+                shader.use();
+            }
+            if (instancing) {
+                batch.render(shader);
+            } else {
+                batch.renderSeparately(shader);
+            }
+        }
+    }
 
-                for (Model model : modelList) {
+    /**
+     * Calculates the sort key of the batch for the current frame.
+     * 
+     * @param batch
+     * @param cameraPosition
+     *            (null if there's no camera to sort by)
+     * @return key
+     */
+    private long getSortKey(InstanceBatch batch, Vector3f cameraPosition) {
+        int depth = 0;
+        if (cameraPosition != null) {
+            float distance = batch.getNearestDistance(cameraPosition) / MAX_SORT_DISTANCE;
+            depth = (int) (Math.min(Math.max(distance, 0f), 1f) * RenderQueue.MAX_DEPTH);
+        }
+        int program = batch.getShader().getProgramID();
+        if (batch.isTransparent()) {
+            return RenderQueue.blendedKey(program, batch.getTextureSet(), batch.getVao(), depth);
+        }
+        return RenderQueue.opaqueKey(program, batch.getTextureSet(), batch.getVao(), depth);
+    }
 
-                    // prepare AND set additional uniforms
-                    model.prepare().accept(shader);
+    /**
+     * Switches between rendering the scene and rendering its reflection (the
+     * {@link #mirrorFunction} changes the view, the "Frame" uniform block tells
+     * the shaders).
+     * 
+     * @param reflection
+     *            whether the following draws render the reflection
+     */
+    private void setReflectionPass(boolean reflection) {
+        mirrorFunction.accept(reflection);
+        FrameUniforms.getInstance().setReflection(reflection);
+    }
 
-                    // set ModelMatrix
-                    FloatBuffer buffer = (model).getModelMatrix().getBuffer();
-                    GL20.glUniformMatrix4fv(shader.getUniformLocation("modelMatrix"), false, buffer);
-                    MemoryUtil.memFree(buffer);
+    /**
+     * Regroups the models of the {@link #renderModels registered models} into
+     * {@link InstanceBatch InstanceBatches} (models with the same shader, VAO
+     * and textures share one batch) and refills the {@link #renderQueue}.
+     */
+    private void updateRenderQueue() {
+        renderQueue.clear();
+
+        Map<List<Integer>, Integer> textureSets = new HashMap<List<Integer>, Integer>();
+        for (ShaderProgram shader : renderModels.keySet()) {
+            List<InstanceBatch> batches = new ArrayList<InstanceBatch>();
+            for (Model model : renderModels.get(shader)) {
+                InstanceBatch target = null;
+                for (InstanceBatch batch : batches) {
+                    if (batch.accepts(model)) {
+                        target = batch;
+                        break;
+                    }
+                }
+                if (target == null) {
+                    target = new InstanceBatch(shader, model);
+                    batches.add(target);
 
-                    if (GL11.glGetInteger(GL30.GL_FRAMEBUFFER_BINDING) == mirrorFramebuffer) {
-                        GL20.glUniform1i(shader.getUniformLocation("isReflection"), 1);
-                    } else {
-                        GL20.glUniform1i(shader.getUniformLocation("isReflection"), 0);
+                    List<Integer> textureIDs = new ArrayList<Integer>();
+                    for (Texture texture : model.getTextures()) {
+                        textureIDs.add(texture.getTextureID());
+                    }
+                    Integer textureSet = textureSets.get(textureIDs);
+                    if (textureSet == null) {
+                        textureSet = textureSets.size();
+                        textureSets.put(textureIDs, textureSet);
                     }
+                    target.setTextureSet(textureSet);
+                    renderQueue.add(target);
+                } else {
+                    target.add(model);
+                }
+            }
+        }
+        renderQueueChanged = false;
+        staticLayerValid = false;
+    }
+
+    /**
+     * Sets the camera the models are culled and sorted by (opaque models front
+     * to back, transparent models back to front).
+     * 
+     * @param camera
+     */
+    public void setCamera(Camera camera) {
+        this.camera = camera;
+        dimensionsWidth = 0;
+        staticLayerValid = false;
+    }
 
-                    GL20.glUniform1f(shader.getUniformLocation("time"), (float) Timer.getInstance().getTime());
+    /**
+     * @return how many models were skipped by frustum culling in the last
+     *         {@link #renderModels()} call (summed over the scene and the
+     *         mirror pass)
+     */
+    public int getCulledCount() {
+        return culledCount;
+    }
 
-                    model.render();
-                }
-                if (modelList.size() > 0)
-                    modelList.get(0).cleanUp();
+    /**
+     * Specifies, whether models sharing VAO and textures are rendered with one
+     * instanced draw call.
+     * 
+     * @param use
+     */
+    public void useInstancing(boolean use) {
+        instancing = use;
+    }
+
+    /**
+     * Specifies, whether the {@link Model#setStatic(boolean) static} models
+     * are cached in a layer that is copied into the scene each frame (only
+     * the other models are rendered every frame).
+     * 
+     * @param use
+     */
+    public void useStaticLayer(boolean use) {
+        staticLayer = use;
+        staticLayerValid = false;
+        if (!use && staticTarget != null) {
+            staticTarget.delete();
+            staticTarget = null;
+        }
+    }
+
+    /**
+     * @return whether the queue contains a batch for the static layer
+     */
+    private boolean hasStaticBatches() {
+        for (int i = 0; i < renderQueue.size(); i++) {
+            if (renderQueue.getItem(i).isStatic()) {
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * Creates the {@link #staticTarget} like the given scene target (if it
+     * does not exist yet or has a different sample count) and checks whether
+     * its content can be used: the camera has not changed and no static model
+     * was moved since it was rendered.
+     * 
+     * @param scene
+     *            the target the scene is rendered to
+     * @return whether the static layer is valid
+     */
+    private boolean isStaticLayerValid(RenderTarget scene) {
+        if (staticTarget != null && staticTarget.getSamples() != scene.getSamples()) {
+            staticTarget.delete();
+            staticTarget = null;
+        }
+        if (staticTarget == null) {
+            staticTarget = new RenderTarget("static layer").withSamples(scene.getSamples())
+                    .withColor(GL11.GL_RGBA, GL11.GL_RGBA).withColor(GL11.GL_RGBA, GL11.GL_RGBA).withDepthStencil();
+            staticTarget.allocate(scene.getWidth(), scene.getHeight());
+            staticLayerValid = false;
+        }
+        staticTarget.setViewport(scene.getViewportWidth(), scene.getViewportHeight());
+
+        if (!staticLayerValid || !staticLayerCamera.matches(camera)) {
+            return false;
+        }
+        for (int i = 0; i < renderQueue.size(); i++) {
+            InstanceBatch batch = renderQueue.getItem(i);
+            if (batch.isStatic() && batch.isChanged()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     // ===========================================================================
@@ -302,45 +558,98 @@ public class SortedRenderer {
     }
 
     /**
-     * Clears all Framebuffers of the Renderer.
+     * Clears all Framebuffers of the Renderer (the mirror framebuffer only if
+     * the reflection is rendered again in this frame). Shall be called once at
+     * the start of each frame (the GPU time of the 3D passes is measured from
+     * here to {@link #postProcess()}).
      */
     public void clearFramebuffers() {
+        sceneTimer.begin();
+        updateReflectionRefresh();
         for (Framebuffer f : Framebuffer.values()) {
+            if (f == Framebuffer.MIRROR && !reflectionRefreshed) {
+                continue;
+            }
             bindFramebuffer(f);
             clearFramebuffer();
         }
     }
 
     /**
-     * Binds the specified framebuffer.
+     * Binds the specified framebuffer, sets the viewport to the part that is
+     * rendered to (see {@link #setRenderScale(float)}) and the camera's
+     * dimensions to its size.
      * 
      * @param framebuffer
      */
     public void bindFramebuffer(Framebuffer framebuffer) {
-        int reference = 0;
-
         switch (framebuffer) {
         case SCENE:
-            reference = sceneFramebuffer;
+            bindTarget(multisampleSceneTarget != null ? multisampleSceneTarget : sceneTarget);
             break;
         case EFFECTS:
-            reference = effectFramebuffer;
-            break;
-        case RESULT:
-            reference = resultFramebuffer;
+            bindTarget(multisampleEffectTarget != null ? multisampleEffectTarget : effectTarget);
             break;
         case MIRROR:
-            reference = mirrorFramebuffer;
-            break;
-        case SPARE:
-            reference = spareFramebuffer;
+            bindTarget(mirrorTarget);
             break;
         case DEFAULT:
-            reference = 0;
+            GLStateCache.getInstance().bindFramebuffer(0);
+            GLStateCache.getInstance().viewport(Window.width, Window.height);
+            setDimensions(Window.width, Window.height);
             break;
         }
+    }
 
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, reference);
+    /**
+     * Binds the render target and sets the camera's dimensions to its
+     * viewport (the shaders compute screen coordinates with gl_FragCoord /
+     * dimensions).
+     * 
+     * @param target
+     */
+    private void bindTarget(RenderTarget target) {
+        target.bind();
+        setDimensions(target.getViewportWidth(), target.getViewportHeight());
+    }
+
+    /**
+     * Binds the framebuffer with the given ID again (e.g. after a mirror
+     * pass), with the viewport of its render target.
+     * 
+     * @param fbo
+     */
+    private void rebind(int fbo) {
+        if (fbo == sceneTarget.getFramebuffer()) {
+            bindTarget(sceneTarget);
+        } else if (fbo == effectTarget.getFramebuffer()) {
+            bindTarget(effectTarget);
+        } else if (fbo == mirrorTarget.getFramebuffer()) {
+            bindTarget(mirrorTarget);
+        } else if (multisampleSceneTarget != null && fbo == multisampleSceneTarget.getFramebuffer()) {
+            bindTarget(multisampleSceneTarget);
+        } else if (multisampleEffectTarget != null && fbo == multisampleEffectTarget.getFramebuffer()) {
+            bindTarget(multisampleEffectTarget);
+        } else {
+            GLStateCache.getInstance().bindFramebuffer(fbo);
+            GLStateCache.getInstance().viewport(Window.width, Window.height);
+            setDimensions(Window.width, Window.height);
+        }
+    }
+
+    /**
+     * Updates the camera's "Dimensions" block, if the size changed.
+     * 
+     * @param width
+     * @param height
+     */
+    private void setDimensions(int width, int height) {
+        if (camera == null || (width == dimensionsWidth && height == dimensionsHeight)) {
+            return;
+        }
+        camera.setDimensions(width, height);
+        dimensionsWidth = width;
+        dimensionsHeight = height;
     }
 
     /**
@@ -357,12 +666,8 @@ public class SortedRenderer {
             return sceneColor;
         case EFFECTS:
             return effectColor;
-        case RESULT:
-            return resultColor;
         case MIRROR:
             return mirrorColor;
-        case SPARE:
-            return spareColor;
         default:
             return 0;
         }
@@ -373,35 +678,6 @@ public class SortedRenderer {
      *            Consumer
      */
     public void enableMirrorAction(Consumer<Boolean> mirrorFunction) {
-
-        // mirrorFramebuffer = GL30.glGenFramebuffers();
-        // mirrorColor = GL11.glGenTextures();
-
-        // configure texture
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, mirrorColor);
-        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, Window.width, Window.height, 0, GL11.GL_RGBA,
-                GL11.GL_UNSIGNED_BYTE, 0);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
-        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-
-        // configure framebuffers
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, mirrorFramebuffer);
-        GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, mirrorColor, 0);
-        GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, depthAndStencilReflection);
-        GL30.glRenderbufferStorage(GL30.GL_RENDERBUFFER, GL30.GL_DEPTH24_STENCIL8, Window.width, Window.height);
-        GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_STENCIL_ATTACHMENT, GL30.GL_RENDERBUFFER,
-                depthAndStencilReflection);
-        GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_STENCIL_ATTACHMENT, GL30.GL_RENDERBUFFER,
-                depthAndStencilReflection);
-
-        // check the buffer for completeness
-        if (!(GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER) == GL30.GL_FRAMEBUFFER_COMPLETE)) {
-            System.err.println("sceneFramebuffer incomplete!");
-        }
-
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
-
         this.mirrorFunction = mirrorFunction;
         Window.reflect = true;
     }
@@ -412,11 +688,123 @@ public class SortedRenderer {
      * @param use
      */
     public void useMirror(boolean use) {
-        if (mirrorFunction == null && use) {
+        if (mirrorFunction == null && use && reflectionTechnique == ReflectionTechnique.MIRROR) {
             throw new IllegalStateException(
                     "Cannot use mirror without a mirror function. Call enableMirrorAction() before you use the mirror.");
         } else {
             Window.reflect = use;
+            reflectionAge = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return whether the reflection is rendered in this frame (enabled with
+     *         {@link #useMirror(boolean)}, allowed by the
+     *         {@link QualityGovernor} and not in {@link #setLowPower(boolean)
+     *         low power mode})
+     */
+    public boolean isReflecting() {
+        return !lowPower && QualityGovernor.getInstance().useReflection();
+    }
+
+    /**
+     * Sets how the reflection is rendered. With
+     * {@link ReflectionTechnique#SCREEN_SPACE} the mirror pass is skipped and
+     * the post-processing has to trace the reflection (from the "scene",
+     * "depth" and "glow" inputs of the {@link #getPostProcessGraph() graph}).
+     * 
+     * @param technique
+     */
+    public void setReflectionTechnique(ReflectionTechnique technique) {
+        if (technique == ReflectionTechnique.MIRROR && Window.reflect && mirrorFunction == null) {
+            throw new IllegalStateException(
+                    "Cannot use mirror without a mirror function. Call enableMirrorAction() before you use the mirror.");
+        }
+        reflectionTechnique = technique;
+        reflectionAge = Integer.MAX_VALUE;
+    }
+
+    public ReflectionTechnique getReflectionTechnique() {
+        return reflectionTechnique;
+    }
+
+    /**
+     * Sets the height of the mirror plane (the xz plane the camera is
+     * reflected over). Geometry below it is clipped in the reflection.
+     * 
+     * @param height
+     */
+    public void setReflectionPlane(float height) {
+        reflectionPlaneHeight = height;
+        reflectionAge = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Sets the resolution of the reflection (it is upsampled bilinearly when
+     * combined with the scene).
+     * 
+     * @param divisor
+     *            1 = full, 2 = half, 4 = quarter resolution
+     */
+    public void setReflectionResolution(int divisor) {
+        if (divisor < 1) {
+            throw new IllegalArgumentException("The reflection resolution divisor has to be at least 1.");
+        }
+        reflectionDivisor = divisor;
+        mirrorTarget.allocate(Math.max(Window.width / divisor, 1), Math.max(Window.height / divisor, 1));
+        applyRenderScale();
+        reflectionAge = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Sets how often the reflection is rendered, in between the last one is
+     * reused.
+     * 
+     * @param interval
+     *            1 = every frame, n = every n-th frame, 0 = only in frames
+     *            after the camera or a model has moved
+     */
+    public void setReflectionRefresh(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("The reflection refresh interval must not be negative.");
+        }
+        reflectionInterval = interval;
+        reflectionAge = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Decides whether the reflection is rendered in this frame (see
+     * {@link #setReflectionRefresh(int)}). Model motion is noticed when the
+     * models are rendered, so the reflection follows it one frame later.
+     */
+    private void updateReflectionRefresh() {
+        if (reflectionTechnique != ReflectionTechnique.MIRROR || !isReflecting()) {
+            // the mirror is not used
+            reflectionRefreshed = false;
+            reflectionAge = Integer.MAX_VALUE;
+            return;
+        }
+        boolean refresh;
+        if (reflectionAge == Integer.MAX_VALUE || reflectionInterval == 1) {
+            refresh = true;
+        } else if (reflectionInterval > 1) {
+            refresh = reflectionAge + 1 >= reflectionInterval;
+        } else {
+            refresh = Model.getMatrixUpdates() != reflectionMatrixUpdates;
+            if (camera != null) {
+                refresh |= !reflectionCamera.matches(camera);
+            }
+        }
+
+        reflectionRefreshed = refresh;
+        if (refresh) {
+            reflectionAge = 0;
+            reflectionMatrixUpdates = Model.getMatrixUpdates();
+            if (camera != null) {
+                reflectionCamera.set(camera);
+            }
+        } else {
+            reflectionAge++;
         }
     }
 
@@ -430,16 +818,16 @@ public class SortedRenderer {
      * @param shader
      */
     public void renderScreenShader(ScreenShaderProgram shader) {
-        int fbo = GL11.glGetInteger(GL30.GL_FRAMEBUFFER_BINDING);
+        int fbo = GLStateCache.getInstance().getFramebuffer();
         shader.use();
         shader.render();
-        if (Window.reflect) {
-            mirrorFunction.accept(true);
+        if (isReflecting() && reflectionRefreshed) {
+            setReflectionPass(true);
             bindFramebuffer(Framebuffer.MIRROR);
             shader.render();
-            mirrorFunction.accept(false);
+            setReflectionPass(false);
         }
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, fbo);
+        rebind(fbo);
     }
 
     /**
@@ -499,144 +887,224 @@ public class SortedRenderer {
         screenShader.renderTexture(textureID, positions);
     }
 
+    // ===========================================================================
+    // Post-Processing
+    // ===========================================================================
+
     /**
-     * Renders the {@link.Framebuffer#RESULT result} to screen.
+     * Returns the graph of the post-processing passes. Its inputs are the
+     * color of the {@link core.renderer.SortedRenderer.Framebuffer#SCENE scene
+     * framebuffer} ("scene"), of the
+     * {@link core.renderer.SortedRenderer.Framebuffer#MIRROR mirror
+     * framebuffer} ("mirror") and of the
+     * {@link core.renderer.SortedRenderer.Framebuffer#EFFECTS effects
+     * framebuffer} ("effect"), the {@link #specularAndGlow} texture ("glow")
+     * and the scene's depth ("depth"). The last pass shall write to
+     * {@link PostProcessGraph#SCREEN}.
+     * 
+     * @return the graph
      */
-    public void renderResultToScreen() {
-        renderTextureToScreen(resultColor);
+    public PostProcessGraph getPostProcessGraph() {
+        return postProcessGraph;
     }
 
     /**
-     * Renders from the {@link core.renderer.SortedRenderer.Framebuffer#SCENE
-     * scene framebuffer},
-     * {@link core.renderer.SortedRenderer.Framebuffer#EFFECTS effects
-     * framebuffer}, and {@link core.renderer.SortedRenderer.Framebuffer#MIRROR
-     * mirror framebuffer} to the
-     * {@link core.renderer.SortedRenderer.Framebuffer#RESULT result
-     * framebuffer} using the given shader.
-     * 
-     * @param shader
-     *            post-process-shader
+     * Resolves the multisampled framebuffers (with MSAA) and runs the passes
+     * of the {@link #getPostProcessGraph() post-process graph} (in the full
+     * resolution). In {@link #setLowPower(boolean) low power mode} the scene
+     * is only copied to the screen.
      */
-    public void postProcessCombine(ScreenShaderProgram shader) {
+    public void postProcess() {
+        sceneTimer.end();
+        postProcessTimer.begin();
+        if (lowPower) {
+            if (multisampleSceneTarget != null) {
+                multisampleSceneTarget.resolve(sceneTarget, false);
+            }
+            sceneTarget.blitToScreen(Window.width, Window.height);
+            postProcessTimer.end();
+            return;
+        }
+        if (multisampleSceneTarget != null) {
+            // the depth is resolved as well for screen-space reflections
+            multisampleSceneTarget.resolve(sceneTarget, true);
+            multisampleEffectTarget.resolve(effectTarget, false);
+        }
+        setDimensions(Window.width, Window.height);
+        postProcessGraph.execute();
+        postProcessTimer.end();
+    }
 
-        bindFramebuffer(Framebuffer.RESULT);
-        GL11.glEnable(GL11.GL_BLEND);
-        GL11.glDisable(GL11.GL_DEPTH_TEST);
+    /**
+     * @return the GPU time of the 3D passes in seconds (measured a few frames
+     *         ago)
+     */
+    public float getSceneTime() {
+        return sceneTimer.getTime();
+    }
 
-        ScreenShaderProgram shaderUse;
-        if (shader == null) {
-            shaderUse = screenShader;
-        } else {
-            shaderUse = shader;
-        }
-        shaderUse.use();
-        GL20.glUniform2f(shaderUse.getUniformLocation("inverseTextureSize"), 1f / (float) Window.width,
-                1f / (float) Window.height);
-        GL20.glUniform1i(shaderUse.getUniformLocation("fxaa"), Window.fxaa ? 1 : 0);
-        GL20.glUniform1i(shaderUse.getUniformLocation("reflect"), Window.reflect ? 1 : 0);
-        GL20.glUniform1f(shaderUse.getUniformLocation("reflectiveness"), SettingsManager.reflectiveness);
-
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, sceneColor);
-        GL13.glActiveTexture(GL13.GL_TEXTURE1);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, mirrorColor);
-        GL13.glActiveTexture(GL13.GL_TEXTURE2);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, effectColor);
-        GL13.glActiveTexture(GL13.GL_TEXTURE3);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, specularAndGlow);
+    /**
+     * @return the GPU time of the resolve and the post-processing in seconds
+     *         (measured a few frames ago)
+     */
+    public float getPostProcessTime() {
+        return postProcessTimer.getTime();
+    }
 
-        shader.render();
+    /**
+     * @return the GPU time of a frame in seconds (3D passes and
+     *         post-processing, without the HUD)
+     */
+    public float getGpuTime() {
+        return sceneTimer.getTime() + postProcessTimer.getTime();
     }
 
+    // ===========================================================================
+    // Anti-Aliasing
+    // ===========================================================================
+
     /**
-     * Renders from the {@link core.renderer.SortedRenderer.Framebuffer#SPARE
-     * spare framebuffer} and the additionally given <b>framebuffers</b> to the
-     * {@link core.renderer.SortedRenderer.Framebuffer#RESULT result
-     * framebuffer} using the given shader.
+     * Selects the anti-aliasing technique. FXAA is applied by the
+     * post-processing (sets {@link Window#fxaa}), MSAA renders the scene and
+     * the effects to multisampled framebuffers (the mirror is not
+     * multisampled).
      * 
-     * @param shader
-     *            post-process-shader
-     * @param strength
-     *            how strong the postProcess takes effect (0 = nothing, 1 =
-     *            full)
-     * @param framebuffers
-     *            max. 3 additional Framebuffers (shall <b>not</b> be
-     *            {@link core.renderer.SortedRenderer.Framebuffer#DEFAULT
-     *            Framebuffer.DEFAULT}).</br>
-     *            (If a framebuffer is
-     *            {@link core.renderer.SortedRenderer.Framebuffer#SPARE
-     *            Framebuffer.SPARE}, the {@link #specularAndGlow glow}-Texture
-     *            will be used)
-     */
-    public void postProcess(ScreenShaderProgram shader, float strength, Framebuffer... framebuffers) {
-        copyFramebuffer(Framebuffer.RESULT, Framebuffer.SPARE);
-        bindFramebuffer(Framebuffer.RESULT);
-        GL11.glEnable(GL11.GL_BLEND);
-        GL11.glDisable(GL11.GL_DEPTH_TEST);
-
-        ScreenShaderProgram shaderUse;
-        if (shader == null) {
-            shaderUse = screenShader;
-        } else {
-            shaderUse = shader;
-        }
-        shaderUse.use();
-        GL20.glUniform2f(shaderUse.getUniformLocation("inverseTextureSize"), 1f / (float) Window.width,
-                1f / (float) Window.height);
-        GL20.glUniform1i(shaderUse.getUniformLocation("fxaa"), Window.fxaa ? 1 : 0);
-        GL20.glUniform1i(shaderUse.getUniformLocation("reflect"), Window.reflect ? 1 : 0);
-        GL20.glUniform1f(shaderUse.getUniformLocation("reflectiveness"), SettingsManager.reflectiveness);
-
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, resultColor);
-
-        for (int i = 0; i < Math.min(framebuffers.length, 3); i++) {
-            if (framebuffers[i] == Framebuffer.DEFAULT) {
-                System.err.println("Cannot perform post-processing with the DEFAULT framebuffer.");
-            } else if (framebuffers[i] == Framebuffer.SPARE) {
-                GL13.glActiveTexture(GL13.GL_TEXTURE1 + i);
-                GL11.glBindTexture(GL11.GL_TEXTURE_2D, specularAndGlow);
-            } else {
-                GL13.glActiveTexture(GL13.GL_TEXTURE1 + i);
-                GL11.glBindTexture(GL11.GL_TEXTURE_2D, getFramebufferTexture(framebuffers[i]));
-            }
+     * @param technique
+     */
+    public void setAntiAliasing(AntiAliasing technique) {
+        antiAliasing = technique;
+        Window.fxaa = technique == AntiAliasing.FXAA;
+
+        int samples = Math.min(technique.samples, GL11.glGetInteger(GL30.GL_MAX_SAMPLES));
+        if (samples < technique.samples) {
+            Console.err(getClass(), "Only " + samples + " samples are supported, " + technique + " is reduced.");
         }
-        shader.use();
-        GL20.glUniform1f(shaderUse.getUniformLocation("strength"), strength);
-        shader.render();
+        if (multisampleSceneTarget != null && multisampleSceneTarget.getSamples() == samples) {
+            return;
+        }
+        if (multisampleSceneTarget != null) {
+            multisampleEffectTarget.delete();
+            multisampleSceneTarget.delete();
+            multisampleSceneTarget = null;
+            multisampleEffectTarget = null;
+        }
+        if (samples > 1) {
+            multisampleSceneTarget = new RenderTarget("multisampled scene").withSamples(samples)
+                    .withColor(GL11.GL_RGBA, GL11.GL_RGBA).withColor(GL11.GL_RGBA, GL11.GL_RGBA).withDepthStencil();
+            multisampleEffectTarget = new RenderTarget("multisampled effect").withSamples(samples)
+                    .withColor(GL11.GL_RGBA, GL11.GL_RGBA).withDepthStencilOf(multisampleSceneTarget);
+            multisampleSceneTarget.allocate(sceneTarget.getWidth(), sceneTarget.getHeight());
+            multisampleEffectTarget.allocate(effectTarget.getWidth(), effectTarget.getHeight());
+        }
+        applyRenderScale();
     }
 
+    public AntiAliasing getAntiAliasing() {
+        return antiAliasing;
+    }
+
+    // ===========================================================================
+    // Low Power
+    // ===========================================================================
+
     /**
-     * Copies the color of the given framebuffer to the
-     * {@link core.renderer.SortedRenderer.Framebuffer#SPARE Framebuffer.SPARE}
-     * (does <b>not</b> work on
-     * {@link core.renderer.SortedRenderer.Framebuffer#DEFAULT
-     * Framebuffer.DEFAULT}).
+     * Specifies, whether frames are rendered without the mirror and the
+     * post-processing (the scene is copied to the screen as it is, without
+     * the effects). Meant for frames nobody looks at closely, e.g. while the
+     * window is in the background.
      * 
-     * @param framebuffer
+     * @param use
      */
-    public void copyFramebuffer(Framebuffer source, Framebuffer target) {
-        bindFramebuffer(target);
-        screenShader.use();
-        screenShader.renderTexture(getFramebufferTexture(source));
+    public void setLowPower(boolean use) {
+        lowPower = use;
+    }
+
+    public boolean isLowPower() {
+        return lowPower;
+    }
+
+    // ===========================================================================
+    // Dynamic Resolution
+    // ===========================================================================
+
+    /**
+     * Sets the resolution the 3D passes render in, relative to the window
+     * size. The scene, effects and mirror framebuffers keep their size, only
+     * their lower left part is rendered to and the post-processing upscales
+     * it to the screen (the HUD and UI stay in the full resolution).
+     * 
+     * @param scale
+     *            clamped to [{@link #MIN_RENDER_SCALE}, 1]
+     */
+    public void setRenderScale(float scale) {
+        scale = Math.min(Math.max(scale, MIN_RENDER_SCALE), 1f);
+        if (scale == renderScale) {
+            return;
+        }
+        renderScale = scale;
+        applyRenderScale();
+        // the old mirror content has the wrong size
+        reflectionAge = Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the resolution of the 3D passes relative to the window size
+     */
+    public float getRenderScale() {
+        return renderScale;
+    }
+
+    /**
+     * Sets the viewports of the scene, effects and mirror framebuffers and
+     * tells the post-processing about the {@link #renderScale}.
+     */
+    private void applyRenderScale() {
+        sceneTarget.setViewport(Math.round(sceneTarget.getWidth() * renderScale),
+                Math.round(sceneTarget.getHeight() * renderScale));
+        effectTarget.setViewport(Math.round(effectTarget.getWidth() * renderScale),
+                Math.round(effectTarget.getHeight() * renderScale));
+        mirrorTarget.setViewport(Math.round(mirrorTarget.getWidth() * renderScale),
+                Math.round(mirrorTarget.getHeight() * renderScale));
+        if (multisampleSceneTarget != null) {
+            multisampleSceneTarget.setViewport(sceneTarget.getViewportWidth(), sceneTarget.getViewportHeight());
+            multisampleEffectTarget.setViewport(effectTarget.getViewportWidth(), effectTarget.getViewportHeight());
+        }
+        postProcessGraph.setRenderScale(renderScale);
+        FrameUniforms.getInstance().setRenderScale(renderScale);
+        staticLayerValid = false;
     }
 
     // ===========================================================================
     // Context Management
     // ===========================================================================
 
+    /**
+     * Deletes the framebuffers and the GPU timers.
+     */
+    public void delete() {
+        if (multisampleSceneTarget != null) {
+            multisampleEffectTarget.delete();
+            multisampleSceneTarget.delete();
+        }
+        if (staticTarget != null) {
+            staticTarget.delete();
+            staticTarget = null;
+        }
+        effectTarget.delete();
+        sceneTarget.delete();
+        mirrorTarget.delete();
+        postProcessGraph.delete();
+        sceneTimer.delete();
+        postProcessTimer.delete();
+    }
+
     /**
      * Sets, whether stencil is used.
      * 
      * @param use
      */
     public void useStencil(boolean use) {
-        if (use) {
-            GL11.glEnable(GL11.GL_STENCIL_TEST);
-        } else {
-            GL11.glDisable(GL11.GL_STENCIL_TEST);
-        }
+        GLStateCache.getInstance().setEnabled(GL11.GL_STENCIL_TEST, use);
     }
 
     /**
@@ -665,36 +1133,35 @@ public class SortedRenderer {
      */
     public void addRenderModel(Model model, ShaderProgram shader) {
         synchronized (this) {
-            Texture modelTex = model.getTexture(0);
-
-            // if there are no renderModels
-            if (renderModels == null) {
-                renderModels = new HashMap<ShaderProgram, Map<Texture, List<Model>>>();
-            }
+            List<Model> modelList = renderModels.get(shader);
 
             // if the shader is not yet in the Map
-            if (!renderModels.containsKey(shader)) {
-                // add the shader
-                renderModels.put(shader, new HashMap<Texture, List<Model>>());
-            }
-
-            // get the texMap to the given shader
-            Map<Texture, List<Model>> texMap = renderModels.get(shader);
-
-            // if the texMap does not contain the models texture
-            if (!texMap.containsKey(modelTex)) {
-                // add the model texture
-                texMap.put(modelTex, new ArrayList<Model>());
+            if (modelList == null) {
+                modelList = new ArrayList<Model>();
+                renderModels.put(shader, modelList);
             }
 
-            // get the modelList to the given texture
-            List<Model> modelList = texMap.get(modelTex);
-
             // add the model
             modelList.add(model);
+            renderQueueChanged = true;
+            FrameInvalidator.getInstance().invalidate();
         }
     }
 
+    /**
+     * Adds the given model with the given shader to the {@link #renderModels
+     * internal model data-structure}.
+     * 
+     * @param model
+     * @param shader
+     * @param reflected
+     *            whether the model is rendered in the reflection
+     */
+    public void addRenderModel(Model model, ShaderProgram shader, boolean reflected) {
+        model.setReflected(reflected);
+        addRenderModel(model, shader);
+    }
+
     /**
      * Adds the given models with the given shader to the {@link #renderModels
      * internal model data-structure}.
@@ -710,6 +1177,23 @@ public class SortedRenderer {
         }
     }
 
+    /**
+     * Adds the given models with the given shader to the {@link #renderModels
+     * internal model data-structure}.
+     * 
+     * @param models
+     * @param shader
+     * @param reflected
+     *            whether the models are rendered in the reflection
+     */
+    public void addRenderModels(List<Model> models, ShaderProgram shader, boolean reflected) {
+        synchronized (this) {
+            for (Model model : models) {
+                addRenderModel(model, shader, reflected);
+            }
+        }
+    }
+
     /**
      * Removes the given model from the {@link #renderModels internal model
      * data-structure}.
@@ -718,12 +1202,11 @@ public class SortedRenderer {
      */
     public void removeRenderModel(Model modelToRemove) {
         synchronized (this) {
-            for (Map<Texture, List<Model>> map : renderModels.values()) {
-                List<Model> modelList = map.get(modelToRemove.getTexture(0));
-                if (modelList == null)
-                    continue;
-                modelList.remove(modelToRemove);
-
+            for (List<Model> modelList : renderModels.values()) {
+                if (modelList.removeIf(model -> model == modelToRemove)) {
+                    renderQueueChanged = true;
+                    FrameInvalidator.getInstance().invalidate();
+                }
             }
         }
     }
@@ -749,6 +1232,8 @@ public class SortedRenderer {
     public void clearRenderModels() {
         synchronized (this) {
             renderModels.clear();
+            renderQueueChanged = true;
+            FrameInvalidator.getInstance().invalidate();
         }
     }
 
@@ -777,17 +1262,72 @@ public class SortedRenderer {
          */
         EFFECTS,
         /**
-         * Result Framebuffer - the {@link #postProcess(ScreenShaderProgram)
-         * postProcess-method} renders to it.
+         * Mirror Framebuffer for the mirrored scene used for reflections.
          */
-        RESULT,
+        MIRROR;
+    }
+
+    /**
+     * The ways to render the reflection of the board.
+     */
+    public enum ReflectionTechnique {
         /**
-         * Spare framebuffer, used if an extra one is needed.
+         * The scene is rendered a second time with a reflected camera into the
+         * {@link Framebuffer#MIRROR mirror framebuffer} (accurate).
          */
-        SPARE,
+        MIRROR,
         /**
-         * Mirror Framebuffer for the mirrored scene used for reflections.
+         * The reflection is traced in the rendered scene's color and depth
+         * (no second geometry pass, but only what is on screen is reflected).
          */
-        MIRROR;
+        SCREEN_SPACE;
+    }
+
+    /**
+     * The anti-aliasing techniques (see
+     * {@link SortedRenderer#setAntiAliasing(AntiAliasing)}).
+     */
+    public enum AntiAliasing {
+        /** no anti-aliasing */
+        OFF(0),
+        /** FXAA in the post-processing */
+        FXAA(0),
+        /** 2 samples per pixel, resolved before the post-processing */
+        MSAA_2X(2),
+        /** 4 samples per pixel, resolved before the post-processing */
+        MSAA_4X(4);
+
+        /** samples per pixel of the scene framebuffers */
+        final int samples;
+
+        private AntiAliasing(int samples) {
+            this.samples = samples;
+        }
+    }
+
+    /**
+     * A snapshot of the camera's view (position, rotation, pitch and field of
+     * view) to notice when it changed.
+     */
+    private static class CameraState {
+        final Vector3f position = new Vector3f(0, 0, 0);
+        float rotation, pitch, fov;
+
+        void set(Camera camera) {
+            Vector3f cameraPosition = camera.getPosition();
+            position.x = cameraPosition.x;
+            position.y = cameraPosition.y;
+            position.z = cameraPosition.z;
+            rotation = camera.getRotation();
+            pitch = camera.getPitch();
+            fov = camera.getFOV();
+        }
+
+        boolean matches(Camera camera) {
+            Vector3f cameraPosition = camera.getPosition();
+            return cameraPosition.x == position.x && cameraPosition.y == position.y
+                    && cameraPosition.z == position.z && camera.getRotation() == rotation
+                    && camera.getPitch() == pitch && camera.getFOV() == fov;
+        }
     }
 }
\ No newline at end of file
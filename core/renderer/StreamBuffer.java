@@ -0,0 +1,232 @@
+package core.renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.opengl.ARBBufferStorage;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * A buffer for data that is written once per frame (e.g. per-instance model
+ * matrices). The data of a frame is written into a region of the buffer, the
+ * draws select their data with its byte offset ({@link #getOffset()}).</br>
+ * </br>
+ * If ARB_buffer_storage is available, the buffer is mapped persistently and
+ * split into {@link #SEGMENTS} segments used round-robin (one per frame), a
+ * fence guards each segment so it is not overwritten while the GPU still
+ * reads it. Otherwise (plain OpenGL 3.3) the data is written to client memory
+ * and uploaded in {@link #flush()} after orphaning the buffer.</br>
+ * </br>
+ * Usage per frame: {@link #beginFrame(int)}, {@link #reserve(int)} for each
+ * draw, {@link #flush()} before the first draw and {@link #endFrame()} after
+ * the last draw.
+ */
+public class StreamBuffer {
+
+    /** how many frames can be in flight (persistent mapping only) */
+    private static final int SEGMENTS = 3;
+    /** timeout of one wait for a fence in nanoseconds */
+    private static final long FENCE_TIMEOUT = 1000000L;
+
+    /** whether the buffer is mapped persistently */
+    private final boolean persistent;
+    /** the OpenGL buffer */
+    private int bufferID;
+    /** size of one segment in bytes */
+    private int segmentSize;
+    /** the mapped buffer (persistent) or the client side data (fallback) */
+    private ByteBuffer data;
+    /** fences of the segments (0 = none) */
+    private final long[] fences;
+
+    /** the segment of the current frame */
+    private int segment;
+    /** byte offset of the current segment within the buffer */
+    private int segmentOffset;
+    /** bytes written within the current segment */
+    private int written;
+    /** byte offset of the last reserved region within the buffer */
+    private int offset;
+
+    /**
+     * Creates a new stream buffer.
+     *
+     * @param segmentSize
+     *            initial size of the data of one frame in bytes (grows if
+     *            needed)
+     */
+    public StreamBuffer(int segmentSize) {
+        this.persistent = GL.getCapabilities().GL_ARB_buffer_storage;
+        this.fences = new long[SEGMENTS];
+        this.segment = 0;
+        create(Math.max(segmentSize, 1024));
+    }
+
+    /**
+     * Creates the buffer (and maps it or allocates the client side data).
+     *
+     * @param segmentSize
+     *            in bytes
+     */
+    private void create(int segmentSize) {
+        this.segmentSize = segmentSize;
+        bufferID = GL15.glGenBuffers();
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, bufferID);
+        if (persistent) {
+            int flags = GL30.GL_MAP_WRITE_BIT | ARBBufferStorage.GL_MAP_PERSISTENT_BIT
+                    | ARBBufferStorage.GL_MAP_COHERENT_BIT;
+            long size = (long) segmentSize * SEGMENTS;
+            ARBBufferStorage.glBufferStorage(GL15.GL_ARRAY_BUFFER, size, flags);
+            data = GL30.glMapBufferRange(GL15.GL_ARRAY_BUFFER, 0, size, flags);
+            if (data == null) {
+                throw new IllegalStateException("Could not map the stream buffer.");
+            }
+        } else {
+            GL15.glBufferData(GL15.GL_ARRAY_BUFFER, segmentSize, GL15.GL_STREAM_DRAW);
+            data = MemoryUtil.memAlloc(segmentSize);
+        }
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Starts writing the data of a new frame. Waits until the GPU has finished
+     * reading the segment that is reused.
+     *
+     * @param size
+     *            bytes that will be reserved within this frame
+     */
+    public void beginFrame(int size) {
+        if (size > segmentSize) {
+            delete();
+            create(Math.max(size, segmentSize * 2));
+        }
+        if (persistent) {
+            segment = (segment + 1) % SEGMENTS;
+            segmentOffset = segment * segmentSize;
+            waitForFence(segment);
+        } else {
+            segmentOffset = 0;
+        }
+        written = 0;
+    }
+
+    /**
+     * Reserves a region of the current frame's data.
+     *
+     * @param floats
+     *            size of the region in floats
+     * @return the region to write the data to (position 0, has to be filled
+     *         before {@link #flush()})
+     */
+    public FloatBuffer reserve(int floats) {
+        int size = floats * Float.BYTES;
+        if (written + size > segmentSize) {
+            throw new IllegalStateException("Stream buffer overflow, reserve more in beginFrame().");
+        }
+        offset = segmentOffset + written;
+        written += size;
+        return MemoryUtil.memFloatBuffer(MemoryUtil.memAddress(data, offset), floats);
+    }
+
+    /**
+     * @return byte offset of the last reserved region within the buffer (to
+     *         be used as attribute pointer offset)
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Makes the written data visible to the GPU. Has to be called after all
+     * regions were written and before the first draw.
+     */
+    public void flush() {
+        if (persistent || written == 0) {
+            // coherent mapping, nothing to do
+            return;
+        }
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, bufferID);
+        // orphan the old storage, so the driver does not have to wait for
+        // the GPU to finish reading it
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, segmentSize, GL15.GL_STREAM_DRAW);
+        data.position(0).limit(written);
+        GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, data);
+        data.clear();
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Has to be called after the last draw that uses the current frame's
+     * data.
+     */
+    public void endFrame() {
+        if (persistent) {
+            if (fences[segment] != 0) {
+                GL32.glDeleteSync(fences[segment]);
+            }
+            fences[segment] = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        }
+    }
+
+    /**
+     * Waits until the fence of the given segment is signaled and deletes it.
+     *
+     * @param segment
+     */
+    private void waitForFence(int segment) {
+        long fence = fences[segment];
+        if (fence == 0) {
+            return;
+        }
+        int status;
+        int flags = GL32.GL_SYNC_FLUSH_COMMANDS_BIT;
+        do {
+            status = GL32.glClientWaitSync(fence, flags, FENCE_TIMEOUT);
+            flags = 0;
+        } while (status == GL32.GL_TIMEOUT_EXPIRED);
+        if (status == GL32.GL_WAIT_FAILED) {
+            System.err.println("Waiting for the stream buffer fence failed.");
+        }
+        GL32.glDeleteSync(fence);
+        fences[segment] = 0;
+    }
+
+    /**
+     * @return the OpenGL buffer to bind for drawing
+     */
+    public int getBufferID() {
+        return bufferID;
+    }
+
+    /**
+     * @return whether the buffer is mapped persistently (ARB_buffer_storage)
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Deletes the buffer (and its fences) and frees the client side data.
+     */
+    public void delete() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            if (fences[i] != 0) {
+                GL32.glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+        }
+        if (persistent) {
+            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, bufferID);
+            GL15.glUnmapBuffer(GL15.GL_ARRAY_BUFFER);
+            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        } else {
+            MemoryUtil.memFree(data);
+        }
+        data = null;
+        GL15.glDeleteBuffers(bufferID);
+    }
+}
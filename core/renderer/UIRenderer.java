@@ -172,7 +172,7 @@ public class UIRenderer {
             ebo = glGenBuffers();
             vao = glGenVertexArrays();
 
-            glBindVertexArray(vao);
+            GLStateCache.getInstance().bindVertexArray(vao);
             glBindBuffer(GL_ARRAY_BUFFER, vbo);
             glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebo);
 
@@ -192,7 +192,7 @@ public class UIRenderer {
             null_texture.texture().id(nullTexID);
             null_texture.uv().set(0.5f, 0.5f);
 
-            glBindTexture(GL_TEXTURE_2D, nullTexID);
+            GLStateCache.getInstance().bindTexture(nullTexID);
             try (MemoryStack stack = stackPush()) {
                 glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, 1, 1, 0, GL_RGBA, GL_UNSIGNED_INT_8_8_8_8_REV,
                         stack.ints(0xFFFFFFFF));
@@ -201,10 +201,10 @@ public class UIRenderer {
             glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
         }
 
-        glBindTexture(GL_TEXTURE_2D, 0);
+        GLStateCache.getInstance().bindTexture(0);
         glBindBuffer(GL_ARRAY_BUFFER, 0);
+        GLStateCache.getInstance().bindVertexArray(0);
         glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
 
         // ========== FONT
         // ====================================================================
@@ -243,7 +243,7 @@ public class UIRenderer {
                 texture.putInt((bitmap.get(i) << 24) | 0x00FFFFFF);
             texture.flip();
 
-            glBindTexture(GL_TEXTURE_2D, fontTexID);
+            GLStateCache.getInstance().bindTexture(fontTexID);
             glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, BITMAP_W, BITMAP_H, 0, GL_RGBA, GL_UNSIGNED_INT_8_8_8_8_REV,
                     texture);
             glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
@@ -307,27 +307,28 @@ public class UIRenderer {
     public void render() {
         try (MemoryStack stack = stackPush()) {
             // setup global state
-            glEnable(GL_BLEND);
-            glBlendEquation(GL_FUNC_ADD);
-            glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
-            glDisable(GL_CULL_FACE);
-            glDisable(GL_DEPTH_TEST);
-            glEnable(GL_SCISSOR_TEST);
-            glActiveTexture(GL_TEXTURE0);
+            GLStateCache state = GLStateCache.getInstance();
+            state.enable(GL_BLEND);
+            state.blendEquation(GL_FUNC_ADD);
+            state.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+            state.disable(GL_CULL_FACE);
+            state.disable(GL_DEPTH_TEST);
+            state.enable(GL_SCISSOR_TEST);
+            state.activeTexture(0);
 
             // setup program
-            glUseProgram(prog);
+            state.useProgram(prog);
             glUniform1i(uniform_tex, 0);
             glUniformMatrix4fv(uniform_proj, false, stack.floats(2.0f / width, 0.0f, 0.0f, 0.0f, 0.0f, -2.0f / height,
                     0.0f, 0.0f, 0.0f, 0.0f, -1.0f, 0.0f, -1.0f, 1.0f, 0.0f, 1.0f));
-            glViewport(0, 0, display_width, display_height);
+            state.viewport(display_width, display_height);
         }
 
         {
             // convert from command queue into draw list and draw to screen
 
             // allocate vertex and element buffer
-            glBindVertexArray(vao);
+            GLStateCache.getInstance().bindVertexArray(vao);
             glBindBuffer(GL_ARRAY_BUFFER, vbo);
             glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebo);
 
@@ -364,7 +365,7 @@ public class UIRenderer {
             for (NkDrawCommand cmd = nk__draw_begin(ctx, cmds); cmd != null; cmd = nk__draw_next(cmd, cmds, ctx)) {
                 if (cmd.elem_count() == 0)
                     continue;
-                glBindTexture(GL_TEXTURE_2D, cmd.texture().id());
+                GLStateCache.getInstance().bindTexture(0, cmd.texture().id());
                 glScissor((int) (cmd.clip_rect().x() * fb_scale_x),
                         (int) ((height - (int) (cmd.clip_rect().y() + cmd.clip_rect().h())) * fb_scale_y),
                         (int) (cmd.clip_rect().w() * fb_scale_x), (int) (cmd.clip_rect().h() * fb_scale_y));
@@ -376,15 +377,38 @@ public class UIRenderer {
         }
 
         // default OpenGL state
-        glUseProgram(0);
+        GLStateCache.getInstance().useProgram(0);
         glBindBuffer(GL_ARRAY_BUFFER, 0);
+        GLStateCache.getInstance().bindVertexArray(0);
         glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
         // glDisable(GL_BLEND);
-        glDisable(GL_SCISSOR_TEST);
+        GLStateCache.getInstance().disable(GL_SCISSOR_TEST);
     }
 
     public void input() {
+        input(-1);
+    }
+
+    /**
+     * Waits for events and polls them into the UI's input.
+     * 
+     * @param timeout
+     *            in seconds to wait at most (0 = until an event arrives)
+     * @return whether an event arrived (false if the timeout elapsed)
+     */
+    public boolean waitInput(double timeout) {
+        return input(timeout);
+    }
+
+    /**
+     * Polls the events into the UI's input.
+     * 
+     * @param timeout
+     *            in seconds to wait for an event (0 = until an event arrives,
+     *            negative = poll without waiting)
+     * @return whether it returned before the timeout elapsed
+     */
+    private boolean input(double timeout) {
         try (MemoryStack stack = stackPush()) {
             IntBuffer w = stack.mallocInt(1);
             IntBuffer h = stack.mallocInt(1);
@@ -399,7 +423,16 @@ public class UIRenderer {
         }
 
         nk_input_begin(ctx);
-        glfwPollEvents();
+        boolean early = true;
+        if (timeout > 0) {
+            double start = glfwGetTime();
+            glfwWaitEventsTimeout(timeout);
+            early = glfwGetTime() - start < timeout;
+        } else if (timeout == 0) {
+            glfwWaitEvents();
+        } else {
+            glfwPollEvents();
+        }
 
         NkMouse mouse = ctx.input().mouse();
         if (mouse.grab())
@@ -414,6 +447,15 @@ public class UIRenderer {
             glfwSetInputMode(win, GLFW_CURSOR, GLFW_CURSOR_NORMAL);
 
         nk_input_end(ctx);
+        return early;
+    }
+
+    /**
+     * Discards the UI built since the last {@link #render()} without drawing
+     * it (when the frame is not rendered).
+     */
+    public void discard() {
+        nk_clear(ctx);
     }
 
     public void fill(NkColor color) {
@@ -425,7 +467,7 @@ public class UIRenderer {
             IntBuffer height = stack.mallocInt(1);
 
             glfwGetWindowSize(Window.window, width, height);
-            glViewport(0, 0, width.get(0), height.get(0));
+            GLStateCache.getInstance().viewport(width.get(0), height.get(0));
 
             glClearColor(bg.get(0), bg.get(1), bg.get(2), bg.get(3));
         }
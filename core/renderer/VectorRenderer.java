@@ -39,6 +39,7 @@ public class VectorRenderer {
         color.a(0.5f);
 
         nvgCreateFont(vgContext, "REGULAR", "res/open_sans_font.ttf");
+        GLStateCache.getInstance().invalidate();
     }
 
     /**
@@ -52,9 +53,10 @@ public class VectorRenderer {
      *            NanoVG draw call (without begin/end frame)
      */
     public void render(Consumer<Long> func) {
-        GL11.glEnable(GL11.GL_BLEND);
-        GL11.glDisable(GL11.GL_CULL_FACE);
-        GL11.glDisable(GL11.GL_DEPTH_TEST);
+        GLStateCache state = GLStateCache.getInstance();
+        state.enable(GL11.GL_BLEND);
+        state.disable(GL11.GL_CULL_FACE);
+        state.disable(GL11.GL_DEPTH_TEST);
 
         nvgBeginFrame(vgContext, Window.width, Window.height, 1);
 
@@ -62,10 +64,12 @@ public class VectorRenderer {
 
         nvgEndFrame(vgContext);
 
-        GL11.glEnable(GL11.GL_DEPTH_TEST);
-        GL11.glEnable(GL11.GL_STENCIL_TEST);
-        GL11.glDisable(GL11.GL_BLEND);
-        GL11.glEnable(GL11.GL_CULL_FACE);
+        // NanoVG changes program, textures, VAO and capabilities on its own
+        state.invalidate();
+        state.enable(GL11.GL_DEPTH_TEST);
+        state.enable(GL11.GL_STENCIL_TEST);
+        state.disable(GL11.GL_BLEND);
+        state.enable(GL11.GL_CULL_FACE);
         GL11.glCullFace(GL11.GL_BACK);
     }
     
@@ -2,13 +2,14 @@ package core.shader;
 
 import java.nio.FloatBuffer;
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
 import org.lwjgl.system.MemoryUtil;
 
 import core.math.Vector2f;
+import core.renderer.FrameArena;
+import core.renderer.GLStateCache;
 import core.shader.ShaderProgram;
 import core.window.Window;
 
@@ -41,10 +42,25 @@ public class ScreenShaderProgram extends ShaderProgram {
      *            shader)
      */
     public ScreenShaderProgram(String vertexShaderName, String fragmentShaderName) {
-        super(vertexShaderName, fragmentShaderName);
+        this(vertexShaderName, fragmentShaderName, new String[0]);
+    }
+
+    /**
+     * 
+     * @param vertexShaderName
+     *            path to a screen quad vertex shader
+     * @param fragmentShaderName
+     *            path to a screen quad fragment shader (e.g. post-processing
+     *            shader)
+     * @param defines
+     *            names defined in both shaders (see
+     *            {@link ShaderProgram#ShaderProgram(String, String, String[])})
+     */
+    public ScreenShaderProgram(String vertexShaderName, String fragmentShaderName, String[] defines) {
+        super(vertexShaderName, fragmentShaderName, defines);
 
         this.vao = GL30.glGenVertexArrays();
-        GL30.glBindVertexArray(vao);
+        GLStateCache.getInstance().bindVertexArray(vao);
         int vbo = GL15.glGenBuffers();
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
 
@@ -61,12 +77,12 @@ public class ScreenShaderProgram extends ShaderProgram {
         GL20.glEnableVertexAttribArray(1);
 
         // unbind the vao
-        GL30.glBindVertexArray(0);
+        GLStateCache.getInstance().bindVertexArray(0);
         // unbind the vbo
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
 
         this.altVao = GL30.glGenVertexArrays();
-        GL30.glBindVertexArray(altVao);
+        GLStateCache.getInstance().bindVertexArray(altVao);
         this.altVbo = GL15.glGenBuffers();
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, altVbo);
 
@@ -78,7 +94,7 @@ public class ScreenShaderProgram extends ShaderProgram {
         GL20.glEnableVertexAttribArray(1);
 
         // unbind the vao
-        GL30.glBindVertexArray(0);
+        GLStateCache.getInstance().bindVertexArray(0);
         // unbind the vbo
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
 
@@ -102,7 +118,7 @@ public class ScreenShaderProgram extends ShaderProgram {
         super(vertexShaderName, geometryShaderName, fragmentShaderName);
 
         this.vao = GL30.glGenVertexArrays();
-        GL30.glBindVertexArray(vao);
+        GLStateCache.getInstance().bindVertexArray(vao);
         int vbo = GL15.glGenBuffers();
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
 
@@ -119,12 +135,12 @@ public class ScreenShaderProgram extends ShaderProgram {
         GL20.glEnableVertexAttribArray(1);
 
         // unbind the vao
-        GL30.glBindVertexArray(0);
+        GLStateCache.getInstance().bindVertexArray(0);
         // unbind the vbo
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
 
         this.altVao = GL30.glGenVertexArrays();
-        GL30.glBindVertexArray(altVao);
+        GLStateCache.getInstance().bindVertexArray(altVao);
         this.altVbo = GL15.glGenBuffers();
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, altVbo);
 
@@ -138,7 +154,7 @@ public class ScreenShaderProgram extends ShaderProgram {
         GL20.glEnableVertexAttribArray(1);
 
         // unbind the vao
-        GL30.glBindVertexArray(0);
+        GLStateCache.getInstance().bindVertexArray(0);
         // unbind the vbo
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
 
@@ -157,8 +173,7 @@ public class ScreenShaderProgram extends ShaderProgram {
      *            the ID of the texture to render
      */
     final public void renderTexture(int textureBufferID) {
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureBufferID);
+        GLStateCache.getInstance().bindTexture(0, textureBufferID);
 
         render();
     }
@@ -171,27 +186,23 @@ public class ScreenShaderProgram extends ShaderProgram {
      *            [Vector2f(xPos, yPos), Vector2f(width, height)]
      */
     final public void renderTexture(int textureBufferID, Vector2f[] positions) {
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureBufferID);
+        GLStateCache.getInstance().bindTexture(0, textureBufferID);
 
         render(positions);
     }
 
     /**
-     * Renders fullscreen.
+     * Renders fullscreen (with depth test and face culling disabled, they stay
+     * disabled afterwards).
      */
     public void render() {
-        GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
-        GL30.glBindVertexArray(this.vao);
-        GL11.glDisable(GL11.GL_DEPTH_TEST);
-        GL11.glDisable(GL11.GL_CULL_FACE);
+        GLStateCache state = GLStateCache.getInstance();
+        state.blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+        state.bindVertexArray(this.vao);
+        state.disable(GL11.GL_DEPTH_TEST);
+        state.disable(GL11.GL_CULL_FACE);
 
         GL11.glDrawArrays(GL11.GL_TRIANGLES, 0, 6);
-
-        GL30.glBindVertexArray(0);
-        GL11.glEnable(GL11.GL_DEPTH_TEST);
-        GL11.glEnable(GL11.GL_CULL_FACE);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
     }
 
     /**
@@ -202,40 +213,30 @@ public class ScreenShaderProgram extends ShaderProgram {
      */
     public void render(Vector2f[] positions) {
         this.use();
-        GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
-        GL30.glBindVertexArray(altVao);
+        GLStateCache state = GLStateCache.getInstance();
+        state.blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+        state.bindVertexArray(altVao);
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, altVbo);
 
-        // normalize positions
-        Vector2f position = new Vector2f(positions[0].x / Window.width, -positions[0].y / Window.height);
-        Vector2f size = new Vector2f(positions[1].x / Window.width, positions[1].y / Window.height);
-        // convert
-        position.x = 2 * position.x - 1;
-        position.y = 2 * position.y + 1;
-        size.x = 2 * size.x;
-        size.y = 2 * size.y;
-
-        float[] upperRight = new float[] { position.x + size.x, position.y };
-        float[] lowerRight = new float[] { position.x + size.x, position.y - size.y };
-        float[] upperLeft = new float[] { position.x, position.y };
-        float[] lowerLeft = new float[] { position.x, position.y - size.y };
-
-        FloatBuffer data = MemoryUtil.memAllocFloat(24);
-        data.put(upperRight).put(lowerRight).put(upperLeft).put(lowerRight).put(lowerLeft).put(upperLeft).put(texCoords)
-                .flip();
+        // normalize and convert the positions
+        float left = 2 * positions[0].x / Window.width - 1;
+        float top = -2 * positions[0].y / Window.height + 1;
+        float right = left + 2 * positions[1].x / Window.width;
+        float bottom = top - 2 * positions[1].y / Window.height;
+
+        // upper right, lower right, upper left, lower right, lower left,
+        // upper left
+        FloatBuffer data = FrameArena.getInstance().allocFloat(24);
+        data.put(right).put(top).put(right).put(bottom).put(left).put(top);
+        data.put(right).put(bottom).put(left).put(bottom).put(left).put(top);
+        data.put(texCoords).flip();
         GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_DYNAMIC_DRAW);
 
-        GL11.glDisable(GL11.GL_DEPTH_TEST);
-        GL11.glDisable(GL11.GL_CULL_FACE);
+        state.disable(GL11.GL_DEPTH_TEST);
+        state.disable(GL11.GL_CULL_FACE);
 
         GL11.glDrawArrays(GL11.GL_TRIANGLES, 0, 6);
 
-        GL30.glBindVertexArray(0);
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
-        MemoryUtil.memFree(data);
-
-        GL11.glEnable(GL11.GL_DEPTH_TEST);
-        GL11.glEnable(GL11.GL_CULL_FACE);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
     }
 }
@@ -3,12 +3,17 @@ package core.shader;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL31;
 import org.lwjgl.opengl.GL32;
+import org.lwjgl.system.MemoryUtil;
 
+import core.renderer.GLStateCache;
 import core.shader.ShaderProgram;
 
 /**
@@ -23,9 +28,12 @@ public class ShaderProgram {
 
     public static final int MATRICES_BUFFER_BINDING = 1;
     public static final int DIMENSIONS_BUFFER_BINDING = 2;
+    public static final int FRAME_BUFFER_BINDING = 3;
     protected static final String SHADER_PATH = "res/shaders/";
 
     private int programID;
+    /** handles of the program's uniforms by name (looked up once) */
+    private Map<String, Uniform> uniforms;
 
     public int getProgramID() {
         return programID;
@@ -41,9 +49,25 @@ public class ShaderProgram {
      *            file name of the fragment shader code
      */
     public ShaderProgram(String vertexShaderName, String fragmentShaderName) {
+        this(vertexShaderName, fragmentShaderName, new String[0]);
+    }
 
-        int vertexShaderID = loadShader(vertexShaderName, GL20.GL_VERTEX_SHADER);
-        int fragmentShaderID = loadShader(fragmentShaderName, GL20.GL_FRAGMENT_SHADER);
+    /**
+     * Constructor - loads and compiles the shader files with the given
+     * preprocessor defines and returns the shaderProgram.
+     * 
+     * @param vertexShaderName
+     *            file name of the vertex shader code
+     * @param fragmentShaderName
+     *            file name of the fragment shader code
+     * @param defines
+     *            names defined (#define) in both shaders, e.g. to select the
+     *            variant of an uber shader
+     */
+    public ShaderProgram(String vertexShaderName, String fragmentShaderName, String[] defines) {
+
+        int vertexShaderID = loadShader(vertexShaderName, GL20.GL_VERTEX_SHADER, defines);
+        int fragmentShaderID = loadShader(fragmentShaderName, GL20.GL_FRAGMENT_SHADER, defines);
         this.programID = loadProgram(vertexShaderID, fragmentShaderID);
 
         // do the uniform block bindings
@@ -57,6 +81,13 @@ public class ShaderProgram {
             // bind the shaders programs uniform block to its binding point
             GL31.glUniformBlockBinding(programID, index, ShaderProgram.DIMENSIONS_BUFFER_BINDING);
         }
+
+        if ((index = GL31.glGetUniformBlockIndex(programID, "Frame")) != GL31.GL_INVALID_INDEX) {
+            // bind the shaders programs uniform block to its binding point
+            GL31.glUniformBlockBinding(programID, index, ShaderProgram.FRAME_BUFFER_BINDING);
+        }
+
+        loadUniforms();
     }
 
     /**
@@ -88,6 +119,13 @@ public class ShaderProgram {
             // bind the shaders programs uniform block to its binding point
             GL31.glUniformBlockBinding(programID, index, ShaderProgram.DIMENSIONS_BUFFER_BINDING);
         }
+
+        if ((index = GL31.glGetUniformBlockIndex(programID, "Frame")) != GL31.GL_INVALID_INDEX) {
+            // bind the shaders programs uniform block to its binding point
+            GL31.glUniformBlockBinding(programID, index, ShaderProgram.FRAME_BUFFER_BINDING);
+        }
+
+        loadUniforms();
     }
 
     /**
@@ -100,11 +138,27 @@ public class ShaderProgram {
      * @return shaderID
      */
     private int loadShader(String shaderName, int type) {
+        return loadShader(shaderName, type, new String[0]);
+    }
+
+    /**
+     * Loads shaderCode from the given shaderName, adds the defines and
+     * compiles it.
+     * 
+     * @param shaderName
+     *            file name of the shader
+     * @param type
+     *            shader type (GL_VERTEX_SHADER or GL_FRAGMENT_SHADER)
+     * @param defines
+     *            names to define after the #version line
+     * @return shaderID
+     */
+    private int loadShader(String shaderName, int type, String[] defines) {
 
         // create a new shader in openGL
         int shaderID = GL20.glCreateShader(type);
 
-        CharSequence shaderSource = readFromFile(shaderName);
+        CharSequence shaderSource = addDefines(readFromFile(shaderName), defines);
 
         // set shaderSource as the openGL shaderSource for the shaderID
         GL20.glShaderSource(shaderID, shaderSource);
@@ -124,6 +178,29 @@ public class ShaderProgram {
         return shaderID;
     }
 
+    /**
+     * Inserts a #define for each name after the #version line (which has to
+     * stay the first statement).
+     * 
+     * @param source
+     * @param defines
+     * @return source with the defines
+     */
+    private CharSequence addDefines(CharSequence source, String[] defines) {
+        if (defines.length == 0) {
+            return source;
+        }
+        StringBuilder define = new StringBuilder();
+        for (String name : defines) {
+            define.append("#define ").append(name).append("\n");
+        }
+        StringBuilder result = new StringBuilder(source);
+        int version = result.indexOf("#version");
+        int lineEnd = version < 0 ? -1 : result.indexOf("\n", version);
+        result.insert(lineEnd + 1, define);
+        return result;
+    }
+
     private CharSequence readFromFile(String shaderName) {
         return readFromFile(shaderName, false);
     }
@@ -228,9 +305,34 @@ public class ShaderProgram {
         return programID;
     }
 
+    /**
+     * Queries all active uniforms of the linked program and creates their
+     * handles (uniforms within uniform blocks are skipped).
+     */
+    private void loadUniforms() {
+        uniforms = new HashMap<String, Uniform>();
+        int count = GL20.glGetProgrami(programID, GL20.GL_ACTIVE_UNIFORMS);
+        IntBuffer size = MemoryUtil.memAllocInt(1);
+        IntBuffer type = MemoryUtil.memAllocInt(1);
+        for (int i = 0; i < count; i++) {
+            String name = GL20.glGetActiveUniform(programID, i, size, type);
+            int location = GL20.glGetUniformLocation(programID, name);
+            if (location < 0) {
+                continue;
+            }
+            // arrays are reported as "name[0]"
+            if (name.endsWith("[0]")) {
+                name = name.substring(0, name.length() - 3);
+            }
+            uniforms.put(name, new Uniform(name, location, type.get(0)));
+        }
+        MemoryUtil.memFree(size);
+        MemoryUtil.memFree(type);
+    }
+
     /** Specifies this shader program as the one to use for openGL draw calls */
     public void use() {
-        GL20.glUseProgram(programID);
+        GLStateCache.getInstance().useProgram(programID);
     }
 
     /**
@@ -242,6 +344,26 @@ public class ShaderProgram {
      * @return uniform location of the specified variable
      */
     public int getUniformLocation(String name) {
-        return GL20.glGetUniformLocation(this.programID, name);
+        return getUniform(name).getLocation();
+    }
+
+    /**
+     * Returns the handle of a uniform variable in the shader program. Setting
+     * a value through the handle only reaches OpenGL if the value changed.
+     * The program has to be in use when setting a value.
+     * 
+     * @param name
+     *            of the uniform
+     * @return handle of the uniform (does nothing if the program does not have
+     *         the uniform)
+     */
+    public Uniform getUniform(String name) {
+        Uniform uniform = uniforms.get(name);
+        if (uniform == null) {
+            // remember the missing uniform so it is not looked up again
+            uniform = new Uniform(name, -1, 0);
+            uniforms.put(name, uniform);
+        }
+        return uniform;
     }
 }
@@ -0,0 +1,215 @@
+package core.shader;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.system.MemoryUtil;
+
+import core.math.Matrix4f;
+import core.math.Vector3f;
+
+/**
+ * A handle to a uniform variable of a {@link ShaderProgram}. The location is
+ * looked up once when the program is linked and the last uploaded value is
+ * kept, so that uploading the same value again does not reach OpenGL.</br>
+ * Values shall only be set while the program is in use and only through the
+ * handle (otherwise the kept value gets out of sync). Handles of uniforms the
+ * program does not have ({@link #isActive()} is false) ignore all values.
+ */
+public class Uniform {
+
+    /** scratch buffer for matrix uploads (OpenGL is only used by one thread) */
+    private static FloatBuffer matrixBuffer;
+
+    private final String name;
+    private final int location;
+    private final int type;
+
+    /** the last uploaded float values */
+    private final float[] values;
+    /** the last uploaded int value */
+    private int intValue;
+    /** whether a value was uploaded yet */
+    private boolean uploaded;
+
+    /**
+     * @param name
+     *            of the uniform
+     * @param location
+     *            uniform location (-1 if the program has no such uniform)
+     * @param type
+     *            OpenGL type of the uniform (e.g. GL20.GL_FLOAT_VEC3), 0 if
+     *            unknown
+     */
+    Uniform(String name, int location, int type) {
+        this.name = name;
+        this.location = location;
+        this.type = type;
+        this.values = new float[16];
+        this.uploaded = false;
+    }
+
+    // ===========================================================================
+    // Setter
+    // ===========================================================================
+
+    /**
+     * Uploads an int (also used for samplers).
+     *
+     * @param x
+     */
+    public void set(int x) {
+        if (location < 0 || (uploaded && intValue == x)) {
+            return;
+        }
+        GL20.glUniform1i(location, x);
+        intValue = x;
+        uploaded = true;
+    }
+
+    /**
+     * Uploads a bool (as int 1 or 0).
+     *
+     * @param x
+     */
+    public void set(boolean x) {
+        set(x ? 1 : 0);
+    }
+
+    /**
+     * Uploads a float.
+     *
+     * @param x
+     */
+    public void set(float x) {
+        if (location < 0 || (uploaded && values[0] == x)) {
+            return;
+        }
+        GL20.glUniform1f(location, x);
+        values[0] = x;
+        uploaded = true;
+    }
+
+    /**
+     * Uploads a vec2.
+     *
+     * @param x
+     * @param y
+     */
+    public void set(float x, float y) {
+        if (location < 0 || (uploaded && values[0] == x && values[1] == y)) {
+            return;
+        }
+        GL20.glUniform2f(location, x, y);
+        values[0] = x;
+        values[1] = y;
+        uploaded = true;
+    }
+
+    /**
+     * Uploads a vec3.
+     *
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void set(float x, float y, float z) {
+        if (location < 0 || (uploaded && values[0] == x && values[1] == y && values[2] == z)) {
+            return;
+        }
+        GL20.glUniform3f(location, x, y, z);
+        values[0] = x;
+        values[1] = y;
+        values[2] = z;
+        uploaded = true;
+    }
+
+    /**
+     * Uploads a vec3.
+     *
+     * @param vector
+     */
+    public void set(Vector3f vector) {
+        set(vector.x, vector.y, vector.z);
+    }
+
+    /**
+     * Uploads a vec4.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param w
+     */
+    public void set(float x, float y, float z, float w) {
+        if (location < 0 || (uploaded && values[0] == x && values[1] == y && values[2] == z && values[3] == w)) {
+            return;
+        }
+        GL20.glUniform4f(location, x, y, z, w);
+        values[0] = x;
+        values[1] = y;
+        values[2] = z;
+        values[3] = w;
+        uploaded = true;
+    }
+
+    /**
+     * Uploads a mat4 (without allocating a buffer).
+     *
+     * @param matrix
+     */
+    public void set(Matrix4f matrix) {
+        if (location < 0) {
+            return;
+        }
+        if (matrixBuffer == null) {
+            matrixBuffer = MemoryUtil.memAllocFloat(16);
+        }
+        matrixBuffer.clear();
+        matrix.store(matrixBuffer).flip();
+
+        boolean changed = !uploaded;
+        for (int i = 0; i < 16; i++) {
+            float value = matrixBuffer.get(i);
+            if (values[i] != value) {
+                values[i] = value;
+                changed = true;
+            }
+        }
+        if (changed) {
+            GL20.glUniformMatrix4fv(location, false, matrixBuffer);
+            uploaded = true;
+        }
+    }
+
+    /**
+     * Forgets the last uploaded value, so that the next value is uploaded in
+     * any case.
+     */
+    public void invalidate() {
+        uploaded = false;
+    }
+
+    // ===========================================================================
+    // Getter
+    // ===========================================================================
+
+    /**
+     * @return whether the program has this uniform
+     */
+    public boolean isActive() {
+        return location >= 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLocation() {
+        return location;
+    }
+
+    public int getType() {
+        return type;
+    }
+}
@@ -11,7 +11,11 @@ import java.util.function.Consumer;
  */
 public class UniformSpecialShaderProgram extends ScreenShaderProgram {
 
-    /** Consumer binding the wanted uniforms */
+    /**
+     * Consumer binding the wanted uniforms (shall use
+     * {@link ShaderProgram#getUniform(String)}, so unchanged values are not
+     * uploaded again)
+     */
     protected Consumer<Void> uniforms;
 
     /**
@@ -34,6 +34,8 @@ import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL30;
 
+import core.renderer.GLStateCache;
+
 import static org.lwjgl.stb.STBImage.*;
 
 /**
@@ -82,7 +84,7 @@ public class TextureLoader {
             throw new RuntimeException("Failed to load image: " + stbi_failure_reason());
 
         int texID = GL11.glGenTextures();
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, texID);
+        GLStateCache.getInstance().bindTexture(texID);
         // System.out.println("Image texID: " + texID);
 
         if (comp.get(0) == 3) {
@@ -94,8 +96,8 @@ public class TextureLoader {
             GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, w.get(0), h.get(0), 0, GL11.GL_RGBA,
                     GL11.GL_UNSIGNED_BYTE, image);
 
-            GL11.glEnable(GL11.GL_BLEND);
-            GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+            GLStateCache.getInstance().enable(GL11.GL_BLEND);
+            GLStateCache.getInstance().blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
         }
 
         GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
@@ -103,7 +105,7 @@ public class TextureLoader {
         GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL11.GL_REPEAT);
         GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
         GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+        GLStateCache.getInstance().bindTexture(0);
 
         stbi_image_free(image);
         Texture texture = new Texture(texID);
@@ -159,6 +159,20 @@ public class Interpolator {
         return nextID;
     }
 
+    /**
+     * @return whether an action is running or waiting to run
+     */
+    public boolean isActive() {
+        synchronized (registered) {
+            for (Action action : registered.values()) {
+                if (action.amount != 0 || !action.later.isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /** Executes all registered actions. */
     public synchronized void use() {
         synchronized (registered) {
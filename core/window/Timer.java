@@ -2,6 +2,7 @@ package core.window;
 
 import org.lwjgl.glfw.GLFW;
 
+import core.renderer.FrameArena;
 import utilities.Console;
 
 /**
@@ -44,6 +45,14 @@ public class Timer {
         return GLFW.glfwGetTime();
     }
 
+    /**
+     * @return the time at the start of the current frame (does not query
+     *         glfw)
+     */
+    public double getFrameStart() {
+        return lastFrame;
+    }
+
     public float getDelta() {
         double time = getTime();
         return (float) (time - lastFrame);
@@ -58,11 +67,16 @@ public class Timer {
         frameCount = 0;
     }
 
+    /**
+     * Starts a new frame (the scratch memory of the last frame is released,
+     * see {@link FrameArena}).
+     */
     public void startFrame() {
         double now = getTime();
         frameTime = now - lastFrame;
         lastFrame = now;
         frameCount++;
+        FrameArena.getInstance().reset();
     }
 
     public float timeRunning() {
@@ -19,6 +19,8 @@ import org.lwjgl.opengl.GLUtil;
 import org.lwjgl.opengl.KHRDebug;
 
 import core.model.ModelLoader;
+import core.renderer.FrameInvalidator;
+import core.renderer.GLStateCache;
 import core.texture.TextureLoader;
 
 /**
@@ -34,6 +36,40 @@ public abstract class Window {
     public static boolean fxaa;
     /** if reflection is enabled in the scene */
     public static boolean reflect;
+    /**
+     * if post-processing is done in a single pass (otherwise one pass per
+     * effect)
+     */
+    public static boolean fusedPostProcess;
+    /** if the glowing effects bloom */
+    public static boolean bloom;
+    /**
+     * if the resolution of the 3D passes follows the measured GPU time
+     * (otherwise full resolution)
+     */
+    public static boolean dynamicResolution;
+    /**
+     * if expensive effects are switched off while the frames take too long
+     * (see core.renderer.QualityGovernor)
+     */
+    public static boolean qualityGovernor;
+    /**
+     * if frames are only rendered when something on screen changes (see
+     * core.renderer.FrameInvalidator)
+     */
+    public static boolean onDemandRendering;
+    /**
+     * if the main loop renders fewer and cheaper frames while the window is
+     * unfocused or iconified (see {@link #isThrottled()})
+     */
+    public static boolean backgroundThrottling;
+    /** the frames per second while the main loop is throttled */
+    public static int backgroundFrameRate;
+
+    /** if the window has the input focus (updated by a callback) */
+    private static volatile boolean focused;
+    /** if the window is iconified (updated by a callback) */
+    private static volatile boolean iconified;
 
     /** the window title */
     protected static final String WINDOW_TITLE = "Title";
@@ -46,6 +82,13 @@ public abstract class Window {
         window = 0;
         fullscreen = false;
         fxaa = false;
+        fusedPostProcess = true;
+        bloom = true;
+        dynamicResolution = true;
+        qualityGovernor = true;
+        onDemandRendering = true;
+        backgroundThrottling = true;
+        backgroundFrameRate = 10;
     }
 
     /**
@@ -121,6 +164,8 @@ public abstract class Window {
         // connect opengl context and glfw context
         GLCapabilities caps = GL.createCapabilities();
         GLUtil.setupDebugMessageCallback();
+        // a new context does not have the state of the old one
+        GLStateCache.getInstance().invalidate();
 
         if (caps.OpenGL43)
             glDebugMessageControl(GL_DEBUG_SOURCE_API, GL_DEBUG_TYPE_OTHER, GL_DEBUG_SEVERITY_NOTIFICATION,
@@ -133,10 +178,11 @@ public abstract class Window {
                     (IntBuffer) null, false);
 
         // set the GL viewport that is drawn inside the glfw window
-        GL11.glViewport(0, 0, width, height);
+        GLStateCache.getInstance().viewport(width, height);
 
         // set keybind callbacks
         setKeybinds();
+        setWindowCallbacks();
 
         System.out.println("Window created");
     }
@@ -219,6 +265,36 @@ public abstract class Window {
         }
     }
 
+    /**
+     * Changes the size of the window and of the viewport without recreating
+     * the window or the OpenGL context.
+     * 
+     * @param width
+     * @param height
+     */
+    public void setSize(int width, int height) {
+
+        // check if the window was created
+        if (window == 0) {
+            throw new IllegalStateException("window not created - cannot set size");
+        }
+
+        Window.width = width;
+        Window.height = height;
+
+        GLFWVidMode vidMode = glfwGetVideoMode(glfwGetPrimaryMonitor());
+        if (fullscreen) {
+            glfwSetWindowMonitor(window, glfwGetPrimaryMonitor(), 0, 0, width, height, vidMode.refreshRate());
+        } else {
+            glfwSetWindowSize(window, width, height);
+            // keep the window in the middle
+            glfwSetWindowPos(window, (vidMode.width() - width) / 2, (vidMode.height() - height) / 2);
+        }
+
+        // set the GL viewport that is drawn inside the glfw window
+        GLStateCache.getInstance().viewport(width, height);
+    }
+
     public void setSwapInterval(int interval) {
         this.swapInterval = interval;
         glfwSwapInterval(interval);
@@ -267,6 +343,40 @@ public abstract class Window {
         memFree(w);
     }
 
+    /** Tracks the focus and the iconification of the window */
+    protected void setWindowCallbacks() {
+        focused = glfwGetWindowAttrib(window, GLFW_FOCUSED) == GLFW_TRUE;
+        iconified = glfwGetWindowAttrib(window, GLFW_ICONIFIED) == GLFW_TRUE;
+
+        glfwSetWindowFocusCallback(window, (window, focus) -> {
+            focused = focus;
+            // the frame rate changes
+            FrameInvalidator.getInstance().invalidate();
+        });
+        glfwSetWindowIconifyCallback(window, (window, iconify) -> {
+            iconified = iconify;
+            FrameInvalidator.getInstance().invalidate();
+        });
+    }
+
+    /** Returns if the window has the input focus */
+    public static boolean isFocused() {
+        return focused;
+    }
+
+    /** Returns if the window is iconified */
+    public static boolean isIconified() {
+        return iconified;
+    }
+
+    /**
+     * Returns if the main loop is throttled: {@link #backgroundThrottling} is
+     * enabled and the window is unfocused or iconified
+     */
+    public static boolean isThrottled() {
+        return backgroundThrottling && (!focused || iconified);
+    }
+
     /** Sets the keybinds */
     protected void setKeybinds() {
         glfwSetKeyCallback(window, (window, key, scancode, action, mods) -> {
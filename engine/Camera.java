@@ -22,6 +22,8 @@ public class Camera extends core.objects.Camera {
     private float percentZoom;
 
     private Vector3f center;
+    /** scratch vector from the center to the camera */
+    private final Vector3f direction = new Vector3f();
 
     /**
      * Initializes and allocates the matrices buffer
@@ -181,33 +183,24 @@ public class Camera extends core.objects.Camera {
     protected Matrix4f genViewMatrix() {
 
         // refreshes the position
-        position = calcPosition();
+        calcPosition();
 
         // calculate the camera's coordinate system
-        Vector3f[] coordSys = genCoordSystem(position.subtract(center));
-        Vector3f right, up, forward;
-        forward = coordSys[0];
-        right = coordSys[1];
-        up = coordSys[2];
+        genCoordSystem(position.subtract(center, direction));
 
-        // we move the world, not the camera
-        Vector3f position = this.position.negate();
-
-        return genViewMatrix(forward, right, up, position);
+        return genViewMatrix(position);
     }
 
     /**
      * Calculates the camera's position based on the angles and the distance
-     * from space origin (+upOffset).
-     * 
-     * @return camera position
+     * from space origin (+upOffset), updates {@link #position} in place.
      */
-    private Vector3f calcPosition() {
+    private void calcPosition() {
         float y = (float) (distance * Math.sin(Math.toRadians(pitch)));
         float xzDistance = (float) (distance * Math.cos(Math.toRadians(pitch)));
         float x = (float) (xzDistance * Math.sin(Math.toRadians(rotation)));
         float z = (float) (xzDistance * Math.cos(Math.toRadians(rotation)));
-        return new Vector3f(x + center.x, y + center.y, z + center.z);
+        position.set(x + center.x, y + center.y, z + center.z);
     }
 
     /**
@@ -1,14 +1,15 @@
 package engine;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.function.Consumer;
 
 import org.lwjgl.nanovg.NVGColor;
 import org.lwjgl.nanovg.NanoVG;
-import org.lwjgl.opengl.GL20;
 
 import ai.WorldAnalyser;
 import ai.WorldSimulator;
@@ -27,6 +28,9 @@ import core.math.Vector3f;
 import core.math.Vector4f;
 import core.model.Model;
 import core.model.ModelLoader;
+import core.renderer.FrameArena;
+import core.renderer.FrameInvalidator;
+import core.renderer.GLStateCache;
 import core.renderer.SortedRenderer;
 import core.renderer.VectorRenderer;
 import core.renderer.SortedRenderer.Framebuffer;
@@ -42,7 +46,6 @@ import gui.ClickableField;
 import gui.ClickableOverlay;
 import gui.DirectionSelection;
 import gui.UIView;
-import javafx.scene.shape.Polygon;
 import gui.Draggable;
 import gui.Droppable;
 import gui.MenuView;
@@ -181,6 +184,52 @@ public class ClientViewController {
      * the camera that views the playing field
      */
     Camera camera;
+    /**
+     * the positions (x, y, z) projected in one batch by toScreenCoords
+     */
+    private float[] projectionPoints = new float[3 * 8];
+    /**
+     * the screen coordinates (x, y) of the projected positions
+     */
+    private float[] projectionScreen = new float[2 * 8];
+    /**
+     * the positions (x, y, z) of the labels of this frame, projected in one
+     * batch by renderLabels
+     */
+    private float[] labelPoints = new float[3 * 64];
+    /**
+     * the screen coordinates (x, y) of the labels
+     */
+    private float[] labelScreen = new float[2 * 64];
+    /**
+     * the texts of the labels
+     */
+    private String[] labelTexts = new String[64];
+    /**
+     * the font sizes of the labels
+     */
+    private float[] labelSizes = new float[64];
+    /**
+     * the number of labels added in this frame
+     */
+    private int labelCount;
+    /**
+     * the grid of the clickable fields used for picking (rebuilt when the
+     * overlays change)
+     */
+    private OverlayGrid overlayGrid;
+    /**
+     * the inverse view-projection matrix used to unproject the mouse position
+     */
+    private final Matrix4f inverseViewProjection = new Matrix4f();
+    /**
+     * the start of the ray through the mouse position in world space
+     */
+    private final Vector3f mouseRayOrigin = new Vector3f();
+    /**
+     * the direction of the ray through the mouse position in world space
+     */
+    private final Vector3f mouseRayDirection = new Vector3f();
 
     // Shader
 
@@ -457,38 +506,38 @@ public class ClientViewController {
         // basic shader
         shaderProgram = new ShaderProgram("static.vert", "static.frag");
         shaderProgram.use();
-        GL20.glUniform1i(GL20.glGetUniformLocation(shaderProgram.getProgramID(), "tex"), 0);
+        shaderProgram.getUniform("tex").set(0);
         // border shader
         borderShaderProgram = new ShaderProgram("static.vert", "border.frag");
         borderShaderProgram.use();
         // checkpoint shader
         checkpointShaderProgram = new ShaderProgram("static.vert", "staticCheckpoint.frag");
         checkpointShaderProgram.use();
-        GL20.glUniform1i(GL20.glGetUniformLocation(checkpointShaderProgram.getProgramID(), "tex"), 0);
+        checkpointShaderProgram.getUniform("tex").set(0);
         // wall shader
         wallShaderProgram = new ShaderProgram("static.vert", "staticWall.frag");
         wallShaderProgram.use();
-        GL20.glUniform1i(GL20.glGetUniformLocation(wallShaderProgram.getProgramID(), "tex"), 0);
+        wallShaderProgram.getUniform("tex").set(0);
         // simple matcap shader (portals and laserModels)
         matcapShaderProgram = new ShaderProgram("static.vert", "simpleMatcapShader.frag");
         matcapShaderProgram.use();
-        GL20.glUniform1i(GL20.glGetUniformLocation(matcapShaderProgram.getProgramID(), "tex"), 0);
-        GL20.glUniform1i(GL20.glGetUniformLocation(matcapShaderProgram.getProgramID(), "tex2"), 1);
+        matcapShaderProgram.getUniform("tex").set(0);
+        matcapShaderProgram.getUniform("tex2").set(1);
         // robot shader
         roboShaderProgram = new ShaderProgram("roboShader.vert", "roboShader.frag");
         roboShaderProgram.use();
-        GL20.glUniform1i(roboShaderProgram.getUniformLocation("tex"), 0);
-        GL20.glUniform1i(roboShaderProgram.getUniformLocation("tex2"), 1);
+        roboShaderProgram.getUniform("tex").set(0);
+        roboShaderProgram.getUniform("tex2").set(1);
         // healthField shader
         healthFieldShaderProgram = new ShaderProgram("healthShader.vert", "healthShader.frag");
         healthFieldShaderProgram.use();
-        GL20.glUniform1i(healthFieldShaderProgram.getUniformLocation("tex"), 0);
-        GL20.glUniform1i(healthFieldShaderProgram.getUniformLocation("tex2"), 1);
+        healthFieldShaderProgram.getUniform("tex").set(0);
+        healthFieldShaderProgram.getUniform("tex2").set(1);
         // portal effect shader
         portalShaderProgram = new ShaderProgram("portalShader.vert", "portalShader.frag");
         portalShaderProgram.use();
-        GL20.glUniform1i(portalShaderProgram.getUniformLocation("tex"), 0);
-        GL20.glUniform1i(portalShaderProgram.getUniformLocation("depth"), 1);
+        portalShaderProgram.getUniform("tex").set(0);
+        portalShaderProgram.getUniform("depth").set(1);
         // laser shader
         laserShaderProgram = new LaserShader("laserShader.vert", "laserShader.geom", "laserShader.frag",
                 "res/laser.png");
@@ -498,6 +547,8 @@ public class ClientViewController {
         // define inverse camera for reflections
         Consumer<Boolean> cameraReflect = reflect -> camera.setReflected(reflect);
         renderer.enableMirrorAction(cameraReflect);
+        // cull the models and sort them by their distance to the camera
+        renderer.setCamera(camera);
 
         // enable camera movement
         rotate = Interpolator.getInstance().register(1, (x) -> camera.rotate(x), Interpolator.PARABEL_FUNCTION_BACK,
@@ -612,6 +663,7 @@ public class ClientViewController {
         });
 
         overlays.add(directionSelection);
+        overlayGrid = null;
 
         // click fields for every field
         for (int i = 1; i <= mapDimX; i++) {
@@ -691,6 +743,9 @@ public class ClientViewController {
         renderer.clearRenderModels();
         stopLasers();
         overlays.clear();
+        overlayGrid = null;
+        FrameInvalidator.getInstance().setAnimating(portalShaderProgram, false);
+        FrameInvalidator.getInstance().setAnimating(healthFieldShaderProgram, false);
     }
 
     /**
@@ -759,13 +814,13 @@ public class ClientViewController {
             roboModels.add(robotModel);
             // enable robot animations
             robot.moveX = Interpolator.getInstance().register(totalAnimationTime,
-                    (x) -> robot.model.translate(new Vector3f(x, 0, 0)), Interpolator.PARABEL_FUNCTION, true, true);
+                    (x) -> robot.model.translate(x, 0, 0), Interpolator.PARABEL_FUNCTION, true, true);
             robot.moveY = Interpolator.getInstance().register(totalAnimationTime,
-                    (y) -> robot.model.translate(new Vector3f(0, y, 0)), Interpolator.PARABEL_FUNCTION, true, true);
+                    (y) -> robot.model.translate(0, y, 0), Interpolator.PARABEL_FUNCTION, true, true);
             robot.moveZ = Interpolator.getInstance().register(totalAnimationTime,
-                    (z) -> robot.model.translate(new Vector3f(0, 0, z)), Interpolator.PARABEL_FUNCTION, true, true);
+                    (z) -> robot.model.translate(0, 0, z), Interpolator.PARABEL_FUNCTION, true, true);
             robot.rotate = Interpolator.getInstance().register(totalAnimationTime,
-                    (angle) -> robot.model.rotate(angle, Axis.Y), Interpolator.PARABEL_FUNCTION, true, true);
+                    (angle) -> robot.model.turn(angle, Axis.Y), Interpolator.PARABEL_FUNCTION, true, true);
             robot.scale = Interpolator.getInstance().register(totalAnimationTime,
                     (scale) -> robot.model.scaleAbs(scale), Interpolator.PARABEL_FUNCTION, false, true);
             // used for events where no animations are needed. Calling this does
@@ -825,7 +880,8 @@ public class ClientViewController {
         Model border = ModelLoader.loadModel(BORDER_MODEL_PROTO).copy();
         border.setPosition(new Vector3f(0.5f, 0, 0.5f));
         border.setScale(new Vector3f(mapDimX, (mapDimX + mapDimZ) / 5, mapDimZ));
-        renderer.addRenderModel(border, borderShaderProgram);
+        border.setStatic(true);
+        renderer.addRenderModel(border, borderShaderProgram, false);
 
         // initialize all tiles
         ModelLoader.loadModel(TILE_MODEL_PROTO).setTexture(0, TextureLoader.loadTexture(TILE));
@@ -921,6 +977,8 @@ public class ClientViewController {
             portalEffectModelIn.setTexture(1, TextureLoader.loadTexture(PORTAL_DEPTH));
             portalEffectModelOut.setTexture(0, TextureLoader.loadTexture(PORTAL_OUT_TEX));
             portalEffectModelOut.setTexture(1, TextureLoader.loadTexture(PORTAL_DEPTH));
+            portalEffectModelIn.setTransparent(true);
+            portalEffectModelOut.setTransparent(true);
 
             portalEntryModelList.add(portalEntryModel);
             portalExitModelList.add(portalExitModel);
@@ -930,6 +988,8 @@ public class ClientViewController {
 
         for (HealthField healthField : healthFields) {
             Model healthFieldModel = ModelLoader.loadModel(HEALTH_FIELD_MODEL_PROTO).copy();
+            // the health field pulses in the vertex shader
+            healthFieldModel.setBoundsScale(1.3f);
 
             healthFieldModel.translate(new Vector3f(healthField.getFieldX(), 0f, healthField.getFieldY()));
             healthFieldModel.scale(0.5f);
@@ -950,14 +1010,22 @@ public class ClientViewController {
 
         renderer.addRenderModel(destinationPreview, roboShaderProgram);
 
-        renderer.addRenderModels(tileModelList, shaderProgram);
-        renderer.addRenderModels(wallModelList, wallShaderProgram);
-        renderer.addRenderModels(checkpointModelList, checkpointShaderProgram);
-        renderer.addRenderModels(laserModelList, matcapShaderProgram);
-        renderer.addRenderModels(portalEntryModelList, matcapShaderProgram);
-        renderer.addRenderModels(portalExitModelList, matcapShaderProgram);
+        // the board never moves, it is cached in the renderer's static layer
+        renderer.addRenderModels(asStatic(tileModelList), shaderProgram, false);
+        renderer.addRenderModels(asStatic(wallModelList), wallShaderProgram);
+        renderer.addRenderModels(asStatic(checkpointModelList), checkpointShaderProgram);
+        renderer.addRenderModels(asStatic(laserModelList), matcapShaderProgram);
+        renderer.addRenderModels(asStatic(portalEntryModelList), matcapShaderProgram);
+        renderer.addRenderModels(asStatic(portalExitModelList), matcapShaderProgram);
         renderer.addRenderModels(portalEffectModelList, portalShaderProgram);
-        renderer.addRenderModels(healthFieldModelList, healthFieldShaderProgram);
+        renderer.addRenderModels(healthFieldModelList, healthFieldShaderProgram, false);
+
+        // these shaders are animated by the time, so frames are rendered
+        // continuously while they are on the board
+        FrameInvalidator invalidator = FrameInvalidator.getInstance();
+        invalidator.setAnimating(portalShaderProgram, !portalEffectModelList.isEmpty());
+        invalidator.setAnimating(healthFieldShaderProgram, !healthFieldModelList.isEmpty());
+        invalidator.setAnimating(laserShaderProgram, laserShooting && map.getLasers().length > 0);
     }
 
     /**
@@ -1027,7 +1095,7 @@ public class ClientViewController {
                 }
 
             }
-            renderer.addRenderModels(checkpointModelList, checkpointShaderProgram);
+            renderer.addRenderModels(asStatic(checkpointModelList), checkpointShaderProgram);
             checkpointsChanged = false;
         }
     }
@@ -1050,11 +1118,13 @@ public class ClientViewController {
     public void startLasers() {
         laserShooting = true;
         laserChanged = true;
+        FrameInvalidator.getInstance().setAnimating(laserShaderProgram, map != null && map.getLasers().length > 0);
     }
 
     public void stopLasers() {
         laserShooting = false;
         laserChanged = true;
+        FrameInvalidator.getInstance().setAnimating(laserShaderProgram, false);
     }
 
     /**
@@ -1230,7 +1300,8 @@ public class ClientViewController {
                         newTileModel.setTexture(0, TextureLoader.loadTexture(TILE));
                     }
                 }
-                renderer.addRenderModel(newTileModel, shaderProgram);
+                newTileModel.setStatic(true);
+                renderer.addRenderModel(newTileModel, shaderProgram, false);
                 tileModels[i + 1][j + 1] = newTileModel;
             }
 
@@ -1254,7 +1325,14 @@ public class ClientViewController {
      */
     public boolean checkForClickableOverlays(int x, int y, int mouseButton) {
         ArrayList<Shape> onPosition = new ArrayList<>();
-        for (ClickableOverlay overlay : new ArrayList<>(overlays)) {
+        if (overlayGrid == null || overlayGrid.isOutdated(overlays)) {
+            overlayGrid = new OverlayGrid(new ArrayList<>(overlays));
+        }
+        // the fields: only the shapes where the mouse ray hits the board
+        calcMouseRay(x, y);
+        overlayGrid.pick(mouseRayOrigin, mouseRayDirection, onPosition);
+        // the other overlays are tested one by one
+        for (ClickableOverlay overlay : overlayGrid.getOthers()) {
             if (!overlay.isVisible())
                 continue;
             for (Shape shape : overlay.getShapes()) {
@@ -1276,6 +1354,26 @@ public class ClientViewController {
         return onPosition.size() > 0;
     }
 
+    /**
+     * Calculates the ray from the camera through the given screen position in
+     * world space (by unprojecting the position with the inverse
+     * view-projection matrix).
+     * 
+     * @param x
+     *            the x position on the screen
+     * @param y
+     *            the y position on the screen
+     */
+    private void calcMouseRay(int x, int y) {
+        Matrix4f inverse = camera.getViewProjectionMatrix().invert(inverseViewProjection);
+        float ndcX = 2f * x / Window.width - 1;
+        float ndcY = 1 - 2f * y / Window.height;
+        // the points on the near and the far plane
+        inverse.transformProject(ndcX, ndcY, -1, mouseRayOrigin);
+        inverse.transformProject(ndcX, ndcY, 1, mouseRayDirection);
+        mouseRayDirection.subtract(mouseRayOrigin, mouseRayDirection);
+    }
+
     /**
      * renders all visible clickable overlays to the screen
      */
@@ -1290,9 +1388,11 @@ public class ClientViewController {
                     continue;
                 Vector2f[] positions = shape.getPositions();
                 Vector2f[] screenPositions = new Vector2f[positions.length];
+                float[] screenCoords = toScreenCoords(positions, overlay.getHeight());
                 for (int i = 0; i < positions.length; i++) {
-                    screenPositions[i] = toScreenCoords(
-                            new Vector4f(positions[i].x, overlay.getHeight(), positions[i].y, 1));
+                    if (!Float.isNaN(screenCoords[2 * i])) {
+                        screenPositions[i] = new Vector2f(screenCoords[2 * i], screenCoords[2 * i + 1]);
+                    }
                 }
                 renderPolygon(shape.getColor(), screenPositions);
             }
@@ -1335,7 +1435,20 @@ public class ClientViewController {
                 }
             }
         }
-        renderer.addRenderModels(newTileModelList, shaderProgram);
+        renderer.addRenderModels(asStatic(newTileModelList), shaderProgram, false);
+    }
+
+    /**
+     * Marks the models as static (see {@link Model#setStatic(boolean)}).
+     * 
+     * @param models
+     * @return the models
+     */
+    private List<Model> asStatic(List<Model> models) {
+        for (Model model : models) {
+            model.setStatic(true);
+        }
+        return models;
     }
 
     /**
@@ -1387,20 +1500,13 @@ public class ClientViewController {
         Vector2f[] positions = shape.getPositions();
         if (positions.length == 0)
             return false;
-        double[] coords = new double[positions.length * 2];
 
+        float[] screenCords = toScreenCoords(positions, shape.getHeight());
         for (int i = 0; i < positions.length; i++) {
-            if (positions[i] == null)
-                continue;
-            Vector2f screenCords = toScreenCoords(new Vector4f(positions[i].x, shape.getHeight(), positions[i].y, 1));
-            if (screenCords == null)
+            if (positions[i] != null && Float.isNaN(screenCords[2 * i]))
                 return false;
-            coords[2 * i] = (int) screenCords.x;
-            coords[2 * i + 1] = (int) screenCords.y;
         }
-
-        Polygon polygon = new Polygon(coords);
-        return polygon.contains(cords.x, cords.y);
+        return OverlayGrid.contains(screenCords, positions.length, cords.x, cords.y);
     }
 
     /**
@@ -1413,8 +1519,7 @@ public class ClientViewController {
     public void renderHUD() {
         renderer.bindFramebuffer(Framebuffer.DEFAULT);
         if (SettingsManager.debug)
-            renderText(vRenderer, "" + Timer.getInstance().getFPS(), UIView.CHAT_WINDOW_POS_X, 0, 60f,
-                    NanoVG.NVG_ALIGN_RIGHT | NanoVG.NVG_ALIGN_TOP);
+            renderDebugInfo();
         // test if the countdown should already be displayed
         if (startTimer) {
             // set text color to black
@@ -1438,6 +1543,7 @@ public class ClientViewController {
         case LOBBY_GAME_LEADER:
         case PAUSE:
         case CARDSELECT:
+            labelCount = 0;
             // overlays
             renderClickableOverlays();
             // render number of checkpoint in top of it
@@ -1446,12 +1552,15 @@ public class ClientViewController {
             renderPortalIdentifiers();
             // renders the damage number of the lasers
             renderLaserDMG();
+            // render playernames on top of the robots
+            if (users != null)
+                renderPlayerNames();
+            // project and draw the labels of all of the above
+            renderLabels();
 
             if (users == null)
                 break;
             synchronized (users) {
-                // render playernames on top of the robots
-                renderPlayerNames();
                 // render user list
                 renderUserList();
 
@@ -1481,10 +1590,8 @@ public class ClientViewController {
                     if (users != null && users.get(uid) != null && users.get(uid).getRobot() != null
                             && users.get(uid).getRobot().model != null) {
                         Vector3f pos3f = users.get(uid).getRobot().model.getPosition();
-                        Vector4f pos4f = new Vector4f(pos3f.x, pos3f.y + .5f, pos3f.z, 1);
-                        Vector2f sc = toScreenCoords(pos4f);
-                        if (sc != null && users.get(uid) != null && users.get(uid).getRobot().isOnMap()) {
-                            renderInGameText(users.get(uid).getName(), sc.x, sc.y, fotSize);
+                        if (users.get(uid).getRobot().isOnMap()) {
+                            addLabel(users.get(uid).getName(), pos3f.x, pos3f.y + .5f, pos3f.z, fotSize);
                         }
                     }
                 }
@@ -1503,28 +1610,15 @@ public class ClientViewController {
             ArrayList<Portal> portalMap = new ArrayList<Portal>();
             for (Portal portal : portals) {
                 portalMap.add(portal);
-                Vector4f pos4f1 = new Vector4f(portal.getEndFieldX(), 0.5f, portal.getEndFieldY(), 1);
-                Vector2f sc1 = toScreenCoords(pos4f1);
-                if (sc1 != null) {
-                    if (portalMap.indexOf(portal) < 26) {
-                        renderInGameText("End " + (char) (portalMap.indexOf(portal) + 65), sc1.x, sc1.y, fotSize);
-                    } else {
-                        renderInGameText("End " + (char) (portalMap.indexOf(portal) / 26 + 64) + ""
-                                + (char) (portalMap.indexOf(portal) - (portalMap.indexOf(portal) / 26) * 26 + 65),
-                                sc1.x, sc1.y, fotSize);
-                    }
-                }
-                Vector4f pos4f2 = new Vector4f(portal.getStartFieldX(), 0.5f, portal.getStartFieldY(), 1);
-                Vector2f sc2 = toScreenCoords(pos4f2);
-                if (sc2 != null) {
-                    if (portalMap.indexOf(portal) < 26) {
-                        renderInGameText("Start " + (char) (portalMap.indexOf(portal) + 65), sc2.x, sc2.y, fotSize);
-                    } else {
-                        renderInGameText("Start " + (char) (portalMap.indexOf(portal) / 26 + 64) + ""
-                                + (char) (portalMap.indexOf(portal) - (portalMap.indexOf(portal) / 26) * 26 + 65),
-                                sc2.x, sc2.y, fotSize);
-                    }
+                String identifier;
+                if (portalMap.indexOf(portal) < 26) {
+                    identifier = "" + (char) (portalMap.indexOf(portal) + 65);
+                } else {
+                    identifier = (char) (portalMap.indexOf(portal) / 26 + 64) + ""
+                            + (char) (portalMap.indexOf(portal) - (portalMap.indexOf(portal) / 26) * 26 + 65);
                 }
+                addLabel("End " + identifier, portal.getEndFieldX(), 0.5f, portal.getEndFieldY(), fotSize);
+                addLabel("Start " + identifier, portal.getStartFieldX(), 0.5f, portal.getStartFieldY(), fotSize);
             }
         }
     }
@@ -1547,10 +1641,7 @@ public class ClientViewController {
         if (map != null && map.getCheckpoints() != null) {
             float fontSize = 20f;
             for (Checkpoint cp : map.getCheckpoints()) {
-                Vector4f pos4f = new Vector4f(cp.getPosition()[0], 1.5f, cp.getPosition()[1], 1);
-                Vector2f sc = toScreenCoords(pos4f);
-                if (sc != null)
-                    renderInGameText("" + cp.getNumber(), sc.x, sc.y, fontSize);
+                addLabel("" + cp.getNumber(), cp.getPosition()[0], 1.5f, cp.getPosition()[1], fontSize);
             }
         }
     }
@@ -1920,15 +2011,106 @@ public class ClientViewController {
     }
 
     /**
-     * Converts a 3D position into 2D screen coordinates
+     * Adds a label that is drawn over a position on the playing field by the
+     * next call of renderLabels.
      * 
-     * @param position
-     * @return
+     * @param text
+     * @param x
+     * @param y
+     * @param z
+     * @param fontSize
      */
-    private Vector2f toScreenCoords(Vector4f position) {
-        Vector4f pos = new Vector4f().add(position);
-        pos = camera.getViewMatrix().multiply(pos);
-        return Matrix4f.perspectiveDivision(pos, camera.getFOV(), camera.getAspectRatio());
+    private void addLabel(String text, float x, float y, float z, float fontSize) {
+        if (labelCount == labelTexts.length) {
+            int capacity = labelCount * 2;
+            labelPoints = Arrays.copyOf(labelPoints, 3 * capacity);
+            labelScreen = new float[2 * capacity];
+            labelTexts = Arrays.copyOf(labelTexts, capacity);
+            labelSizes = Arrays.copyOf(labelSizes, capacity);
+        }
+        labelPoints[3 * labelCount] = x;
+        labelPoints[3 * labelCount + 1] = y;
+        labelPoints[3 * labelCount + 2] = z;
+        labelTexts[labelCount] = text;
+        labelSizes[labelCount] = fontSize;
+        labelCount++;
+    }
+
+    /**
+     * Projects the positions of all labels added in this frame in one batch
+     * and draws the labels that are in front of the camera.
+     */
+    private void renderLabels() {
+        if (labelCount > 0 && camera.getViewMatrix().projectToScreen(labelPoints, labelCount, camera.getFOV(),
+                camera.getAspectRatio(), Window.width, Window.height, labelScreen) > 0) {
+            for (int i = 0; i < labelCount; i++) {
+                if (!Float.isNaN(labelScreen[2 * i])) {
+                    renderInGameText(labelTexts[i], labelScreen[2 * i], labelScreen[2 * i + 1], labelSizes[i]);
+                }
+            }
+        }
+        Arrays.fill(labelTexts, 0, labelCount, null);
+        labelCount = 0;
+    }
+
+    /**
+     * Converts the corners of a shape on the playing field into 2D screen
+     * coordinates (in one batch).
+     * 
+     * @param positions
+     *            the corners (x, z), null corners are skipped
+     * @param height
+     *            of the shape above the playing field
+     * @return the screen coordinates packed as x, y (NaN if behind the camera
+     *         or skipped), only valid until the next call
+     */
+    private float[] toScreenCoords(Vector2f[] positions, float height) {
+        int count = positions.length;
+        if (projectionPoints.length < 3 * count) {
+            projectionPoints = new float[3 * count];
+            projectionScreen = new float[2 * count];
+        }
+        for (int i = 0; i < count; i++) {
+            Vector2f position = positions[i];
+            projectionPoints[3 * i] = position == null ? 0 : position.x;
+            projectionPoints[3 * i + 1] = height;
+            projectionPoints[3 * i + 2] = position == null ? 0 : position.y;
+        }
+        camera.getViewMatrix().projectToScreen(projectionPoints, count, camera.getFOV(), camera.getAspectRatio(),
+                Window.width, Window.height, projectionScreen);
+        for (int i = 0; i < count; i++) {
+            if (positions[i] == null) {
+                projectionScreen[2 * i] = Float.NaN;
+                projectionScreen[2 * i + 1] = Float.NaN;
+            }
+        }
+        return projectionScreen;
+    }
+
+    /**
+     * Renders the fps and the renderer statistics of the last frame in the
+     * upper right corner.
+     */
+    private void renderDebugInfo() {
+        renderText(vRenderer, "" + Timer.getInstance().getFPS(), UIView.CHAT_WINDOW_POS_X, 0, 60f,
+                NanoVG.NVG_ALIGN_RIGHT | NanoVG.NVG_ALIGN_TOP);
+        GLStateCache state = GLStateCache.getInstance();
+        renderText(vRenderer, "state changes: " + state.getIssuedCalls() + " (" + state.getSkippedCalls() + " skipped)",
+                UIView.CHAT_WINDOW_POS_X, 60, 20f, NanoVG.NVG_ALIGN_RIGHT | NanoVG.NVG_ALIGN_TOP);
+        renderText(vRenderer, "culled models: " + renderer.getCulledCount(), UIView.CHAT_WINDOW_POS_X, 80, 20f,
+                NanoVG.NVG_ALIGN_RIGHT | NanoVG.NVG_ALIGN_TOP);
+        // the cost of the selected anti-aliasing shows in the scene (MSAA)
+        // and in the post-processing (resolve, FXAA)
+        renderText(vRenderer,
+                String.format("GPU: scene %.2f ms, post-process %.2f ms (%s, scale %.2f)",
+                        renderer.getSceneTime() * 1000, renderer.getPostProcessTime() * 1000,
+                        renderer.getAntiAliasing(), renderer.getRenderScale()),
+                UIView.CHAT_WINDOW_POS_X, 100, 20f, NanoVG.NVG_ALIGN_RIGHT | NanoVG.NVG_ALIGN_TOP);
+        FrameArena arena = FrameArena.getInstance();
+        renderText(vRenderer,
+                String.format("frame arena: %d KB used, %d KB peak of %d KB", arena.getUsed() / 1024,
+                        arena.getHighWaterMark() / 1024, arena.getCapacity() / 1024),
+                UIView.CHAT_WINDOW_POS_X, 120, 20f, NanoVG.NVG_ALIGN_RIGHT | NanoVG.NVG_ALIGN_TOP);
     }
 
     /**
@@ -2184,6 +2366,14 @@ public class ClientViewController {
         vRenderer.render(func);
     }
 
+    /**
+     * @return whether the turn countdown is displayed (it changes without an
+     *         event)
+     */
+    public boolean isCountdownVisible() {
+        return startTimer && tTimer != null;
+    }
+
     /**
      * resets the timer
      */
@@ -2622,22 +2812,20 @@ public class ClientViewController {
             ArrayList<Laser> laserMap = new ArrayList<Laser>();
             for (Laser laser : lasers) {
                 laserMap.add(laser);
-                Vector4f pos4f;
+                float x = laser.getFieldX();
+                float z = laser.getFieldY();
 
                 if (laser.getDirection() == Orientation.UP) {
-                    pos4f = new Vector4f(laser.getFieldX(), 0.5f, laser.getFieldY() + 0.4f, 1);
+                    z += 0.4f;
                 } else if (laser.getDirection() == Orientation.DOWN) {
-                    pos4f = new Vector4f(laser.getFieldX(), 0.5f, laser.getFieldY() - 0.4f, 1);
+                    z -= 0.4f;
                 } else if (laser.getDirection() == Orientation.LEFT) {
-                    pos4f = new Vector4f(laser.getFieldX() + 0.4f, 0.5f, laser.getFieldY(), 1);
+                    x += 0.4f;
                 } else {
-                    pos4f = new Vector4f(laser.getFieldX() - 0.4f, 0.5f, laser.getFieldY(), 1);
+                    x -= 0.4f;
                 }
 
-                Vector2f sc = toScreenCoords(pos4f);
-                if (sc != null) {
-                    renderInGameText("" + laser.getDamage(), sc.x, sc.y, fotSize);
-                }
+                addLabel("" + laser.getDamage(), x, 0.5f, z, fotSize);
             }
         }
     }
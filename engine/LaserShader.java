@@ -4,24 +4,26 @@ import java.nio.FloatBuffer;
 import java.util.HashMap;
 
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL14;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
-import org.lwjgl.system.MemoryUtil;
 
 import constants.LaserColor;
 import core.math.Vector3f;
+import core.renderer.FrameArena;
+import core.renderer.GLStateCache;
+import core.shader.Uniform;
 import core.shader.UniformSpecialShaderProgram;
 import core.texture.TextureLoader;
-import core.window.Timer;
 import utilities.Console;
 
 public class LaserShader extends UniformSpecialShaderProgram {
 
     /** HashMap(LaserColor, int[vao, vbo, vertexCount]) */
     private HashMap<LaserColor, int[]> laser;
+    /** the colors (iterated each frame without allocating) */
+    private final LaserColor[] colors;
     private int textureID;
 
     public LaserShader(String vertexShaderName, String geometryShaderName, String fragmentShaderName,
@@ -29,10 +31,11 @@ public class LaserShader extends UniformSpecialShaderProgram {
         super(vertexShaderName, geometryShaderName, fragmentShaderName);
         textureID = TextureLoader.loadTexture(textureName).getTextureID();
         laser = new HashMap<LaserColor, int[]>();
-        for (LaserColor color : LaserColor.values()) {
+        colors = LaserColor.values();
+        for (LaserColor color : colors) {
             // initialize openGL object
             int vao = GL30.glGenVertexArrays();
-            GL30.glBindVertexArray(vao);
+            GLStateCache.getInstance().bindVertexArray(vao);
             int vbo = GL15.glGenBuffers();
             GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
             // setup attrib location
@@ -40,7 +43,7 @@ public class LaserShader extends UniformSpecialShaderProgram {
             GL20.glEnableVertexAttribArray(0);
 
             laser.put(color, new int[] { vao, vbo, 0 });
-            GL30.glBindVertexArray(0);
+            GLStateCache.getInstance().bindVertexArray(0);
             GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
 
         }
@@ -61,15 +64,13 @@ public class LaserShader extends UniformSpecialShaderProgram {
             int[] glObject = this.laser.get(laserColor);
             glObject[2] = positions.length;
             GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, glObject[1]);
-            FloatBuffer buffer = MemoryUtil.memAllocFloat(3 * positions.length);
+            FloatBuffer buffer = FrameArena.getInstance().allocFloat(3 * positions.length);
             for (int i = 0; i < positions.length; i++) {
-                buffer.put(new float[] { positions[i].x, positions[i].y, positions[i].z });
+                buffer.put(positions[i].x).put(positions[i].y).put(positions[i].z);
             }
             buffer.flip();
             GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
             GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
-
-            MemoryUtil.memFree(buffer);
         }
     }
 
@@ -93,30 +94,26 @@ public class LaserShader extends UniformSpecialShaderProgram {
 
     @Override
     public void render() {
-        GL11.glDisable(GL11.GL_CULL_FACE);
-        GL11.glDepthMask(false);
-        GL11.glEnable(GL11.GL_BLEND);
-        GL20.glBlendEquationSeparate(GL14.GL_FUNC_ADD, GL14.GL_MAX);
+        GLStateCache state = GLStateCache.getInstance();
+        state.enable(GL11.GL_DEPTH_TEST);
+        state.disable(GL11.GL_CULL_FACE);
+        state.depthMask(false);
+        state.enable(GL11.GL_BLEND);
+        state.blendEquationSeparate(GL14.GL_FUNC_ADD, GL14.GL_MAX);
 
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
-        for (LaserColor color : laser.keySet()) {
-            Vector3f rgb = color.getRGB();
-            FloatBuffer proj = Camera.getInstance().getProjectionMatrix().getBuffer();
-            FloatBuffer view = Camera.getInstance().getViewMatrix().getBuffer();
-            GL20.glUniform3f(this.getUniformLocation("laserColor"), rgb.x, rgb.y, rgb.z);
-            GL20.glUniform1f(this.getUniformLocation("time"), (float) Timer.getInstance().getTime());
-            GL20.glUniformMatrix4fv(this.getUniformLocation("projectionMatrix"), false, proj);
-            GL20.glUniformMatrix4fv(this.getUniformLocation("viewMatrix"), false, view);
-            GL30.glBindVertexArray(laser.get(color)[0]);
-            GL11.glDrawArrays(GL11.GL_LINES, 0, laser.get(color)[2]);
-            GL30.glBindVertexArray(0);
-            MemoryUtil.memFree(proj);
-            MemoryUtil.memFree(view);
+        state.bindTexture(0, textureID);
+        Uniform laserColor = getUniform("laserColor");
+        getUniform("projectionMatrix").set(Camera.getInstance().getProjectionMatrix());
+        getUniform("viewMatrix").set(Camera.getInstance().getViewMatrix());
+        for (LaserColor color : colors) {
+            int[] glObject = laser.get(color);
+            laserColor.set(color.getRGB());
+            state.bindVertexArray(glObject[0]);
+            GL11.glDrawArrays(GL11.GL_LINES, 0, glObject[2]);
         }
-        GL11.glEnable(GL11.GL_CULL_FACE);
-        GL11.glDepthMask(true);
-        GL20.glBlendEquationSeparate(GL14.GL_FUNC_ADD, GL14.GL_FUNC_ADD);
+        // depth mask and blend equation are expected by all other renderers
+        state.depthMask(true);
+        state.blendEquation(GL14.GL_FUNC_ADD);
     }
 
 }
@@ -3,17 +3,25 @@ package engine;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import org.lwjgl.glfw.GLFW;
 import org.lwjgl.nuklear.NkColor;
 import org.lwjgl.nuklear.Nuklear;
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL20;
 
 import client.MainClient;
 import client.User;
 import constants.MenuState;
+import core.renderer.Bloom;
+import core.renderer.DynamicResolution;
+import core.renderer.FrameInvalidator;
+import core.renderer.FrameUniforms;
+import core.renderer.FusedPostProcess;
+import core.renderer.GLStateCache;
+import core.renderer.PostProcessGraph;
+import core.renderer.QualityGovernor;
+import core.renderer.QualityGovernor.Tier;
 import core.renderer.SortedRenderer;
 import core.renderer.SortedRenderer.Framebuffer;
+import core.renderer.SortedRenderer.ReflectionTechnique;
 import core.renderer.UIRenderer;
 import core.renderer.VectorRenderer;
 import core.shader.ScreenShaderProgram;
@@ -42,8 +50,8 @@ public class MainGameLoop implements Runnable {
     /** main class for menus */
     private MenuView menuView;
 
-    /** a flag for changing the screen size */
-    private boolean resolutionChanged;
+    /** a flag for resizing the window and the framebuffers */
+    private boolean resizeRequested;
 
     /** the screen width of the window */
     private int targetWidth = 1280;
@@ -51,6 +59,12 @@ public class MainGameLoop implements Runnable {
     /** the screen height of the window */
     private int targetHeight = 720;
 
+    /**
+     * how often in seconds the frame is refreshed while the turn countdown is
+     * displayed (and nothing else changes)
+     */
+    private static final double COUNTDOWN_REFRESH = 0.25;
+
     /**
      * Constructor
      * 
@@ -81,7 +95,6 @@ public class MainGameLoop implements Runnable {
         }
         mainClient = client;
         menuView = new MenuView(client);
-        resolutionChanged = false;
     }
 
     /**
@@ -90,99 +103,193 @@ public class MainGameLoop implements Runnable {
      * manages events
      */
     public void run() {
-        UIRenderer uiRenderer;
         UIController uiController = new UIController();
-        // loop for resizing the window
-        do {
-            this.resolutionChanged = false;
-            Window window = Window.getInstance();
-
-            // initialize the window
-            window.init();
-            // create a new window with the screen size
-            window.create(targetWidth, targetHeight);
-
-            // Interval(1) => Framerate = Screen refresh rate
-            window.setSwapInterval(1);
-
-            Timer timer = Timer.getInstance();
-
-            SortedRenderer renderer = new SortedRenderer();
-            VectorRenderer vRenderer = new VectorRenderer();
-
-            uiRenderer = new UIRenderer();
-            uiRenderer.init();
-            uiController.keybinds(Window.window, uiRenderer.getContext());
-            menuView.setUiRenderer(uiRenderer);
-
-            // initzialize the shader
-            ScreenShaderProgram postProcessCombineShader = new ScreenShaderProgram("screenShader.vert",
-                    "postProcessCombine.frag");
-            postProcessCombineShader.use();
-            GL20.glUniform1i(postProcessCombineShader.getUniformLocation("scene"), 0);
-            GL20.glUniform1i(postProcessCombineShader.getUniformLocation("reflection"), 1);
-            GL20.glUniform1i(postProcessCombineShader.getUniformLocation("effect"), 2);
-            GL20.glUniform1i(postProcessCombineShader.getUniformLocation("glow"), 3);
-
-            ScreenShaderProgram postProcessBloomShader = new ScreenShaderProgram("screenShader.vert",
-                    "postProcessBloom.frag");
-            postProcessBloomShader.use();
-            GL20.glUniform1i(postProcessBloomShader.getUniformLocation("image"), 0);
-
-            ScreenShaderProgram postProcessSharpenShader = new ScreenShaderProgram("screenShader.vert",
-                    "postProcessSharpen.frag");
-            postProcessSharpenShader.use();
-            GL20.glUniform1i(postProcessSharpenShader.getUniformLocation("image"), 0);
-
-            // ====== Start MainClient
-
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        Window window = Window.getInstance();
+
+        // initialize the window
+        window.init();
+        // create a new window with the screen size
+        window.create(targetWidth, targetHeight);
+
+        // Interval(1) => Framerate = Screen refresh rate
+        window.setSwapInterval(1);
+
+        Timer timer = Timer.getInstance();
+
+        SortedRenderer renderer = new SortedRenderer();
+        VectorRenderer vRenderer = new VectorRenderer();
+
+        UIRenderer uiRenderer = new UIRenderer();
+        uiRenderer.init();
+        uiController.keybinds(Window.window, uiRenderer.getContext());
+        menuView.setUiRenderer(uiRenderer);
+
+        // initzialize the shader
+        ScreenShaderProgram postProcessCombineShader = new ScreenShaderProgram("screenShader.vert",
+                "postProcessCombine.frag");
+        postProcessCombineShader.use();
+        postProcessCombineShader.getUniform("scene").set(0);
+        postProcessCombineShader.getUniform("reflection").set(1);
+        postProcessCombineShader.getUniform("effect").set(2);
+        postProcessCombineShader.getUniform("glow").set(3);
+
+        ScreenShaderProgram postProcessSharpenShader = new ScreenShaderProgram("screenShader.vert",
+                "postProcessSharpen.frag");
+        postProcessSharpenShader.use();
+        postProcessSharpenShader.getUniform("image").set(0);
+
+        ScreenShaderProgram screenSpaceReflectionShader = new ScreenShaderProgram("screenSpaceReflection.vert",
+                "screenSpaceReflection.frag");
+        screenSpaceReflectionShader.use();
+        screenSpaceReflectionShader.getUniform("scene").set(0);
+        screenSpaceReflectionShader.getUniform("depth").set(1);
+        screenSpaceReflectionShader.getUniform("glow").set(2);
+
+        // single pass alternative (variants compiled when needed)
+        FusedPostProcess fusedPostProcess = new FusedPostProcess();
+        Bloom bloom = new Bloom();
+
+        // the passes are rebuilt when one is switched on or off
+        PostProcessGraph postProcess = renderer.getPostProcessGraph();
+        int postProcessSettings = -1;
+
+        // the 3D passes are rendered in a lower resolution when the GPU
+        // needs longer than a frame at the screen refresh rate
+        DynamicResolution dynamicResolution = new DynamicResolution(1 / 60f, SortedRenderer.MIN_RENDER_SCALE, 1f);
+        // switches effects off when even the lowest resolution is too slow
+        QualityGovernor quality = QualityGovernor.getInstance();
+        float cpuTime = 0;
+        // decides whether a frame is rendered at all
+        FrameInvalidator invalidator = FrameInvalidator.getInstance();
+        // when the last frame was rendered (limits the background frame
+        // rate)
+        double lastRender = 0;
+
+        // ====== Start MainClient
+
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        viewController = new ClientViewController(renderer, menuView, mainClient);
+        uiController.cvc = viewController;
+        viewController.setVectorRenderer(vRenderer);
 
-            viewController = new ClientViewController(renderer, menuView, mainClient);
-            uiController.cvc = viewController;
-            viewController.setVectorRenderer(vRenderer);
+        GL11.glClearColor(1f, 1f, 1f, 1.f);
+        GLStateCache.getInstance().enable(GL11.GL_BLEND);
+        GLStateCache.getInstance().enable(GL11.GL_DEPTH_TEST);
+        GL11.glCullFace(GL11.GL_BACK);
 
-            GL11.glClearColor(1f, 1f, 1f, 1.f);
-            GL11.glEnable(GL11.GL_BLEND);
-            GL11.glEnable(GL11.GL_DEPTH_TEST);
-            GL11.glCullFace(GL11.GL_BACK);
+        NkColor clear = NkColor.create();
+        Nuklear.nk_rgba(10, 10, 10, 0, clear);
 
-            NkColor clear = NkColor.create();
-            Nuklear.nk_rgba(10, 10, 10, 0, clear);
+        System.out.println("\nGame Loop started");
+        // main window loop
+        try {
+            while (!window.isCloseRequested()) {
+                if (resizeRequested) {
+                    resize(window, renderer);
+                }
 
-            System.out.println("\nGame Loop started");
-            // main window loop
-            try {
-                while (!window.isCloseRequested()) {
-                    timer.startFrame();
+                // every iteration advances the interpolator, rendered or
+                // not
+                timer.startFrame();
+
+                // renders only if something on screen changes
+                boolean wasDirty = invalidator.isDirty();
+                boolean redraw = !Window.onDemandRendering || invalidator.needsRedraw(Camera.getInstance());
+                // without a frame: wait until an event arrives (0) or
+                // the countdown changes
+                double wait = 0;
+                boolean redrawAfterWait = false;
+                if (viewController.isCountdownVisible()) {
+                    wait = COUNTDOWN_REFRESH;
+                    redrawAfterWait = true;
+                }
+                // in the background: few frames without mirror and
+                // post-processing, none while iconified
+                boolean throttled = Window.isThrottled();
+                renderer.setLowPower(throttled);
+                if (throttled) {
+                    double period = 1.0 / Math.max(Window.backgroundFrameRate, 1);
+                    double next = lastRender + period - timer.getTime();
+                    if (Window.isIconified()) {
+                        redraw = false;
+                        wait = period;
+                        redrawAfterWait = false;
+                    } else if (redraw && next > 0) {
+                        // sleeps until the next frame is due (the frame
+                        // is still needed afterwards)
+                        redraw = false;
+                        wait = next;
+                        redrawAfterWait = false;
+                    }
+                }
+                if (redraw) {
+                    invalidator.frameStarted();
+                    lastRender = timer.getFrameStart();
+                    GLStateCache.getInstance().nextFrame();
+                    // (the times of the cheaper background frames say
+                    // nothing about the full ones)
+                    if (Window.qualityGovernor && !throttled) {
+                        // the resolution adapts first, the effects only
+                        // when it reached its limit
+                        float scale = renderer.getRenderScale();
+                        quality.update(Math.max(cpuTime, renderer.getGpuTime()),
+                                !Window.dynamicResolution || scale <= SortedRenderer.MIN_RENDER_SCALE,
+                                !Window.dynamicResolution || scale >= 1);
+                    } else if (!Window.qualityGovernor && quality.getTier() != Tier.HIGH) {
+                        quality.setTier(Tier.HIGH);
+                    }
+                    FrameUniforms.getInstance().beginFrame();
 
+                    if (Window.dynamicResolution && !throttled) {
+                        renderer.setRenderScale(dynamicResolution.update(renderer.getGpuTime()));
+                    } else if (!Window.dynamicResolution) {
+                        dynamicResolution.reset();
+                        renderer.setRenderScale(1);
+                    }
+                    // the GPU time of the scene and the post-processing is
+                    // measured from here (the frame time itself is hidden by
+                    // the swap interval)
                     renderer.clearFramebuffers();
                     renderer.prepare();
 
                     viewController.render();
 
-                    renderer.postProcessCombine(postProcessCombineShader);
-
-                    // postProcessBloomShader.use();
-                    // for (int i = 0; i < 2; i++) {
-                    // GL20.glUniform1i(postProcessBloomShader.getUniformLocation("horizontal"),
-                    // 0);
-                    // renderer.postProcess(postProcessBloomShader, 0.2f,
-                    // Framebuffer.SPARE);
-                    // GL20.glUniform1i(postProcessBloomShader.getUniformLocation("horizontal"),
-                    // 1);
-                    // renderer.postProcess(postProcessBloomShader, 0.2f,
-                    // Framebuffer.SPARE);
-                    // }
-
-                    if (SettingsManager.sharpen > 0) {
-                        renderer.postProcess(postProcessSharpenShader, SettingsManager.sharpen);
+                    boolean fxaa = quality.useFxaa();
+                    boolean sharpen = quality.useSharpen(SettingsManager.sharpen);
+                    boolean useBloom = quality.useBloom(Window.bloom);
+                    boolean screenSpaceReflection = quality.useReflection()
+                            && renderer.getReflectionTechnique() == ReflectionTechnique.SCREEN_SPACE;
+                    int settings = (Window.fusedPostProcess ? 1 : 0) | (fxaa ? 2 : 0) | (sharpen ? 4 : 0)
+                            | (screenSpaceReflection ? 8 : 0) | (useBloom ? 16 : 0);
+                    if (settings != postProcessSettings) {
+                        postProcessSettings = settings;
+                        postProcess.clearPasses();
+                        String reflection = "mirror";
+                        if (screenSpaceReflection) {
+                            // traced in the scene instead of the mirror pass
+                            reflection = "reflection";
+                            postProcess.addScaledPass(screenSpaceReflectionShader, null, reflection, "scene",
+                                    "depth", "glow");
+                        }
+                        // the bloom is added last
+                        String output = useBloom ? "image" : PostProcessGraph.SCREEN;
+                        if (Window.fusedPostProcess) {
+                            fusedPostProcess.addPass(postProcess, reflection, fxaa, sharpen, output);
+                        } else {
+                            buildPostProcess(postProcess, reflection, output, postProcessCombineShader,
+                                    sharpen ? postProcessSharpenShader : null);
+                        }
+                        if (useBloom) {
+                            bloom.addPasses(postProcess, output, PostProcessGraph.SCREEN);
+                        }
                     }
-                    renderer.renderResultToScreen();
+                    // combine (sharpen, bloom), the last pass draws to the screen
+                    renderer.postProcess();
 
                     // render UI over the rest to the default framebuffer
                     renderer.bindFramebuffer(Framebuffer.DEFAULT);
@@ -191,31 +298,54 @@ public class MainGameLoop implements Runnable {
                     uiRenderer.render();
                     vRenderer.setColor(1.f, .0f, 1.f, 1f);
 
+                    // the work of the frame, without waiting for the swap
+                    cpuTime = (float) (timer.getTime() - timer.getFrameStart());
+
                     // swap buffers (show last rendered image)
                     window.swapBuffers();
 
                     // polls input and syncs to framerate
                     uiRenderer.input();
-                    menuView.show();
-
-                    Interpolator.getInstance().use();
-
-                    if (!resolutionChanged && window.isCloseRequested()) {
-                        menuView.endGame();
-                        window.cancelCloseRequest();
+                } else {
+                    // the last frame stays on screen, wait for input (or
+                    // an invalidation from another thread) instead
+                    uiRenderer.discard();
+                    invalidator.setWaiting(true);
+                    boolean events;
+                    if (!wasDirty && invalidator.isDirty()) {
+                        // invalidated after the check above but before the
+                        // loop was waiting (no event was posted)
+                        events = true;
+                    } else {
+                        events = uiRenderer.waitInput(wait);
+                    }
+                    invalidator.setWaiting(false);
+                    // show the reaction to the input (or the next second
+                    // of the countdown) in the next frame
+                    if (events || redrawAfterWait) {
+                        invalidator.invalidate();
                     }
+                }
+                menuView.show();
 
-                    mainClient.windowStarted.countDown();
+                Interpolator.getInstance().use();
 
-                    // timer.printFPS(1);
+                if (window.isCloseRequested()) {
+                    menuView.endGame();
+                    window.cancelCloseRequest();
                 }
-            } catch (IllegalStateException e) {
-                return;
+
+                mainClient.windowStarted.countDown();
+
+                // timer.printFPS(1);
             }
+        } catch (IllegalStateException e) {
+            return;
+        }
 
-            uiRenderer.cleanUp();
-            viewController.cleanUp();
-        } while (resolutionChanged);
+        renderer.delete();
+        uiRenderer.cleanUp();
+        viewController.cleanUp();
 
         menuView.getMenuLogic().stopServer();
         mainClient.close();
@@ -230,6 +360,7 @@ public class MainGameLoop implements Runnable {
      */
     public void displayMap(Map map) {
         viewController.displayMap(map);
+        FrameInvalidator.getInstance().invalidate();
     }
 
     /**
@@ -239,6 +370,7 @@ public class MainGameLoop implements Runnable {
      */
     public void displayUsers(HashMap<Integer, User> users) {
         viewController.displayUsers(users);
+        FrameInvalidator.getInstance().invalidate();
     }
 
     /**
@@ -250,6 +382,7 @@ public class MainGameLoop implements Runnable {
         viewController.clearModels();
         Interpolator.getInstance().clearAllExcept(new Integer[] { viewController.moveX, viewController.moveZ,
                 viewController.pitch, viewController.rotate, viewController.zoom });
+        FrameInvalidator.getInstance().invalidate();
     }
 
     /**
@@ -259,6 +392,7 @@ public class MainGameLoop implements Runnable {
         menuView.updateUsers(users);
         viewController.removeAllUsersFromHUD();
         viewController.displayUsers(users);
+        FrameInvalidator.getInstance().invalidate();
     }
 
     /**
@@ -268,6 +402,7 @@ public class MainGameLoop implements Runnable {
      */
     public void displayRobots(ArrayList<RobotController> robots) {
         viewController.displayRobots(robots);
+        FrameInvalidator.getInstance().invalidate();
     }
 
     /**
@@ -278,6 +413,7 @@ public class MainGameLoop implements Runnable {
      */
     public void updateCheckpointModels() {
         viewController.updateCheckpoints(false);
+        FrameInvalidator.getInstance().invalidate();
     }
 
     /**
@@ -285,6 +421,7 @@ public class MainGameLoop implements Runnable {
      */
     public void gotConnected() {
         menuView.getMenuLogic().setState(MenuState.GAME_RUNNING, true);
+        FrameInvalidator.getInstance().invalidate();
     }
 
     /**
@@ -303,6 +440,7 @@ public class MainGameLoop implements Runnable {
      */
     public void setState(MenuState state) {
         menuView.setState(state);
+        FrameInvalidator.getInstance().invalidate();
     }
 
     /**
@@ -313,6 +451,7 @@ public class MainGameLoop implements Runnable {
      */
     public void setState(MenuState state, String winner) {
         menuView.setState(state, winner);
+        FrameInvalidator.getInstance().invalidate();
     }
 
     /**
@@ -322,6 +461,7 @@ public class MainGameLoop implements Runnable {
      */
     public void setReset(boolean firstRound) {
         viewController.reset(firstRound);
+        FrameInvalidator.getInstance().invalidate();
     }
 
     /**
@@ -329,6 +469,7 @@ public class MainGameLoop implements Runnable {
      */
     public void setStartTimer() {
         viewController.setStartTimer(mainClient.getStartTimer());
+        FrameInvalidator.getInstance().invalidate();
     }
 
     /**
@@ -340,8 +481,51 @@ public class MainGameLoop implements Runnable {
     public void setTargetWidth(int targetWidth, int targetHeight) {
         this.targetWidth = targetWidth;
         this.targetHeight = targetHeight;
-        this.resolutionChanged = true;
-        GLFW.glfwSetWindowShouldClose(Window.window, true);
+        // applied at the start of the next frame
+        this.resizeRequested = true;
+        FrameInvalidator.getInstance().invalidate();
+    }
+
+    /**
+     * Resizes the window and reallocates the framebuffers of the renderer to
+     * the target size (the OpenGL context, shaders, models and textures are
+     * kept).
+     * 
+     * @param window
+     * @param renderer
+     */
+    private void resize(Window window, SortedRenderer renderer) {
+        resizeRequested = false;
+        FrameInvalidator.getInstance().invalidate();
+        window.setSize(targetWidth, targetHeight);
+        renderer.resize(targetWidth, targetHeight);
+        if (Camera.getInstance() != null) {
+            Camera.getInstance().setDimensions(targetWidth, targetHeight);
+        }
+    }
+
+    /**
+     * Adds the post-processing passes (one per effect): combining the scene,
+     * reflection and effects and optionally sharpening the result.
+     * 
+     * @param graph
+     * @param reflection
+     *            name of the reflection texture in the graph
+     * @param output
+     *            name of the result (or {@link PostProcessGraph#SCREEN})
+     * @param combineShader
+     * @param sharpenShader
+     *            null if the result is not sharpened
+     */
+    private void buildPostProcess(PostProcessGraph graph, String reflection, String output,
+            ScreenShaderProgram combineShader, ScreenShaderProgram sharpenShader) {
+        String combined = sharpenShader == null ? output : "combined";
+        graph.addPass(combineShader, null, combined, "scene", reflection, "effect", "glow");
+
+        if (sharpenShader != null) {
+            graph.addPass(sharpenShader, shader -> shader.getUniform("strength").set(SettingsManager.sharpen),
+                    output, combined);
+        }
     }
 
     /**
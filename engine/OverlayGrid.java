@@ -0,0 +1,244 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import core.math.Vector2f;
+import core.math.Vector3f;
+import gui.ClickableField;
+import gui.ClickableOverlay;
+import gui.Shape;
+
+/**
+ * A uniform grid over the playing field (one cell per field) holding the
+ * shapes of the clickable fields, so picking only tests the shapes around the
+ * point on the board the mouse ray hits instead of all shapes.</br>
+ * </br>
+ * The shapes of the fields never move, so the grid is only built when the
+ * overlays change. Other overlays (e.g. the direction selection) are not
+ * indexed and kept in a list to be tested one by one.
+ */
+public class OverlayGrid {
+
+    /** the number of overlays the grid was built from */
+    private final int overlayCount;
+    /** the overlays that are not indexed */
+    private final List<ClickableOverlay> others;
+
+    /** the field coordinates of the first cell */
+    private int minX, minZ;
+    /** number of cells in the x and z direction */
+    private int width, depth;
+    /** the entries of each cell (index: x + z * width) */
+    private List<List<Entry>> cells;
+    /** the distinct heights of the indexed shapes */
+    private final List<Float> heights;
+
+    /**
+     * Builds the grid from the clickable fields of the overlays.
+     *
+     * @param overlays
+     *            all overlays
+     */
+    public OverlayGrid(List<ClickableOverlay> overlays) {
+        this.overlayCount = overlays.size();
+        this.others = new ArrayList<ClickableOverlay>();
+        this.heights = new ArrayList<Float>();
+
+        List<Entry> entries = new ArrayList<Entry>();
+        float minX = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        for (ClickableOverlay overlay : overlays) {
+            if (!(overlay instanceof ClickableField)) {
+                others.add(overlay);
+                continue;
+            }
+            for (Shape shape : overlay.getShapes()) {
+                Entry entry = new Entry(overlay, shape);
+                if (entry.minX > entry.maxX) {
+                    // no corners
+                    continue;
+                }
+                entries.add(entry);
+                minX = Math.min(minX, entry.minX);
+                minZ = Math.min(minZ, entry.minZ);
+                maxX = Math.max(maxX, entry.maxX);
+                maxZ = Math.max(maxZ, entry.maxZ);
+                if (!heights.contains(entry.height)) {
+                    heights.add(entry.height);
+                }
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        this.minX = (int) Math.floor(minX);
+        this.minZ = (int) Math.floor(minZ);
+        this.width = (int) Math.floor(maxX) - this.minX + 1;
+        this.depth = (int) Math.floor(maxZ) - this.minZ + 1;
+        this.cells = new ArrayList<List<Entry>>(width * depth);
+        for (int i = 0; i < width * depth; i++) {
+            cells.add(new ArrayList<Entry>(2));
+        }
+        // add each shape to all cells its bounds overlap
+        for (Entry entry : entries) {
+            for (int z = cellZ(entry.minZ); z <= cellZ(entry.maxZ); z++) {
+                for (int x = cellX(entry.minX); x <= cellX(entry.maxX); x++) {
+                    cells.get(x + z * width).add(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the visible indexed shapes that the ray hits to the list.
+     *
+     * @param origin
+     *            of the ray in world space
+     * @param direction
+     *            of the ray in world space
+     * @param dest
+     *            the list to add the shapes to
+     */
+    public void pick(Vector3f origin, Vector3f direction, List<Shape> dest) {
+        if (cells == null || direction.y == 0) {
+            return;
+        }
+        for (int i = 0; i < heights.size(); i++) {
+            float height = heights.get(i);
+            // the point where the ray hits the plane of the shapes
+            float t = (height - origin.y) / direction.y;
+            if (t <= 0) {
+                continue;
+            }
+            float x = origin.x + t * direction.x;
+            float z = origin.z + t * direction.z;
+            int cellX = cellX(x);
+            int cellZ = cellZ(z);
+            if (cellX < 0 || cellX >= width || cellZ < 0 || cellZ >= depth) {
+                continue;
+            }
+            for (Entry entry : cells.get(cellX + cellZ * width)) {
+                if (entry.height == height && entry.overlay.isVisible() && entry.shape.isVisible()
+                        && x >= entry.minX && x <= entry.maxX && z >= entry.minZ && z <= entry.maxZ
+                        && contains(entry.shape.getPositions(), x, z)) {
+                    dest.add(entry.shape);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests whether the point is inside the polygon (even-odd rule).
+     *
+     * @param positions
+     *            the corners (x, z) of the polygon, null corners are skipped
+     * @param x
+     * @param z
+     * @return true if the point is inside
+     */
+    private static boolean contains(Vector2f[] positions, float x, float z) {
+        boolean inside = false;
+        Vector2f previous = null;
+        for (int i = positions.length - 1; i >= 0 && previous == null; i--) {
+            previous = positions[i];
+        }
+        for (Vector2f current : positions) {
+            if (current == null) {
+                continue;
+            }
+            if ((current.y > z) != (previous.y > z)
+                    && x < (previous.x - current.x) * (z - current.y) / (previous.y - current.y) + current.x) {
+                inside = !inside;
+            }
+            previous = current;
+        }
+        return inside;
+    }
+
+    /**
+     * Tests whether the point is inside the polygon (even-odd rule).
+     *
+     * @param points
+     *            the corners packed as x, y, NaN corners are skipped
+     * @param count
+     *            the number of corners
+     * @param x
+     * @param y
+     * @return true if the point is inside
+     */
+    static boolean contains(float[] points, int count, float x, float y) {
+        boolean inside = false;
+        int previous = -1;
+        for (int i = count - 1; i >= 0 && previous < 0; i--) {
+            if (!Float.isNaN(points[2 * i])) {
+                previous = i;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            float currentX = points[2 * i], currentY = points[2 * i + 1];
+            if (Float.isNaN(currentX)) {
+                continue;
+            }
+            float previousX = points[2 * previous], previousY = points[2 * previous + 1];
+            if ((currentY > y) != (previousY > y)
+                    && x < (previousX - currentX) * (y - currentY) / (previousY - currentY) + currentX) {
+                inside = !inside;
+            }
+            previous = i;
+        }
+        return inside;
+    }
+
+    /**
+     * @return the overlays whose shapes are not in the grid
+     */
+    public List<ClickableOverlay> getOthers() {
+        return others;
+    }
+
+    /**
+     * @param overlays
+     *            all overlays
+     * @return whether the grid was built from a different number of overlays
+     */
+    public boolean isOutdated(List<ClickableOverlay> overlays) {
+        return overlays.size() != overlayCount;
+    }
+
+    private int cellX(float x) {
+        return (int) Math.floor(x) - minX;
+    }
+
+    private int cellZ(float z) {
+        return (int) Math.floor(z) - minZ;
+    }
+
+    /**
+     * A shape in the grid with its bounds on the playing field.
+     */
+    private static class Entry {
+        final ClickableOverlay overlay;
+        final Shape shape;
+        final float height;
+        float minX, minZ, maxX, maxZ;
+
+        Entry(ClickableOverlay overlay, Shape shape) {
+            this.overlay = overlay;
+            this.shape = shape;
+            this.height = shape.getHeight();
+            minX = minZ = Float.MAX_VALUE;
+            maxX = maxZ = -Float.MAX_VALUE;
+            for (Vector2f position : shape.getPositions()) {
+                if (position == null) {
+                    continue;
+                }
+                minX = Math.min(minX, position.x);
+                minZ = Math.min(minZ, position.y);
+                maxX = Math.max(maxX, position.x);
+                maxZ = Math.max(maxZ, position.y);
+            }
+        }
+    }
+}
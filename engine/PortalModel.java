@@ -1,14 +1,9 @@
 package engine;
 
 import java.nio.FloatBuffer;
-import java.util.function.Consumer;
-
-import org.lwjgl.opengl.GL20;
-import org.lwjgl.system.MemoryUtil;
 
 import core.math.Vector3f;
 import core.model.Model;
-import core.shader.ShaderProgram;
 
 public class PortalModel extends Model {
 
@@ -19,6 +14,7 @@ public class PortalModel extends Model {
         this.portalColor = portalColor;
         this.vao = model.getVao();
         this.vertexCount = model.getVertexCount();
+        copyBounds(model);
     }
 
     public PortalModel(Model model) {
@@ -26,19 +22,14 @@ public class PortalModel extends Model {
         this.portalColor = new Vector3f(1, 0, 1);
         this.vao = model.getVao();
         this.vertexCount = model.getVertexCount();
+        copyBounds(model);
     }
 
     @Override
-    public Consumer<ShaderProgram> prepare() {
-        super.prepare();
-        Consumer<ShaderProgram> additionalUniforms = (shader) -> {
-            FloatBuffer buffer = portalColor.getBuffer();
-            GL20.glUniform3fv(shader.getUniformLocation("portalColor"), buffer);
-            MemoryUtil.memFree(buffer);
-        };
-        return additionalUniforms;
+    protected void storeAdditionalData(FloatBuffer buffer) {
+        buffer.put(portalColor.x).put(portalColor.y).put(portalColor.z).put(0);
     }
-    
+
     public PortalModel copy(PortalModel model) {
         return new PortalModel((Model)model, model.getPortalColor());
     }
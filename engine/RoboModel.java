@@ -1,15 +1,9 @@
 package engine;
 
 import java.nio.FloatBuffer;
-import java.util.function.Consumer;
-
-import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL20;
-import org.lwjgl.system.MemoryUtil;
 
 import core.math.Vector3f;
 import core.model.Model;
-import core.shader.ShaderProgram;
 
 public class RoboModel extends Model {
 
@@ -21,6 +15,7 @@ public class RoboModel extends Model {
         this.playerColor = playerColor;
         this.vao = model.getVao();
         this.vertexCount = model.getVertexCount();
+        copyBounds(model);
     }
 
     public RoboModel(Model model) {
@@ -28,18 +23,12 @@ public class RoboModel extends Model {
         this.playerColor = new Vector3f(1, 0, 1);
         this.vao = model.getVao();
         this.vertexCount = model.getVertexCount();
+        copyBounds(model);
     }
 
     @Override
-    public Consumer<ShaderProgram> prepare() {
-        super.prepare();
-        Consumer<ShaderProgram> additionalUniforms = (shader) -> {
-            FloatBuffer buffer = playerColor.getBuffer();
-            GL20.glUniform3fv(shader.getUniformLocation("playerColor"), buffer);
-            GL20.glUniform1i(shader.getUniformLocation("isPreview"), isPreview ? GL11.GL_TRUE : GL11.GL_FALSE);
-            MemoryUtil.memFree(buffer);
-        };
-        return additionalUniforms;
+    protected void storeAdditionalData(FloatBuffer buffer) {
+        buffer.put(playerColor.x).put(playerColor.y).put(playerColor.z).put(isPreview ? 1 : 0);
     }
 
     public RoboModel copy(RoboModel model) {
@@ -62,5 +51,6 @@ public class RoboModel extends Model {
 
     public void setPreview() {
         this.isPreview = true;
+        this.transparent = true;
     }
 }
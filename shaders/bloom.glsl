@@ -0,0 +1,30 @@
+// the two filters of the dual filter (Kawase) bloom, see core.renderer.Bloom;
+// both take bilinear samples, so each tap averages four texels
+
+// halves the size: the center and four diagonal taps one texel away
+#ifdef BLOOM_SOURCE
+vec3 downsample(vec2 texCoords, vec2 texelSize) {
+	vec3 sum = BLOOM_SOURCE(texCoords) * 4.;
+	sum += BLOOM_SOURCE(texCoords + vec2(-texelSize.x, -texelSize.y));
+	sum += BLOOM_SOURCE(texCoords + vec2(texelSize.x, -texelSize.y));
+	sum += BLOOM_SOURCE(texCoords + vec2(-texelSize.x, texelSize.y));
+	sum += BLOOM_SOURCE(texCoords + texelSize);
+	return sum / 8.;
+}
+#endif
+
+// doubles the size: a tent of four axis and four (double weighted) diagonal
+// taps around the center
+vec3 upsample(sampler2D image, vec2 texCoords) {
+	vec2 texelSize = 1. / vec2(textureSize(image, 0));
+	vec2 halfTexel = texelSize * .5;
+	vec3 sum = texture(image, texCoords + vec2(-texelSize.x, 0.)).rgb;
+	sum += texture(image, texCoords + vec2(texelSize.x, 0.)).rgb;
+	sum += texture(image, texCoords + vec2(0., -texelSize.y)).rgb;
+	sum += texture(image, texCoords + vec2(0., texelSize.y)).rgb;
+	sum += texture(image, texCoords + vec2(-halfTexel.x, -halfTexel.y)).rgb * 2.;
+	sum += texture(image, texCoords + vec2(halfTexel.x, -halfTexel.y)).rgb * 2.;
+	sum += texture(image, texCoords + vec2(-halfTexel.x, halfTexel.y)).rgb * 2.;
+	sum += texture(image, texCoords + halfTexel).rgb * 2.;
+	return sum / 12.;
+}
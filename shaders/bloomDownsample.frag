@@ -0,0 +1,23 @@
+#version 330 core
+// a downsampling step of the bloom, with the define PREFILTER it is the first
+// one and keeps only the glowing parts of the image (effect factor of glow)
+
+in vec2 pass_texCoords;
+
+uniform sampler2D image;
+uniform sampler2D glow;
+
+#include frame.glsl
+
+#ifdef PREFILTER
+// the glow texture is rendered with the render scale of the 3D passes
+#define BLOOM_SOURCE(texCoords) (texture(image, texCoords).rgb * texture(glow, clamp(texCoords, 0., 1.) * renderScale).y)
+#else
+#define BLOOM_SOURCE(texCoords) texture(image, texCoords).rgb
+#endif
+
+#include bloom.glsl
+
+void main() {
+	gl_FragColor = vec4(downsample(pass_texCoords, 1. / vec2(textureSize(image, 0))), 1.);
+}
@@ -0,0 +1,12 @@
+#version 330 core
+// an upsampling step of the bloom
+
+in vec2 pass_texCoords;
+
+uniform sampler2D image;
+
+#include bloom.glsl
+
+void main() {
+	gl_FragColor = vec4(upsample(image, pass_texCoords), 1.);
+}
@@ -7,7 +7,7 @@ in vec2 pass_texCoords;
 layout (location = 0) out vec4 color;
 layout (location = 1) out vec4 glow;
 
-uniform bool isReflection;
+#include frame.glsl
 
 void main() {
 	if (isReflection) {
@@ -0,0 +1,41 @@
+// combines the scene, its reflection and the effects (used by
+// postProcessCombine.frag and postProcessFused.frag), requires the Dimensions
+// block, frame.glsl and fxaa.glsl
+
+uniform sampler2D scene;
+uniform sampler2D reflection;
+uniform sampler2D effect;
+uniform sampler2D glow;
+
+vec4 combine(vec2 texCoords, bool antialias) {
+	// the 3D passes render into the lower left renderScale part of their
+	// targets (dynamic resolution), it is upscaled to the screen here (kept
+	// half a texel inside, so linear filtering reads nothing outside of it)
+	vec2 sceneCoords = min(texCoords * renderScale, renderScale - .5 / dimensions);
+	// the reflection is mirrored horizontally
+	vec2 reflectionCoords = min(vec2(1. - texCoords.x, texCoords.y) * renderScale,
+			renderScale - .5 / vec2(textureSize(reflection, 0)));
+
+	vec4 sceneColor = antialias ? FXAA(scene, sceneCoords) : texture(scene, sceneCoords);
+	// a reflection with reduced resolution is upsampled bilinearly (linear
+	// filtering), that smooths its edges already
+	bool fullReflection = textureSize(reflection, 0).x >= int(dimensions.x);
+	vec4 reflectionColor = antialias && fullReflection ? FXAA(reflection, reflectionCoords) : texture(reflection, reflectionCoords);
+	vec4 effectColor = texture(effect, sceneCoords);
+	vec4 glow = texture(glow, sceneCoords);
+	float fresnel = glow.x;
+	float effectFac = glow.y;
+	float mask = glow.z;
+
+	vec4 color;
+	if (mask == 0. || reflect == false || reflectiveness == 0.) {
+		color = sceneColor;
+	} else {
+	   float reflectionBias = reflectiveness;
+	   color = (1.0 - 0.75 * reflectionBias) * fresnel * sceneColor + reflectionBias * (1. - fresnel) * reflectionColor;
+	}
+
+	color.a = 1.;
+	color.rgb = mix(color.rgb, effectColor.rgb, effectColor.a * effectColor.a * effectColor.a);
+	return color;
+}
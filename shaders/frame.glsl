@@ -0,0 +1,12 @@
+// values shared by all draws of a frame (see core.renderer.FrameUniforms)
+layout (std140) uniform Frame
+{
+	float time;
+	bool isReflection;
+	bool fxaa;
+	bool reflect;
+	vec2 inverseTextureSize;
+	float reflectiveness;
+	float renderScale;
+	vec4 clipPlane;
+};
@@ -15,7 +15,7 @@ layout (std140) uniform Dimensions
 
 uniform sampler2D tex;
 uniform vec3 laserColor;
-uniform float time;
+#include frame.glsl
 
 #include fresnel.glsl
 #include fragViewDir.glsl
@@ -15,7 +15,7 @@ layout (std140) uniform Dimensions
 
 uniform sampler2D tex;
 uniform sampler2D depth;
-uniform float time;
+#include frame.glsl
 
 const float totalAnimationTime = 1.;
 const float size = 0.12;
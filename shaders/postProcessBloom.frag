@@ -1,45 +1,16 @@
 #version 330 core
+// the last upsampling step of the bloom, added to the image
 
 in vec2 pass_texCoords;
 
 uniform sampler2D image;
-uniform sampler2D glow;
+uniform sampler2D bloom;
 
-uniform bool horizontal;
 uniform float strength;
 
-const float weight[5] = float[] (0.227027, 0.1945946, 0.1216216, 0.054054, 0.016216);
+#include bloom.glsl
 
 void main() {
-
-	vec2 tex_offset = 1.0 / textureSize(glow, 0); // gets size of single texel
-	vec3 result = texture(glow, pass_texCoords).y * texture(image, pass_texCoords).rgb * weight[0]; // current fragment's contribution
-	if (horizontal) {
-		for (int i = 1; i < 5; ++i) {
-			result += texture(glow,
-					pass_texCoords + vec2(tex_offset.x * i, 0.0)).y
-					* texture(image, pass_texCoords  + vec2(tex_offset.x * i, 0.0)).rgb
-					* weight[i];
-			result += texture(glow,
-					pass_texCoords - vec2(tex_offset.x * i, 0.0)).y
-					* texture(image, pass_texCoords - vec2(tex_offset.x * i, 0.0)).rgb
-					* weight[i];
-		}
-	} else {
-		for (int i = 1; i < 5; ++i) {
-			result += texture(glow,
-					pass_texCoords + vec2(0.0, tex_offset.y * i)).y
-					* texture(image, pass_texCoords + vec2(0.0, tex_offset.y * i)).rgb
-					* weight[i];
-			result += texture(glow,
-					pass_texCoords - vec2(0.0, tex_offset.y * i)).y
-					* texture(image, pass_texCoords - vec2(0.0, tex_offset.y * i)).rgb
-					* weight[i];
-		}
-	}
-
-	gl_FragColor = vec4(result, 1.0);
-	gl_FragColor.rgb = mix(texture(image, pass_texCoords).rgb, gl_FragColor.rgb,
-			strength);
+	gl_FragColor.rgb = texture(image, pass_texCoords).rgb + upsample(bloom, pass_texCoords) * strength;
+	gl_FragColor.a = 1.;
 }
-
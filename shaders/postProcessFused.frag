@@ -0,0 +1,39 @@
+#version 330 core
+// combine, FXAA and sharpen in a single pass to the screen, the variant is
+// selected with the defines USE_FXAA and USE_SHARPEN
+// (see core.renderer.FusedPostProcess)
+
+in vec2 pass_texCoords;
+
+layout (std140) uniform Dimensions
+{
+	vec2 dimensions;
+};
+
+uniform float strength;
+
+#include frame.glsl
+
+#include fxaa.glsl
+
+#include combine.glsl
+
+#ifdef USE_FXAA
+const bool antialias = true;
+#else
+const bool antialias = false;
+#endif
+
+#ifdef USE_SHARPEN
+// the neighbours are combined without FXAA (it would run for all nine samples)
+#define SHARPEN_SAMPLE(texCoords) combine(texCoords, false).rgb
+#include sharpen.glsl
+#endif
+
+void main() {
+	gl_FragColor = combine(pass_texCoords, antialias);
+#ifdef USE_SHARPEN
+	gl_FragColor.rgb = sharpen(gl_FragColor.rgb, pass_texCoords, 1. / dimensions, strength);
+#endif
+	gl_FragColor.a = 1.;
+}
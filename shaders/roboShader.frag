@@ -4,6 +4,7 @@ in vec3 pass_position;
 in vec3 pass_normal;
 in vec2 pass_texCoords;
 in mat4 pass_invMatrix;
+flat in vec4 pass_instanceData; // rgb: playerColor, a: isPreview
 
 layout (location = 0) out vec4 color;
 layout (location = 1) out vec4 glow;
@@ -21,9 +22,7 @@ layout (std140) uniform Dimensions
 
 uniform sampler2D tex;
 uniform sampler2D tex2;
-uniform vec3 playerColor;
-uniform bool isReflection;
-uniform bool isPreview;
+#include frame.glsl
 
 #include fresnel.glsl
 #include luminance.glsl
@@ -36,6 +35,9 @@ vec2 matcap(vec3 eye, vec3 normal) {
 }
 
 void main() {
+	vec3 playerColor = pass_instanceData.rgb;
+	bool isPreview = pass_instanceData.a > .5;
+
 	float yCut;
 	if (isReflection) {
 		yCut = 0.;
@@ -4,14 +4,17 @@ layout (location = 0) in vec3 position;
 layout (location = 1) in vec3 normal;
 layout (location = 2) in vec3 tangent;
 layout (location = 3) in vec2 texCoords;
+layout (location = 4) in mat4 modelMatrix; // per instance
+layout (location = 8) in vec4 instanceData; // per instance
 
 out vec3 pass_position;
 out vec3 pass_normal;
 out vec2 pass_texCoords;
 out mat4 pass_invMatrix;
+flat out vec4 pass_instanceData;
 
 uniform vec3 lightPos;
-uniform mat4 modelMatrix;
+#include frame.glsl
 
 layout (std140) uniform Matrices
 {
@@ -22,7 +25,10 @@ layout (std140) uniform Matrices
 void main() {
 	pass_position = (modelMatrix * vec4(position.xyz, 1.)).xyz;
 	pass_texCoords = texCoords;
+	pass_instanceData = instanceData;
 	pass_normal = normalize(modelMatrix * vec4(normal, 0.0)).xyz;
     pass_invMatrix = transpose(viewMatrix) * inverse(projectionMatrix);
 	gl_Position = projectionMatrix * viewMatrix * modelMatrix * vec4(position.xyz, 1.);
+	// only used while GL_CLIP_DISTANCE0 is enabled (reflection pass)
+	gl_ClipDistance[0] = dot(vec4(pass_position, 1.), clipPlane);
 }
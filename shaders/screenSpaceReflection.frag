@@ -0,0 +1,93 @@
+#version 330 core
+// screen-space reflection (see core.renderer.SortedRenderer.ReflectionTechnique):
+// the view ray of each mirroring fragment (mask in glow.z) is reflected at the
+// board and marched through the depth buffer of the scene. The result replaces
+// the mirror texture in the combine pass, so it is written like the mirror:
+// horizontally flipped and (as a scaled pass) into the lower left renderScale
+// part of the target.
+
+in vec2 pass_texCoords;
+in mat4 pass_inverseProjection;
+in vec3 pass_planeNormal;
+
+layout (std140) uniform Matrices
+{
+	mat4 viewMatrix;
+	mat4 projectionMatrix;
+};
+
+uniform sampler2D scene;
+uniform sampler2D depth;
+uniform sampler2D glow;
+
+#include frame.glsl
+
+const int STEPS = 48;
+const int REFINEMENT_STEPS = 5;
+const float MAX_DISTANCE = 24.;
+const float THICKNESS = 0.3;
+
+// position in view space of the scene at the given screen coordinates
+vec3 viewPosition(vec2 screen) {
+	vec4 ndc = vec4(screen * 2. - 1., texture(depth, screen * renderScale).x * 2. - 1., 1.);
+	vec4 position = pass_inverseProjection * ndc;
+	return position.xyz / position.w;
+}
+
+// screen coordinates (xy) and clip w of the given position in view space
+vec3 project(vec3 position) {
+	vec4 clip = projectionMatrix * vec4(position, 1.);
+	return vec3(clip.xy / clip.w * 0.5 + 0.5, clip.w);
+}
+
+void main() {
+	vec2 fragment = vec2(1. - pass_texCoords.x, pass_texCoords.y);
+	vec4 sceneColor = texture(scene, fragment * renderScale);
+	gl_FragColor = vec4(sceneColor.rgb, 1.);
+	if (texture(glow, fragment * renderScale).z == 0.) {
+		// not mirroring, the reflection is not used
+		return;
+	}
+
+	vec3 origin = viewPosition(fragment);
+	vec3 direction = reflect(normalize(origin), pass_planeNormal);
+	float stepLength = MAX_DISTANCE / float(STEPS);
+
+	vec3 before = origin;
+	vec3 position = origin;
+	bool hit = false;
+	for (int i = 1; i <= STEPS; i++) {
+		position = origin + direction * stepLength * float(i);
+		vec3 screen = project(position);
+		if (screen.z <= 0. || any(lessThan(screen.xy, vec2(0.))) || any(greaterThan(screen.xy, vec2(1.)))) {
+			break;
+		}
+		// the view looks along -z, the ray is behind the surface if it is
+		// farther away
+		float behind = viewPosition(screen.xy).z - position.z;
+		if (behind > 0. && behind < THICKNESS + stepLength) {
+			hit = true;
+			break;
+		}
+		before = position;
+	}
+	if (!hit) {
+		return;
+	}
+
+	// binary search between the last step in front and the first behind
+	for (int i = 0; i < REFINEMENT_STEPS; i++) {
+		vec3 middle = (before + position) * 0.5;
+		if (viewPosition(project(middle).xy).z - middle.z > 0.) {
+			position = middle;
+		} else {
+			before = middle;
+		}
+	}
+
+	vec2 screen = project(position).xy;
+	// fade out towards the screen edges and the end of the ray
+	vec2 edge = smoothstep(0., 0.1, screen) * (1. - smoothstep(0.9, 1., screen));
+	float fade = edge.x * edge.y * (1. - smoothstep(0.6, 1., length(position - origin) / MAX_DISTANCE));
+	gl_FragColor.rgb = mix(sceneColor.rgb, texture(scene, screen * renderScale).rgb, fade);
+}
@@ -0,0 +1,23 @@
+#version 330 core
+
+layout (location = 0) in vec2 position;
+layout (location = 1) in vec2 texCoords;
+
+out vec2 pass_texCoords;
+out mat4 pass_inverseProjection;
+out vec3 pass_planeNormal;
+
+layout (std140) uniform Matrices
+{
+	mat4 viewMatrix;
+	mat4 projectionMatrix;
+};
+
+void main() {
+	gl_Position = vec4(position.x, position.y, 0.0f, 1.0f); 
+	pass_texCoords = texCoords;
+	// the same for all fragments, so it is calculated per vertex
+	pass_inverseProjection = inverse(projectionMatrix);
+	// normal of the board (xz plane) in view space
+	pass_planeNormal = normalize((viewMatrix * vec4(0., 1., 0., 0.)).xyz);
+}
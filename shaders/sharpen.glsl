@@ -0,0 +1,16 @@
+// sharpens with a 3x3 kernel (used by postProcessSharpen.frag and
+// postProcessFused.frag), the including shader defines
+// SHARPEN_SAMPLE(texCoords) returning the color of a neighbour
+
+vec3 sharpen(vec3 center, vec2 texCoords, vec2 texelSize, float strength) {
+	vec3 result = 9. * center;
+
+	for (int x = -1; x <= 1; x++) {
+		for (int y = -1; y <= 1; y++) {
+			if (x != 0 || y != 0)
+				result -= SHARPEN_SAMPLE(texCoords + vec2(x, y) * texelSize);
+		}
+	}
+
+	return mix(center, result, strength);
+}
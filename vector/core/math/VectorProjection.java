@@ -0,0 +1,71 @@
+package core.math;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The SIMD kernel of {@link Matrix4f#projectToScreen}: projects as many
+ * positions at once as the preferred vector of the CPU holds (gathering the
+ * packed x, y and z and scattering the screen x and y). The operations are the
+ * same as in the scalar loop (no fused multiply-add), so both give the same
+ * results.</br>
+ * </br>
+ * Uses the incubating Vector API, so it is kept out of the core folder:
+ * compile and run with <code>--add-modules jdk.incubator.vector</code> (see
+ * the README). Without this class or the module, {@link Matrix4f} only uses
+ * the scalar loop.
+ */
+final class VectorProjection implements ProjectionKernel {
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+	/** offsets of the positions of one vector in the packed x, y, z array */
+	private static final int[] POINT_OFFSETS = new int[SPECIES.length()];
+	/** offsets of the results of one vector in the packed x, y array */
+	private static final int[] SCREEN_OFFSETS = new int[SPECIES.length()];
+
+	static {
+		for (int i = 0; i < SPECIES.length(); i++) {
+			POINT_OFFSETS[i] = 3 * i;
+			SCREEN_OFFSETS[i] = 2 * i;
+		}
+	}
+
+	/** the rows of the matrix (scratch) */
+	private final Vector4f row0 = new Vector4f(), row1 = new Vector4f(), row2 = new Vector4f();
+
+	@Override
+	public int project(Matrix4f matrix, float[] points, int count, float scaleX, float scaleY, float halfWidth,
+			float halfHeight, float[] dest) {
+		matrix.getRow(0, row0);
+		matrix.getRow(1, row1);
+		matrix.getRow(2, row2);
+		FloatVector one = FloatVector.broadcast(SPECIES, 1f);
+		FloatVector minusOne = FloatVector.broadcast(SPECIES, -1f);
+		FloatVector nan = FloatVector.broadcast(SPECIES, Float.NaN);
+
+		int lanes = SPECIES.length();
+		int bound = SPECIES.loopBound(count);
+		int visible = 0;
+		for (int i = 0; i < bound; i += lanes) {
+			FloatVector x = FloatVector.fromArray(SPECIES, points, 3 * i, POINT_OFFSETS, 0);
+			FloatVector y = FloatVector.fromArray(SPECIES, points, 3 * i + 1, POINT_OFFSETS, 0);
+			FloatVector z = FloatVector.fromArray(SPECIES, points, 3 * i + 2, POINT_OFFSETS, 0);
+
+			FloatVector viewX = x.mul(row0.x).add(y.mul(row0.y)).add(z.mul(row0.z)).add(row0.w);
+			FloatVector viewY = x.mul(row1.x).add(y.mul(row1.y)).add(z.mul(row1.z)).add(row1.w);
+			FloatVector viewZ = x.mul(row2.x).add(y.mul(row2.y)).add(z.mul(row2.z)).add(row2.w);
+
+			VectorMask<Float> behind = viewZ.compare(VectorOperators.GE, 0f);
+			FloatVector depth = minusOne.div(viewZ);
+			FloatVector screenX = one.add(viewX.mul(scaleX).mul(depth)).mul(halfWidth).blend(nan, behind);
+			FloatVector screenY = one.sub(viewY.mul(scaleY).mul(depth)).mul(halfHeight).blend(nan, behind);
+			screenX.intoArray(dest, 2 * i, SCREEN_OFFSETS, 0);
+			screenY.intoArray(dest, 2 * i + 1, SCREEN_OFFSETS, 0);
+			visible += lanes - behind.trueCount();
+		}
+		// the rest that does not fill a vector
+		return visible + matrix.projectScalar(points, bound, count, scaleX, scaleY, halfWidth, halfHeight, dest);
+	}
+}